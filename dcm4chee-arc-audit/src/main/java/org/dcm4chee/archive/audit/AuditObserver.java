@@ -101,19 +101,22 @@ public class AuditObserver {
         String studyID = context.getAttributes()
                 .getString(Tag.StudyInstanceUID);
 
-        HashMap<String, StoreAudit> auditMap = getOrCreateAuditsMap(session,
-                context.isFail());
+        // objects of one session may be stored concurrently (STOW-RS)
+        synchronized (session) {
+            HashMap<String, StoreAudit> auditMap = getOrCreateAuditsMap(session,
+                    context.isFail());
 
-        if (auditMap.get(studyID) == null)
-            auditMap.put(
-                    studyID,
-                    new StoreAudit(session.getRemoteAET(), session.getSource(), 
-                            context.getAttributes(), context
-                            .isFail() ? EventOutcomeIndicator.SeriousFailure
-                            : EventOutcomeIndicator.Success, logger));
-        else {
-            StoreAudit existingAudit = auditMap.get(studyID);
-            existingAudit.addInstance(context.getAttributes());
+            if (auditMap.get(studyID) == null)
+                auditMap.put(
+                        studyID,
+                        new StoreAudit(session.getRemoteAET(), session.getSource(), 
+                                context.getAttributes(), context
+                                .isFail() ? EventOutcomeIndicator.SeriousFailure
+                                : EventOutcomeIndicator.Success, logger));
+            else {
+                StoreAudit existingAudit = auditMap.get(studyID);
+                existingAudit.addInstance(context.getAttributes());
+            }
         }
     }
 
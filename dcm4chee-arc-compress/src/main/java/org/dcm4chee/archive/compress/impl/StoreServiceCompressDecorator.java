@@ -63,6 +63,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * @author Umberto Cappellini <umberto.cappellini@agfa.com>
@@ -105,7 +106,9 @@ public class StoreServiceCompressDecorator extends DelegatingStoreService {
         else
             LOG.info("Compression rule selected:"+rule.getCommonName());
 
-        MessageDigest digest = session.getMessageDigest();
+        // the session digest may be in use for spooling further objects
+        // received by the same session concurrently
+        MessageDigest digest = newMessageDigest(session.getMessageDigest());
         StorageContext storageContext =
                 storageService.createStorageContext(session.getStorageSystem());
         Path source = context.getSpoolFile();
@@ -150,4 +153,14 @@ public class StoreServiceCompressDecorator extends DelegatingStoreService {
         return true;
      }
 
+    private static MessageDigest newMessageDigest(MessageDigest digest) {
+        if (digest == null)
+            return null;
+        try {
+            return MessageDigest.getInstance(digest.getAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
 }
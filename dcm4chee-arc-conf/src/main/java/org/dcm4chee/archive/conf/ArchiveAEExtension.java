@@ -61,6 +61,7 @@ import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.QueryOption;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4chee.archive.dto.ReferenceUpdateOnRetrieveScope;
 import org.dcm4chee.storage.conf.Availability;
@@ -87,12 +88,36 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmWadoOverlayRendering", defaultValue = "true")
     private boolean wadoOverlayRendering;
 
+    @ConfigurableProperty(name = "dcmWadoGIFRenderAheadFrames", defaultValue = "0")
+    private int wadoGIFRenderAheadFrames;
+
+    @ConfigurableProperty(name = "dcmWadoDecompressMaxThreads", defaultValue = "1")
+    private int wadoDecompressMaxThreads = 1;
+
+    @ConfigurableProperty(name = "dcmWadoZipReadAheadEntries", defaultValue = "0")
+    private int wadoZipReadAheadEntries = 0;
+
+    @ConfigurableProperty(name = "dcmWadoZipReadAheadBufferSize", defaultValue = "8388608")
+    private int wadoZipReadAheadBufferSize = 8388608;
+
     @ConfigurableProperty(name = "dcmStorageSystemGroupID")
     private String storageSystemGroupID;
 
     @ConfigurableProperty(name= "dcmQidoClientAcceptMediaType", defaultValue="application/json")
     private String qidoClientAcceptType = "application/json";
 
+    @ConfigurableProperty(name = "dcmStowClientMaxParallelRequests", defaultValue = "1")
+    private int stowClientMaxParallelRequests = 1;
+
+    @ConfigurableProperty(name = "dcmStowClientMaxRequestSize", defaultValue = "0")
+    private long stowClientMaxRequestSize;
+
+    @ConfigurableProperty(name = "dcmStowClientRequestRetries", defaultValue = "0")
+    private int stowClientRequestRetries;
+
+    @ConfigurableProperty(name = "dcmStowMaxConcurrentStores", defaultValue = "1")
+    private int stowMaxConcurrentStores = 1;
+
     @ConfigurableProperty(name = "dcmSpoolDirectoryPath")
     private String spoolDirectoryPath;
 
@@ -123,6 +148,27 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmSendPendingCGet", defaultValue = "false")
     private boolean sendPendingCGet;
 
+    @ConfigurableProperty(name = "dcmQueryPipelineQueueSize", defaultValue = "0")
+    private int queryPipelineQueueSize;
+
+    @ConfigurableProperty(name = "dcmPatientQueryFetchSize", defaultValue = "0")
+    private int patientQueryFetchSize;
+
+    @ConfigurableProperty(name = "dcmStudyQueryFetchSize", defaultValue = "0")
+    private int studyQueryFetchSize;
+
+    @ConfigurableProperty(name = "dcmSeriesQueryFetchSize", defaultValue = "0")
+    private int seriesQueryFetchSize;
+
+    @ConfigurableProperty(name = "dcmInstanceQueryFetchSize", defaultValue = "0")
+    private int instanceQueryFetchSize;
+
+    @ConfigurableProperty(name = "dcmQueryFetchSizeAdaptive", defaultValue = "false")
+    private boolean queryFetchSizeAdaptive;
+
+    @ConfigurableProperty(name = "dcmQueryMaxFetchSize", defaultValue = "1000")
+    private int queryMaxFetchSize = 1000;
+
     @ConfigurableProperty(name = "dcmSendPendingCMoveInterval", defaultValue = "0")
     private int sendPendingCMoveInterval;
 
@@ -650,4 +696,144 @@ public class ArchiveAEExtension extends AEExtension {
         this.defaultExternalRetrieveAETAvailability = defaultExternalRetrieveAETAvailability;
     }
 
+    public int getStowClientMaxParallelRequests() {
+        return stowClientMaxParallelRequests;
+    }
+
+    public void setStowClientMaxParallelRequests(
+            int stowClientMaxParallelRequests) {
+        this.stowClientMaxParallelRequests = stowClientMaxParallelRequests;
+    }
+
+    public long getStowClientMaxRequestSize() {
+        return stowClientMaxRequestSize;
+    }
+
+    public void setStowClientMaxRequestSize(long stowClientMaxRequestSize) {
+        this.stowClientMaxRequestSize = stowClientMaxRequestSize;
+    }
+
+    public int getStowClientRequestRetries() {
+        return stowClientRequestRetries;
+    }
+
+    public void setStowClientRequestRetries(int stowClientRequestRetries) {
+        this.stowClientRequestRetries = stowClientRequestRetries;
+    }
+
+    public int getStowMaxConcurrentStores() {
+        return stowMaxConcurrentStores;
+    }
+
+    public void setStowMaxConcurrentStores(int stowMaxConcurrentStores) {
+        this.stowMaxConcurrentStores = stowMaxConcurrentStores;
+    }
+
+    public int getWadoGIFRenderAheadFrames() {
+        return wadoGIFRenderAheadFrames;
+    }
+
+    public void setWadoGIFRenderAheadFrames(int wadoGIFRenderAheadFrames) {
+        this.wadoGIFRenderAheadFrames = wadoGIFRenderAheadFrames;
+    }
+
+    public int getWadoDecompressMaxThreads() {
+        return wadoDecompressMaxThreads;
+    }
+
+    public void setWadoDecompressMaxThreads(int wadoDecompressMaxThreads) {
+        this.wadoDecompressMaxThreads = wadoDecompressMaxThreads;
+    }
+
+    public int getWadoZipReadAheadEntries() {
+        return wadoZipReadAheadEntries;
+    }
+
+    public void setWadoZipReadAheadEntries(int wadoZipReadAheadEntries) {
+        this.wadoZipReadAheadEntries = wadoZipReadAheadEntries;
+    }
+
+    public int getWadoZipReadAheadBufferSize() {
+        return wadoZipReadAheadBufferSize;
+    }
+
+    public void setWadoZipReadAheadBufferSize(int wadoZipReadAheadBufferSize) {
+        this.wadoZipReadAheadBufferSize = wadoZipReadAheadBufferSize;
+    }
+
+    public int getQueryPipelineQueueSize() {
+        return queryPipelineQueueSize;
+    }
+
+    public void setQueryPipelineQueueSize(int queryPipelineQueueSize) {
+        this.queryPipelineQueueSize = queryPipelineQueueSize;
+    }
+
+    public int getPatientQueryFetchSize() {
+        return patientQueryFetchSize;
+    }
+
+    public void setPatientQueryFetchSize(int patientQueryFetchSize) {
+        this.patientQueryFetchSize = patientQueryFetchSize;
+    }
+
+    public int getStudyQueryFetchSize() {
+        return studyQueryFetchSize;
+    }
+
+    public void setStudyQueryFetchSize(int studyQueryFetchSize) {
+        this.studyQueryFetchSize = studyQueryFetchSize;
+    }
+
+    public int getSeriesQueryFetchSize() {
+        return seriesQueryFetchSize;
+    }
+
+    public void setSeriesQueryFetchSize(int seriesQueryFetchSize) {
+        this.seriesQueryFetchSize = seriesQueryFetchSize;
+    }
+
+    public int getInstanceQueryFetchSize() {
+        return instanceQueryFetchSize;
+    }
+
+    public void setInstanceQueryFetchSize(int instanceQueryFetchSize) {
+        this.instanceQueryFetchSize = instanceQueryFetchSize;
+    }
+
+    /**
+     * Returns the JDBC fetch size of queries on the specified level, or 0
+     * for the fetch size configured by the persistence unit.
+     */
+    public int getQueryFetchSize(QueryRetrieveLevel level) {
+        switch (level) {
+        case PATIENT:
+            return patientQueryFetchSize;
+        case STUDY:
+            return studyQueryFetchSize;
+        case SERIES:
+            return seriesQueryFetchSize;
+        case IMAGE:
+            return instanceQueryFetchSize;
+        default:
+            return 0;
+        }
+    }
+
+    public boolean isQueryFetchSizeAdaptive() {
+        return queryFetchSizeAdaptive;
+    }
+
+    public void setQueryFetchSizeAdaptive(boolean queryFetchSizeAdaptive) {
+        this.queryFetchSizeAdaptive = queryFetchSizeAdaptive;
+    }
+
+    public int getQueryMaxFetchSize() {
+        return queryMaxFetchSize;
+    }
+
+    public void setQueryMaxFetchSize(int queryMaxFetchSize) {
+        this.queryMaxFetchSize = queryMaxFetchSize;
+    }
+
 }
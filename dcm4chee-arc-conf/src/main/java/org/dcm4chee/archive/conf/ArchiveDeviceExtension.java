@@ -180,6 +180,57 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmPriorsCacheClearMaxLocationsPerDelete", defaultValue = "1000")
     private int priorsCacheClearMaxLocationsPerDelete;
 
+    @ConfigurableProperty(name = "dcmHttpClientMaxConnectionsPerHost", defaultValue = "5")
+    private int httpClientMaxConnectionsPerHost = 5;
+
+    @ConfigurableProperty(name = "dcmHttpClientConnectTimeout", defaultValue = "0")
+    private int httpClientConnectTimeout;
+
+    @ConfigurableProperty(name = "dcmHttpClientReadTimeout", defaultValue = "0")
+    private int httpClientReadTimeout;
+
+    @ConfigurableProperty(name = "dcmRenderedImageCacheDirectory")
+    private String renderedImageCacheDirectory;
+
+    @ConfigurableProperty(name = "dcmRenderedImageCacheMaxSize", defaultValue = "1000000000")
+    private long renderedImageCacheMaxSize = 1000000000L;
+
+    @ConfigurableProperty(name = "dcmImageIOPoolSize", defaultValue = "4")
+    private int imageIOPoolSize = 4;
+
+    @ConfigurableProperty(name = "dcmImageIOFormatPoolSize")
+    private String[] imageIOFormatPoolSizes = {};
+
+    @ConfigurableProperty(name = "dcmSeriesMetadataDirectory")
+    private String seriesMetadataDirectory;
+
+    @ConfigurableProperty(name = "dcmThumbnailSize")
+    private String[] thumbnailSizes = {};
+
+    @ConfigurableProperty(name = "dcmThumbnailPerInstance", defaultValue = "false")
+    private boolean thumbnailPerInstance;
+
+    @ConfigurableProperty(name = "dcmThumbnailSeriesDelay", defaultValue = "60")
+    private int thumbnailSeriesDelay = 60;
+
+    @ConfigurableProperty(name = "dcmThumbnailQueueSize", defaultValue = "100")
+    private int thumbnailQueueSize = 100;
+
+    @ConfigurableProperty(name = "dcmDecodedAttributesCacheSize", defaultValue = "1000")
+    private int decodedAttributesCacheSize = 1000;
+
+    @ConfigurableProperty(name = "dcmPersonNameFragmentMatching", defaultValue = "false")
+    private boolean personNameFragmentMatching;
+
+    @ConfigurableProperty(name = "dcmQueryResultCacheTTL", defaultValue = "0")
+    private int queryResultCacheTTL;
+
+    @ConfigurableProperty(name = "dcmQueryResultCacheSize", defaultValue = "100")
+    private int queryResultCacheSize = 100;
+
+    @ConfigurableProperty(name = "dcmQueryResultCacheMaxMatches", defaultValue = "1000")
+    private int queryResultCacheMaxMatches = 1000;
+
     private transient FuzzyStr fuzzyStr;
     private transient TemplatesCache templatesCache;
 
@@ -445,6 +496,7 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         queryParam.setFuzzyStr(getFuzzyStr());
         queryParam.setAttributeFilters(attributeFilters);
         queryParam.setDeIdentifyLogs(isDeIdentifyLogs());
+        queryParam.setPersonNameFragmentMatching(personNameFragmentMatching);
         return queryParam;
     }
 
@@ -541,5 +593,168 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.useWhitelistOfVisibleImageSRClasses = useWhitelistOfVisibleImageSRClasses;
     }
 
+    public int getHttpClientMaxConnectionsPerHost() {
+        return httpClientMaxConnectionsPerHost;
+    }
+
+    public void setHttpClientMaxConnectionsPerHost(
+            int httpClientMaxConnectionsPerHost) {
+        this.httpClientMaxConnectionsPerHost = httpClientMaxConnectionsPerHost;
+    }
+
+    public int getHttpClientConnectTimeout() {
+        return httpClientConnectTimeout;
+    }
+
+    public void setHttpClientConnectTimeout(int httpClientConnectTimeout) {
+        this.httpClientConnectTimeout = httpClientConnectTimeout;
+    }
+
+    public int getHttpClientReadTimeout() {
+        return httpClientReadTimeout;
+    }
+
+    public void setHttpClientReadTimeout(int httpClientReadTimeout) {
+        this.httpClientReadTimeout = httpClientReadTimeout;
+    }
+
+    public String getRenderedImageCacheDirectory() {
+        return renderedImageCacheDirectory;
+    }
+
+    public void setRenderedImageCacheDirectory(
+            String renderedImageCacheDirectory) {
+        this.renderedImageCacheDirectory = renderedImageCacheDirectory;
+    }
+
+    public long getRenderedImageCacheMaxSize() {
+        return renderedImageCacheMaxSize;
+    }
+
+    public void setRenderedImageCacheMaxSize(long renderedImageCacheMaxSize) {
+        this.renderedImageCacheMaxSize = renderedImageCacheMaxSize;
+    }
+
+    public String getSeriesMetadataDirectory() {
+        return seriesMetadataDirectory;
+    }
+
+    public void setSeriesMetadataDirectory(String seriesMetadataDirectory) {
+        this.seriesMetadataDirectory = seriesMetadataDirectory;
+    }
+
+    public int getImageIOPoolSize() {
+        return imageIOPoolSize;
+    }
+
+    public void setImageIOPoolSize(int imageIOPoolSize) {
+        this.imageIOPoolSize = imageIOPoolSize;
+    }
+
+    public String[] getImageIOFormatPoolSizes() {
+        return imageIOFormatPoolSizes;
+    }
+
+    public void setImageIOFormatPoolSizes(String... imageIOFormatPoolSizes) {
+        this.imageIOFormatPoolSizes = imageIOFormatPoolSizes;
+    }
+
+    /**
+     * Returns the maximal number of idle image readers and writers of the
+     * specified format kept for reuse, as configured by an entry
+     * {@code <format>=<size>} of {@link #getImageIOFormatPoolSizes()}, or
+     * {@link #getImageIOPoolSize()} if there is no entry for the format.
+     */
+    public int getImageIOPoolSize(String formatName) {
+        for (String entry : imageIOFormatPoolSizes) {
+            int index = entry.indexOf('=');
+            if (index > 0 && entry.substring(0, index).trim()
+                    .equalsIgnoreCase(formatName))
+                try {
+                    return Integer.parseInt(entry.substring(index + 1).trim());
+                } catch (NumberFormatException e) {
+                    break;
+                }
+        }
+        return imageIOPoolSize;
+    }
+
+    public String[] getThumbnailSizes() {
+        return thumbnailSizes;
+    }
+
+    public void setThumbnailSizes(String... thumbnailSizes) {
+        this.thumbnailSizes = thumbnailSizes;
+    }
+
+    public boolean isThumbnailPerInstance() {
+        return thumbnailPerInstance;
+    }
+
+    public void setThumbnailPerInstance(boolean thumbnailPerInstance) {
+        this.thumbnailPerInstance = thumbnailPerInstance;
+    }
+
+    public int getThumbnailSeriesDelay() {
+        return thumbnailSeriesDelay;
+    }
+
+    public void setThumbnailSeriesDelay(int thumbnailSeriesDelay) {
+        this.thumbnailSeriesDelay = thumbnailSeriesDelay;
+    }
+
+    public int getThumbnailQueueSize() {
+        return thumbnailQueueSize;
+    }
+
+    public void setThumbnailQueueSize(int thumbnailQueueSize) {
+        this.thumbnailQueueSize = thumbnailQueueSize;
+    }
+
+    public int getDecodedAttributesCacheSize() {
+        return decodedAttributesCacheSize;
+    }
+
+    public void setDecodedAttributesCacheSize(int decodedAttributesCacheSize) {
+        this.decodedAttributesCacheSize = decodedAttributesCacheSize;
+    }
+
+    /**
+     * Indicates if Person Name patterns with leading wildcards are matched
+     * by the person_name_fragment table. Must only be enabled after the
+     * fragments of existing Person Names were populated, e.g. by
+     * alter-table-4.5-mysql.ddl.
+     */
+    public boolean isPersonNameFragmentMatching() {
+        return personNameFragmentMatching;
+    }
+
+    public void setPersonNameFragmentMatching(boolean personNameFragmentMatching) {
+        this.personNameFragmentMatching = personNameFragmentMatching;
+    }
+
+    public int getQueryResultCacheTTL() {
+        return queryResultCacheTTL;
+    }
+
+    public void setQueryResultCacheTTL(int queryResultCacheTTL) {
+        this.queryResultCacheTTL = queryResultCacheTTL;
+    }
+
+    public int getQueryResultCacheSize() {
+        return queryResultCacheSize;
+    }
+
+    public void setQueryResultCacheSize(int queryResultCacheSize) {
+        this.queryResultCacheSize = queryResultCacheSize;
+    }
+
+    public int getQueryResultCacheMaxMatches() {
+        return queryResultCacheMaxMatches;
+    }
+
+    public void setQueryResultCacheMaxMatches(int queryResultCacheMaxMatches) {
+        this.queryResultCacheMaxMatches = queryResultCacheMaxMatches;
+    }
 
 }
@@ -60,6 +60,7 @@ public class QueryParam {
     private Issuer defaultIssuerOfPatientID;
     private Issuer defaultIssuerOfAccessionNumber;
     private boolean deIdentifyLogs = false;
+    private boolean personNameFragmentMatching;
     private QueryRetrieveView queryRetrieveView;
 
     public final boolean isCombinedDatetimeMatching() {
@@ -143,6 +144,14 @@ public class QueryParam {
         this.defaultIssuerOfAccessionNumber = issuer;
     }
     
+    public boolean isPersonNameFragmentMatching() {
+        return personNameFragmentMatching;
+    }
+
+    public void setPersonNameFragmentMatching(boolean personNameFragmentMatching) {
+        this.personNameFragmentMatching = personNameFragmentMatching;
+    }
+
     public boolean isDeIdentifyLogs() {
         return deIdentifyLogs;
     }
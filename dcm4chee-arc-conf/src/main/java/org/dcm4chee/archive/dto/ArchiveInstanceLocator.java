@@ -62,6 +62,7 @@ public class ArchiveInstanceLocator extends InstanceLocator
     private final boolean withoutBulkdata;
     private final String seriesInstanceUID;
     private final String studyInstanceUID;
+    private final byte[] frameIndex;
     private ArchiveInstanceLocator fallbackLocator;
 
     public static final class Builder {
@@ -77,6 +78,7 @@ public class ArchiveInstanceLocator extends InstanceLocator
         private boolean withoutBulkdata;
         private String seriesInstanceUID;
         private String studyInstanceUID;
+        private byte[] frameIndex;
 
         public Builder(String cuid, String iuid, String tsuid) {
             this.cuid = cuid;
@@ -130,6 +132,11 @@ public class ArchiveInstanceLocator extends InstanceLocator
         	return this;
         }
 
+        public Builder frameIndex(byte[] frameIndex) {
+            this.frameIndex = frameIndex;
+            return this;
+        }
+
         public ArchiveInstanceLocator build() {
             return new ArchiveInstanceLocator(this);
         }
@@ -146,6 +153,7 @@ public class ArchiveInstanceLocator extends InstanceLocator
         this.seriesInstanceUID = builder.seriesInstanceUID;
         this.studyInstanceUID = builder.studyInstanceUID;
         this.externalLocators = builder.externalLocators;
+        this.frameIndex = builder.frameIndex;
     }
 
     private static String createRetrieveURI(Builder builder) {
@@ -183,6 +191,14 @@ public class ArchiveInstanceLocator extends InstanceLocator
         return withoutBulkdata;
     }
 
+    /**
+     * Returns the frame index of the referenced file, or {@code null} if
+     * no frame index was calculated on storage of the file.
+     */
+    public FrameIndex getFrameIndex() {
+        return FrameIndex.valueOf(frameIndex);
+    }
+
     public ArchiveInstanceLocator getFallbackLocator() {
         return fallbackLocator;
     }
@@ -0,0 +1,280 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.dto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.util.ByteUtils;
+
+/**
+ * Position of the Pixel Data of each frame within a stored DICOM file, as
+ * list of byte ranges per frame. For native Pixel Data, each frame consists
+ * of one byte range; for encapsulated Pixel Data, each frame consists of the
+ * values of the fragments belonging to the frame.
+ *
+ * @see #valueOf(Attributes, File)
+ */
+public class FrameIndex {
+
+    private static final int VERSION = 1;
+
+    private final boolean encapsulated;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] firstRanges;
+
+    private FrameIndex(boolean encapsulated, long[] offsets, int[] lengths,
+            int[] firstRanges) {
+        this.encapsulated = encapsulated;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.firstRanges = firstRanges;
+    }
+
+    /**
+     * Returns {@code true} if the frames are compressed and consist of the
+     * values of fragments of encapsulated Pixel Data.
+     */
+    public boolean isEncapsulated() {
+        return encapsulated;
+    }
+
+    public int getNumberOfFrames() {
+        return firstRanges.length - 1;
+    }
+
+    /**
+     * Returns the number of byte ranges of the frame with the given index,
+     * starting with 0.
+     */
+    public int getNumberOfRanges(int frameIndex) {
+        return firstRanges[frameIndex + 1] - firstRanges[frameIndex];
+    }
+
+    public long getOffset(int frameIndex, int rangeIndex) {
+        return offsets[firstRanges[frameIndex] + rangeIndex];
+    }
+
+    public int getLength(int frameIndex, int rangeIndex) {
+        return lengths[firstRanges[frameIndex] + rangeIndex];
+    }
+
+    /**
+     * Returns the total number of bytes of the frame with the given index,
+     * starting with 0.
+     */
+    public long getFrameLength(int frameIndex) {
+        long length = 0L;
+        for (int i = firstRanges[frameIndex]; i < firstRanges[frameIndex + 1]; i++)
+            length += lengths[i];
+        return length;
+    }
+
+    /**
+     * Calculates the frame index from the Data Set read from the given file
+     * with bulk data references. Returns {@code null} if the Data Set
+     * contains no Pixel Data or if fragments of encapsulated Pixel Data
+     * cannot be assigned to frames without decoding them, which is the case
+     * for multi-frame images with more fragments than frames and without
+     * Basic Offset Table.
+     */
+    public static FrameIndex valueOf(Attributes dataset, File file)
+            throws IOException {
+        int frames = dataset.getInt(Tag.NumberOfFrames, 1);
+        Object pixelData = dataset.getValue(Tag.PixelData);
+        if (frames <= 0)
+            return null;
+        if (pixelData instanceof BulkData)
+            return valueOf(dataset, (BulkData) pixelData, frames);
+        if (pixelData instanceof Fragments)
+            return valueOf((Fragments) pixelData, frames, file);
+        return null;
+    }
+
+    private static FrameIndex valueOf(Attributes dataset, BulkData bulkData,
+            int frames) {
+        int rows = dataset.getInt(Tag.Rows, 0);
+        int cols = dataset.getInt(Tag.Columns, 0);
+        int samples = dataset.getInt(Tag.SamplesPerPixel, 0);
+        int bitsAllocated = dataset.getInt(Tag.BitsAllocated, 8);
+        if ((bitsAllocated & 7) != 0)
+            return null;
+
+        long frameLength = (long) rows * cols * samples * (bitsAllocated >>> 3);
+        if (frameLength <= 0 || frameLength > Integer.MAX_VALUE
+                || frameLength * frames > bulkData.length())
+            return null;
+
+        long[] offsets = new long[frames];
+        int[] lengths = new int[frames];
+        int[] firstRanges = new int[frames + 1];
+        for (int i = 0; i < frames; i++) {
+            offsets[i] = bulkData.offset() + i * frameLength;
+            lengths[i] = (int) frameLength;
+            firstRanges[i + 1] = i + 1;
+        }
+        return new FrameIndex(false, offsets, lengths, firstRanges);
+    }
+
+    private static FrameIndex valueOf(Fragments fragments, int frames,
+            File file) throws IOException {
+        int n = fragments.size() - 1;
+        if (n <= 0)
+            return null;
+
+        long[] offsets = new long[n];
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            Object fragment = fragments.get(i + 1);
+            if (!(fragment instanceof BulkData))
+                return null;
+            offsets[i] = ((BulkData) fragment).offset();
+            lengths[i] = ((BulkData) fragment).length();
+        }
+
+        int[] firstRanges = new int[frames + 1];
+        firstRanges[frames] = n;
+        if (frames == 1)
+            return new FrameIndex(true, offsets, lengths, firstRanges);
+
+        if (frames == n) {
+            for (int i = 1; i < frames; i++)
+                firstRanges[i] = i;
+            return new FrameIndex(true, offsets, lengths, firstRanges);
+        }
+
+        byte[] offsetTable = readOffsetTable(fragments.get(0), file);
+        if (offsetTable.length != frames * 4)
+            return null;
+
+        // Basic Offset Table values are relative to the first fragment item
+        // tag, which precedes the value of the first fragment by 8 bytes
+        int fragment = 0;
+        for (int i = 0; i < frames; i++) {
+            long pos = offsets[0] - 8
+                    + (ByteUtils.bytesToIntLE(offsetTable, i * 4) & 0xffffffffL);
+            while (fragment < n && offsets[fragment] - 8 < pos)
+                fragment++;
+            if (fragment == n || offsets[fragment] - 8 != pos
+                    || (i > 0 && fragment <= firstRanges[i - 1]))
+                return null;
+            firstRanges[i] = fragment;
+        }
+        return new FrameIndex(true, offsets, lengths, firstRanges);
+    }
+
+    private static byte[] readOffsetTable(Object value, File file)
+            throws IOException {
+        if (value instanceof byte[])
+            return (byte[]) value;
+        if (!(value instanceof BulkData) || file == null)
+            return ByteUtils.EMPTY_BYTES;
+
+        BulkData bulkData = (BulkData) value;
+        byte[] b = new byte[bulkData.length()];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(bulkData.offset());
+            raf.readFully(b);
+        }
+        return b;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(
+                10 + offsets.length * 12 + firstRanges.length * 4);
+        try (DataOutputStream out = new DataOutputStream(bout)) {
+            out.writeByte(VERSION);
+            out.writeBoolean(encapsulated);
+            out.writeInt(offsets.length);
+            out.writeInt(firstRanges.length);
+            for (int i = 0; i < offsets.length; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+            }
+            for (int firstRange : firstRanges)
+                out.writeInt(firstRange);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bout.toByteArray();
+    }
+
+    /**
+     * Decodes a frame index encoded by {@link #toByteArray()}. Returns
+     * {@code null} if {@code b} is {@code null} or not a valid encoded
+     * frame index.
+     */
+    public static FrameIndex valueOf(byte[] b) {
+        if (b == null || b.length == 0)
+            return null;
+
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(b))) {
+            if (in.readByte() != VERSION)
+                return null;
+            boolean encapsulated = in.readBoolean();
+            int numRanges = in.readInt();
+            int numFirstRanges = in.readInt();
+            if (b.length != 10 + numRanges * 12 + numFirstRanges * 4)
+                return null;
+            long[] offsets = new long[numRanges];
+            int[] lengths = new int[numRanges];
+            int[] firstRanges = new int[numFirstRanges];
+            for (int i = 0; i < numRanges; i++) {
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+            }
+            for (int i = 0; i < numFirstRanges; i++)
+                firstRanges[i] = in.readInt();
+            return new FrameIndex(encapsulated, offsets, lengths, firstRanges);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
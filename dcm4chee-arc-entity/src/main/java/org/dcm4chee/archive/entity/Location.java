@@ -157,6 +157,10 @@ public class Location implements Serializable {
     @Column(name = "wo_bulkdata", updatable = false)
     private boolean withoutBulkData;
 
+    @Basic(optional = true)
+    @Column(name = "frame_index", updatable = false)
+    private byte[] frameIndex;
+
     @ManyToMany(mappedBy="locations")
     private Collection<Instance> instances;
 
@@ -172,6 +176,7 @@ public class Location implements Serializable {
         private String otherAttsDigest;
         private Status status = Status.OK;
         private boolean withoutBulkData;
+        private byte[] frameIndex;
 
         public Builder storageSystemGroupID(String storageSystemGroupID) {
             this.storageSystemGroupID = storageSystemGroupID;
@@ -228,6 +233,11 @@ public class Location implements Serializable {
             return this;
         }
 
+        public Builder frameIndex(byte[] frameIndex) {
+            this.frameIndex = frameIndex;
+            return this;
+        }
+
         public Location build() {
             return new Location(this);
         }
@@ -247,6 +257,7 @@ public class Location implements Serializable {
         otherAttsDigest = builder.otherAttsDigest;
         status = builder.status;
         withoutBulkData = builder.withoutBulkData;
+        frameIndex = builder.frameIndex;
     }
 
     @PrePersist
@@ -315,6 +326,10 @@ public class Location implements Serializable {
         this.withoutBulkData = withoutBulkData;
     }
 
+    public byte[] getFrameIndex() {
+        return frameIndex;
+    }
+
     public Collection<Instance> getInstances() {
         return instances;
     }
@@ -56,6 +56,8 @@ import javax.persistence.OneToOne;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.Transient;
 import javax.persistence.Version;
 
@@ -129,6 +131,10 @@ public class MWLItem implements Serializable {
     @Column(name = "sps_start_time")
     private String scheduledStartTime;
 
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "sps_start_datetime")
+    private Date scheduledStartDateTime;
+
     @Basic(optional = false)
     @Column(name = "sps_status")
     private String status;
@@ -191,6 +197,10 @@ public class MWLItem implements Serializable {
         return scheduledStartTime;
     }
 
+    public Date getScheduledStartDateTime() {
+        return scheduledStartDateTime;
+    }
+
     public PersonName getScheduledPerformingPhysicianName() {
         return scheduledPerformingPhysicianName;
     }
@@ -268,6 +278,7 @@ public class MWLItem implements Serializable {
         scheduledProcedureStepID = spsItem.getString(Tag.ScheduledProcedureStepID);
         modality = spsItem.getString(Tag.Modality, "*").toUpperCase();
         Date dt = spsItem.getDate(Tag.ScheduledProcedureStepStartDateAndTime);
+        scheduledStartDateTime = dt;
         if (dt != null) {
             scheduledStartDate = DateUtils.formatDA(null, dt);
             scheduledStartTime = spsItem.containsValue(Tag.ScheduledProcedureStepStartTime)
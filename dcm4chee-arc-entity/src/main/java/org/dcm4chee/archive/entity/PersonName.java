@@ -121,6 +121,9 @@ public class PersonName implements Serializable {
     @OneToMany(mappedBy = "personName", cascade = CascadeType.ALL, orphanRemoval = true)
     private Collection<SoundexCode> soundexCodes;
 
+    @OneToMany(mappedBy = "personName", cascade = CascadeType.ALL, orphanRemoval = true)
+    private Collection<PersonNameFragment> fragments;
+
     public PersonName() {
     }
     
@@ -146,6 +149,30 @@ public class PersonName implements Serializable {
         phoneticNameSuffix = pn.get(Group.Phonetic, Component.NameSuffix);
         createOrUpdateSoundexCodes(familyName, givenName, middleName,
                     fuzzyStr);
+        createOrUpdateFragments(familyName, givenName, middleName);
+    }
+
+    private void createOrUpdateFragments(String familyName,
+            String givenName, String middleName) {
+
+        if (fragments == null)
+            fragments = new ArrayList<PersonNameFragment>();
+        else
+            fragments.clear();
+
+        addFragmentsTo(Component.FamilyName, familyName, fragments);
+        addFragmentsTo(Component.GivenName, givenName, fragments);
+        addFragmentsTo(Component.MiddleName, middleName, fragments);
+    }
+
+    private void addFragmentsTo(Component component, String name,
+            Collection<PersonNameFragment> fragments) {
+        for (String value : PersonNameFragment.fragmentsOf(name)) {
+            PersonNameFragment fragment =
+                    new PersonNameFragment(component, value);
+            fragment.setPersonName(this);
+            fragments.add(fragment);
+        }
     }
 
     private void createOrUpdateSoundexCodes(String familyName,
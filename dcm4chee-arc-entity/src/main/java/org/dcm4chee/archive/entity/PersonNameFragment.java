@@ -0,0 +1,149 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import java.io.Serializable;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+import org.dcm4che3.data.PersonName.Component;
+
+/**
+ * Distinct upper case trigram of an alphabetic Person Name component, used
+ * to select candidates for wildcard matching with leading wildcards, which
+ * cannot use the indexes on the Person Name components.
+ *
+ * @see #fragmentsOf(String)
+ * @see #fragmentsOfPattern(String)
+ */
+@Entity
+@Table(name = "person_name_fragment")
+public class PersonNameFragment implements Serializable {
+
+    private static final long serialVersionUID = 2718592870516279145L;
+
+    public static final int LENGTH = 3;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "pk")
+    private long pk;
+
+    @Column(name = "pnf_pn_comp", nullable = false)
+    private org.dcm4che3.data.PersonName.Component personNameComponent;
+
+    @Column(name = "pnf_value", nullable = false)
+    private String value;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "person_name_fk")
+    private PersonName personName;
+
+    public PersonNameFragment() {}
+
+    public PersonNameFragment(Component personNameComponent, String value) {
+        this.personNameComponent = personNameComponent;
+        this.value = value;
+    }
+
+    /**
+     * Returns the distinct upper case trigrams of a Person Name component.
+     */
+    public static Set<String> fragmentsOf(String name) {
+        Set<String> fragments = new LinkedHashSet<String>();
+        if (name != null)
+            addFragments(name.toUpperCase(Locale.ENGLISH), fragments);
+        return fragments;
+    }
+
+    /**
+     * Returns the distinct upper case trigrams contained in any matching
+     * Person Name component. Wildcards '*' and '?' separate the literal
+     * parts of the pattern; parts shorter than {@link #LENGTH} do not
+     * contribute trigrams.
+     */
+    public static Set<String> fragmentsOfPattern(String pattern) {
+        Set<String> fragments = new LinkedHashSet<String>();
+        String s = pattern.toUpperCase(Locale.ENGLISH);
+        int start = 0;
+        for (int i = 0, n = s.length(); i <= n; i++) {
+            if (i == n || s.charAt(i) == '*' || s.charAt(i) == '?') {
+                addFragments(s.substring(start, i), fragments);
+                start = i + 1;
+            }
+        }
+        return fragments;
+    }
+
+    private static void addFragments(String s, Set<String> fragments) {
+        for (int i = 0, n = s.length() - LENGTH; i <= n; i++)
+            fragments.add(s.substring(i, i + LENGTH));
+    }
+
+    public long getPk() {
+        return pk;
+    }
+
+    public org.dcm4che3.data.PersonName.Component getPersonNameComponent() {
+        return personNameComponent;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public PersonName getPersonName() {
+        return personName;
+    }
+
+    public void setPersonName(PersonName personName) {
+        this.personName = personName;
+    }
+
+}
@@ -59,6 +59,8 @@ import javax.persistence.OneToOne;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.Version;
 
 import org.dcm4che3.data.Attributes;
@@ -186,6 +188,10 @@ public class Series implements Serializable {
     @Column(name = "pps_start_time")
     private String performedProcedureStepStartTime;
 
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "pps_start_datetime")
+    private Date performedProcedureStepStartDateTime;
+
     @Basic(optional = false)
     @Column(name = "pps_iuid")
     private String performedProcedureStepInstanceUID;
@@ -334,6 +340,10 @@ public class Series implements Serializable {
         return performedProcedureStepStartTime;
     }
 
+    public Date getPerformedProcedureStepStartDateTime() {
+        return performedProcedureStepStartDateTime;
+    }
+
     public String getPerformedProcedureStepInstanceUID() {
         return performedProcedureStepInstanceUID;
     }
@@ -443,6 +453,7 @@ public class Series implements Serializable {
             performedProcedureStepClassUID = "*";
         }
         Date dt = attrs.getDate(Tag.PerformedProcedureStepStartDateAndTime);
+        performedProcedureStepStartDateTime = dt;
         if (dt != null) {
             performedProcedureStepStartDate = DateUtils.formatDA(null, dt);
             performedProcedureStepStartTime = 
@@ -61,6 +61,8 @@ import javax.persistence.OneToOne;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.Version;
 
 import org.dcm4che3.data.Attributes;
@@ -132,6 +134,10 @@ public class Study implements Serializable {
     @Column(name = "study_time")
     private String studyTime;
 
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "study_datetime")
+    private Date studyDateTime;
+
     @Basic(optional = false)
     @Column(name = "accession_no")
     private String accessionNumber;
@@ -235,6 +241,10 @@ public class Study implements Serializable {
         return studyTime;
     }
 
+    public Date getStudyDateTime() {
+        return studyDateTime;
+    }
+
     public String getAccessionNumber() {
         return accessionNumber;
     }
@@ -333,6 +343,7 @@ public class Study implements Serializable {
         studyID = attrs.getString(Tag.StudyID, "*");
         studyDescription = attrs.getString(Tag.StudyDescription, "*");
         Date dt = attrs.getDate(Tag.StudyDateAndTime);
+        studyDateTime = dt;
         if (dt != null) {
             studyDate = DateUtils.formatDA(null, dt);
             studyTime = attrs.containsValue(Tag.StudyTime)
@@ -48,12 +48,17 @@ import java.util.Arrays;
 import java.util.Date;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.SpecificCharacterSet;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomEncodingOptions;
+import org.dcm4che3.io.DicomInputHandler;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.StreamUtils;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.util.TagUtils;
 import org.dcm4chee.archive.conf.PrivateTag;
@@ -64,12 +69,21 @@ import org.dcm4chee.storage.conf.Availability;
  */
 public class Utils {
 
+    /**
+     * Encoding of attributes blobs with explicit length of sequences and
+     * items, so {@link #decodeAttributes(Attributes, byte[], int[])} can
+     * skip sequences which are not selected without parsing them.
+     */
+    private static final DicomEncodingOptions BLOB_ENCODING_OPTIONS =
+            new DicomEncodingOptions(false, false, false, false, false);
+
     public static byte[] encodeAttributes(Attributes attrs) {
         ByteArrayOutputStream out = new ByteArrayOutputStream(512);
         try {
             @SuppressWarnings("resource")
             DicomOutputStream dos = new DicomOutputStream(out,
                     UID.ExplicitVRLittleEndian);
+            dos.setEncodingOptions(BLOB_ENCODING_OPTIONS);
             dos.writeDataset(null, attrs);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -131,6 +145,92 @@ public class Utils {
         }
     }
 
+    /**
+     * Decodes only the top level attributes with the tags contained in
+     * {@code selection}, which must be sorted. Decoding stops at the first
+     * attribute with a greater tag than the last one of {@code selection};
+     * other not selected attributes are skipped. Sequences encoded with
+     * undefined length still have to be parsed to be skipped. Decodes all
+     * attributes if {@code selection} is {@code null}.
+     */
+    public static void decodeAttributes(Attributes attrs, byte[] b,
+            int[] selection) {
+        if (selection == null) {
+            decodeAttributes(attrs, b);
+            return;
+        }
+        if (b == null || b.length == 0)
+            return;
+        ByteArrayInputStream is = new ByteArrayInputStream(b);
+        try {
+            @SuppressWarnings("resource")
+            DicomInputStream dis = new DicomInputStream(is);
+            dis.readFileMetaInformation();
+            dis.setDicomInputHandler(new SelectionHandler(selection, b.length));
+            dis.readAttributes(attrs, -1, -1);
+        } catch (IOException e) {
+            throw new BlobCorruptedException(e);
+        }
+    }
+
+    private static final class SelectionHandler implements DicomInputHandler {
+
+        private final int[] selection;
+        private final long maxTag;
+        private final long end;
+
+        SelectionHandler(int[] selection, long end) {
+            this.selection = selection;
+            this.maxTag = selection.length > 0
+                    ? selection[selection.length - 1] & 0xffffffffL
+                    : -1L;
+            this.end = end;
+        }
+
+        @Override
+        public void readValue(DicomInputStream dis, Attributes attrs)
+                throws IOException {
+            if (attrs.getParent() == null) {
+                int tag = dis.tag();
+                if ((tag & 0xffffffffL) > maxTag) {
+                    // skip all remaining attributes
+                    StreamUtils.skipFully(dis, end - dis.getPosition());
+                    return;
+                }
+                if (Arrays.binarySearch(selection, tag) < 0) {
+                    if (dis.length() != -1)
+                        StreamUtils.skipFully(dis, dis.length() & 0xffffffffL);
+                    else
+                        dis.readValue(dis, new Attributes());
+                    return;
+                }
+            }
+            dis.readValue(dis, attrs);
+        }
+
+        @Override
+        public void readValue(DicomInputStream dis, Sequence seq)
+                throws IOException {
+            dis.readValue(dis, seq);
+        }
+
+        @Override
+        public void readValue(DicomInputStream dis, Fragments frags)
+                throws IOException {
+            dis.readValue(dis, frags);
+        }
+
+        @Override
+        public void startDataset(DicomInputStream dis) throws IOException {
+            dis.startDataset(dis);
+        }
+
+        @Override
+        public void endDataset(DicomInputStream dis) throws IOException {
+            dis.endDataset(dis);
+        }
+    }
+
     public static void setStudyQueryAttributes(Attributes attrs,
             int numberOfStudyRelatedSeries, int numberOfStudyRelatedInstances,
             String modalitiesInStudy, String sopClassesInStudy,
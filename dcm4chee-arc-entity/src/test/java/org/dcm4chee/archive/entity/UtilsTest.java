@@ -40,13 +40,16 @@ package org.dcm4chee.archive.entity;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
 import org.junit.Test;
 
 /**
@@ -238,6 +241,49 @@ public class UtilsTest {
 
     }
     
+    @Test
+    public void testDecodeSelectedAttributes() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.AccessionNumber, VR.SH, "A123");
+        Attributes code = new Attributes();
+        code.setString(Tag.CodeValue, VR.SH, "CT");
+        attrs.newSequence(Tag.ProcedureCodeSequence, 1).add(code);
+        attrs.setString(Tag.PatientName, VR.PN, "Doe^John");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+        attrs.setString(Tag.StudyID, VR.SH, "S1");
+
+        Attributes decoded = new Attributes();
+        Utils.decodeAttributes(decoded, Utils.encodeAttributes(attrs),
+                new int[] { Tag.SpecificCharacterSet, Tag.PatientName });
+
+        assertEquals(2, decoded.size());
+        assertEquals("ISO_IR 100", decoded.getString(Tag.SpecificCharacterSet));
+        assertEquals("Doe^John", decoded.getString(Tag.PatientName));
+    }
+
+    @Test
+    public void testDecodeSelectedAttributesWithUndefinedSequenceLength()
+            throws IOException {
+        Attributes attrs = new Attributes();
+        Attributes code = new Attributes();
+        code.setString(Tag.CodeValue, VR.SH, "CT");
+        attrs.newSequence(Tag.ProcedureCodeSequence, 1).add(code);
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DicomOutputStream dos = new DicomOutputStream(out,
+                UID.ExplicitVRLittleEndian);
+        dos.writeDataset(null, attrs);
+        dos.close();
+
+        Attributes decoded = new Attributes();
+        Utils.decodeAttributes(decoded, out.toByteArray(),
+                new int[] { Tag.StudyInstanceUID });
+
+        assertEquals(1, decoded.size());
+        assertEquals("1.2.3", decoded.getString(Tag.StudyInstanceUID));
+    }
+
     public static String bytesToHex(byte[] in) {
         final StringBuilder builder = new StringBuilder();
         for (byte b : in) {
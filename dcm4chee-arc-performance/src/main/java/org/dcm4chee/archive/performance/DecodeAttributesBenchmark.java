@@ -0,0 +1,148 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.entity.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares decoding complete attributes blobs with decoding only the
+ * attributes typically requested by a Study level query.
+ *
+ * Run by
+ * <pre>
+ * mvn -pl dcm4chee-arc-performance -am package
+ * java -jar dcm4chee-arc-performance/target/benchmarks.jar DecodeAttributesBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DecodeAttributesBenchmark {
+
+    private static final int[] STUDY_RETURN_KEYS = {
+        Tag.SpecificCharacterSet,
+        Tag.StudyDate,
+        Tag.StudyTime,
+        Tag.AccessionNumber,
+        Tag.ReferringPhysicianName,
+        Tag.PatientName,
+        Tag.PatientID,
+        Tag.StudyInstanceUID,
+        Tag.StudyID
+    };
+
+    /**
+     * Number of items of the Request Attributes and Procedure Code
+     * Sequences, resulting in blobs of about 0.5, 4 and 30 KB.
+     */
+    @Param({ "0", "10", "100" })
+    public int items;
+
+    private byte[] blob;
+
+    @Setup
+    public void setup() {
+        blob = Utils.encodeAttributes(createStudyAttributes(items));
+    }
+
+    @Benchmark
+    public Attributes decodeAll() {
+        Attributes attrs = new Attributes();
+        Utils.decodeAttributes(attrs, blob);
+        return attrs;
+    }
+
+    @Benchmark
+    public Attributes decodeSelected() {
+        Attributes attrs = new Attributes();
+        Utils.decodeAttributes(attrs, blob, STUDY_RETURN_KEYS);
+        return attrs;
+    }
+
+    static Attributes createStudyAttributes(int items) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.StudyDate, VR.DA, "20150812");
+        attrs.setString(Tag.StudyTime, VR.TM, "101500");
+        attrs.setString(Tag.AccessionNumber, VR.SH, "A1234567");
+        attrs.setString(Tag.ReferringPhysicianName, VR.PN, "Smith^John");
+        attrs.setString(Tag.StudyDescription, VR.LO, "CT THORAX ABDOMEN");
+        Sequence procedureCodes =
+                attrs.newSequence(Tag.ProcedureCodeSequence, items);
+        Sequence requestAttrs =
+                attrs.newSequence(Tag.RequestAttributesSequence, items);
+        for (int i = 0; i < items; i++) {
+            Attributes code = new Attributes();
+            code.setString(Tag.CodeValue, VR.SH, "P" + i);
+            code.setString(Tag.CodingSchemeDesignator, VR.SH, "99LOCAL");
+            code.setString(Tag.CodeMeaning, VR.LO, "Procedure " + i);
+            procedureCodes.add(code);
+            Attributes request = new Attributes();
+            request.setString(Tag.RequestedProcedureID, VR.SH, "RP" + i);
+            request.setString(Tag.ScheduledProcedureStepID, VR.SH, "SPS" + i);
+            request.setString(Tag.StudyInstanceUID, VR.UI, "1.2.40.0.13.1." + i);
+            request.setString(Tag.RequestedProcedureDescription, VR.LO,
+                    "Requested Procedure " + i);
+            requestAttrs.add(request);
+        }
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.40.0.13.1.1");
+        attrs.setString(Tag.StudyID, VR.SH, "S1");
+        return attrs;
+    }
+}
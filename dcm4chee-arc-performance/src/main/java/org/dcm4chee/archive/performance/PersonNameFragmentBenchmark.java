@@ -0,0 +1,226 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.PersonName.Component;
+import org.dcm4chee.archive.entity.PersonNameFragment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares matching Patient Names with a leading wildcard, as
+ * {@code *ANDER*}, by a {@code LIKE} predicate on the family name column
+ * with the selection of candidates by the {@link PersonNameFragment} index,
+ * on a synthetic data set in an in-memory HSQLDB.
+ *
+ * Run by
+ * <pre>
+ * mvn -pl dcm4chee-arc-performance -am package
+ * java -jar dcm4chee-arc-performance/target/benchmarks.jar PersonNameFragmentBenchmark -p patients=1000000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class PersonNameFragmentBenchmark {
+
+    private static final String[] SYLLABLES = {
+        "AN", "DER", "SON", "MA", "RI", "BER", "GER", "HOF", "MAN", "STEIN",
+        "WAL", "TER", "KO", "VAC", "LUND", "QUIST", "NA", "KA", "MU", "RA",
+        "SCH", "MID", "BAU", "ER", "FI", "SCHER", "WE", "BER", "KLEIN", "ZEL"
+    };
+
+    private static final String PATTERN = "*ANDER*";
+
+    private static final int BATCH_SIZE = 10000;
+
+    @Param({ "1000000" })
+    public int patients;
+
+    private Connection conn;
+
+    private PreparedStatement likeScan;
+
+    private PreparedStatement fragmentIndex;
+
+    @Setup
+    public void setup() throws SQLException {
+        conn = DriverManager.getConnection(
+                "jdbc:hsqldb:mem:pnfragments;shutdown=true", "SA", "");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table person_name ("
+                    + "pk bigint not null primary key, "
+                    + "family_name varchar(64), "
+                    + "given_name varchar(64))");
+            stmt.execute("create table person_name_fragment ("
+                    + "pk bigint generated by default as identity primary key, "
+                    + "pnf_pn_comp integer not null, "
+                    + "pnf_value varchar(255) not null, "
+                    + "person_name_fk bigint not null)");
+            stmt.execute("create index family_name_idx on person_name (family_name)");
+        }
+        populate();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create index pnf_value_idx on person_name_fragment "
+                    + "(pnf_value, pnf_pn_comp)");
+            stmt.execute("create index pnf_person_name_fk_idx on "
+                    + "person_name_fragment (person_name_fk)");
+        }
+
+        String like = toLikePattern(PATTERN);
+        likeScan = conn.prepareStatement(
+                "select count(*) from person_name where upper(family_name) like ?");
+        likeScan.setString(1, like);
+
+        Set<String> values = PersonNameFragment.fragmentsOfPattern(PATTERN);
+        StringBuilder sql = new StringBuilder(
+                "select count(*) from person_name where pk in ("
+                + "select person_name_fk from person_name_fragment "
+                + "where pnf_pn_comp = ? and pnf_value in (");
+        for (int i = 0; i < values.size(); i++)
+            sql.append(i == 0 ? "?" : ", ?");
+        sql.append(") group by person_name_fk having count(distinct pnf_value) = ?)"
+                + " and upper(family_name) like ?");
+        fragmentIndex = conn.prepareStatement(sql.toString());
+        int index = 1;
+        fragmentIndex.setInt(index++, Component.FamilyName.ordinal());
+        for (String value : values)
+            fragmentIndex.setString(index++, value);
+        fragmentIndex.setInt(index++, values.size());
+        fragmentIndex.setString(index, like);
+    }
+
+    private void populate() throws SQLException {
+        Random random = new Random(0);
+        conn.setAutoCommit(false);
+        try (PreparedStatement insertName = conn.prepareStatement(
+                    "insert into person_name (pk, family_name, given_name) "
+                    + "values (?, ?, ?)");
+                PreparedStatement insertFragment = conn.prepareStatement(
+                    "insert into person_name_fragment "
+                    + "(pnf_pn_comp, pnf_value, person_name_fk) values (?, ?, ?)")) {
+            for (int pk = 1; pk <= patients; pk++) {
+                String familyName = randomName(random, 2 + random.nextInt(3));
+                String givenName = randomName(random, 1 + random.nextInt(2));
+                insertName.setLong(1, pk);
+                insertName.setString(2, familyName);
+                insertName.setString(3, givenName);
+                insertName.addBatch();
+                addFragments(insertFragment, pk, Component.FamilyName, familyName);
+                addFragments(insertFragment, pk, Component.GivenName, givenName);
+                if (pk % BATCH_SIZE == 0) {
+                    insertName.executeBatch();
+                    insertFragment.executeBatch();
+                    conn.commit();
+                }
+            }
+            insertName.executeBatch();
+            insertFragment.executeBatch();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void addFragments(PreparedStatement insertFragment,
+            long pk, Component component, String name) throws SQLException {
+        for (String value : PersonNameFragment.fragmentsOf(name)) {
+            insertFragment.setInt(1, component.ordinal());
+            insertFragment.setString(2, value);
+            insertFragment.setLong(3, pk);
+            insertFragment.addBatch();
+        }
+    }
+
+    private static String randomName(Random random, int syllables) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < syllables; i++)
+            sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        return sb.toString();
+    }
+
+    private static String toLikePattern(String pattern) {
+        return pattern.replace('*', '%').replace('?', '_');
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    @Benchmark
+    public int likeScan() throws SQLException {
+        return count(likeScan);
+    }
+
+    @Benchmark
+    public int fragmentIndex() throws SQLException {
+        return count(fragmentIndex);
+    }
+
+    private static int count(PreparedStatement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
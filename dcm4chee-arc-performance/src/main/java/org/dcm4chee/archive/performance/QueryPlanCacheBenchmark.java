@@ -0,0 +1,141 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.hibernate.Filter;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the CPU time per query saved by reusing the translated plan of
+ * a Study query from Hibernate's query plan cache, compared with
+ * translating its HQL again, for Study Instance UID lists of different
+ * sizes. Hibernate expands the list parameter to one parameter per UID, so
+ * each list size results in a different statement;
+ * {@code QueryBuilder.padded(String[])} limits the number of distinct sizes.
+ *
+ * Run by
+ * <pre>
+ * mvn -pl dcm4chee-arc-performance -am package
+ * java -jar dcm4chee-arc-performance/target/benchmarks.jar QueryPlanCacheBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class QueryPlanCacheBenchmark {
+
+    private static final String STUDY_QUERY =
+            "select study.pk, study.version, patient.pk"
+            + " from Study study"
+            + " inner join study.patient patient"
+            + " left join patient.patientName patientName"
+            + " where study.studyDateTime between :start and :end"
+            + " and study.isRejected = false"
+            + " and (patientName.familyName like :familyName escape '!'"
+            + " or patientName.familyName = '*')";
+
+    @Param({ "1", "3", "20", "100" })
+    public int uids;
+
+    private EntityManagerFactory emf;
+
+    private SessionFactoryImplementor factory;
+
+    private String hql;
+
+    @Setup
+    public void setup() {
+        emf = Persistence.createEntityManagerFactory("dcm4chee-arc-performance");
+        factory = (SessionFactoryImplementor)
+                ((HibernateEntityManagerFactory) emf).getSessionFactory();
+        hql = expand(STUDY_QUERY, uids);
+    }
+
+    /**
+     * Returns the query restricted to {@code n} Study Instance UIDs, as
+     * expanded by Hibernate for a list parameter with {@code n} values.
+     */
+    private static String expand(String query, int n) {
+        StringBuilder sb = new StringBuilder(query)
+                .append(" and study.studyInstanceUID in (");
+        for (int i = 0; i < n; i++)
+            sb.append(i == 0 ? ":uid" : ", :uid").append(i).append('_');
+        return sb.append(')').toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        emf.close();
+    }
+
+    @Benchmark
+    public HQLQueryPlan translate() {
+        return new HQLQueryPlan(hql, false,
+                Collections.<String, Filter>emptyMap(), factory);
+    }
+
+    @Benchmark
+    public HQLQueryPlan cachedPlan() {
+        return factory.getQueryPlanCache().getHQLQueryPlan(hql, false,
+                Collections.<String, Filter>emptyMap());
+    }
+}
@@ -46,6 +46,8 @@ import org.dcm4chee.archive.dto.Service;
 import org.dcm4chee.archive.dto.ServiceType;
 import org.dcm4chee.archive.qc.QCEvent;
 import org.dcm4chee.archive.qc.QCRetrieveBean;
+import org.dcm4chee.archive.query.DecodedAttributesCache;
+import org.dcm4chee.archive.query.QueryResultCache;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -59,10 +61,27 @@ public class QCPostProcessor {
     @Inject
     private QCRetrieveBean retrieveBean;
 
+    @Inject
+    private DecodedAttributesCache decodedAttributesCache;
+
+    @Inject
+    private QueryResultCache queryResultCache;
+
     public void observeQC(@Observes @Service(ServiceType.QCPOSTPROCESSING) QCEvent event) {
         LOG.info("QC operation successfull, starting post processing");
         //recalculate query Attributes
         retrieveBean.recalculateQueryAttributes(event);
     }
 
+    public void invalidateDecodedAttributes(@Observes QCEvent event) {
+        //QC operations may move and update blobs of any level
+        decodedAttributesCache.clear();
+    }
+
+    public void invalidateQueryResults(@Observes QCEvent event) {
+        //QC operations may change, delete or reject studies and move
+        //series and instances between studies
+        queryResultCache.clear();
+    }
+
 }
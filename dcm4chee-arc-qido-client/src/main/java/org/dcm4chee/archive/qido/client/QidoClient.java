@@ -43,7 +43,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -59,6 +58,8 @@ import org.dcm4che3.json.JSONReader;
 import org.dcm4che3.json.JSONReader.Callback;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.rs.client.HttpClientPool;
+import org.dcm4chee.archive.rs.client.PooledConnection;
 import org.dcm4chee.storage.conf.Availability;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,9 +74,16 @@ public class QidoClient {
 
     private QidoContext context;
 
+    private HttpClientPool httpClientPool;
+
     public QidoClient(QidoContext context) {
+        this(context, HttpClientPool.getDefault());
+    }
+
+    public QidoClient(QidoContext context, HttpClientPool httpClientPool) {
         super();
         this.context = context;
+        this.httpClientPool = httpClientPool;
     }
 
     public QidoResponse verifyStorage(Collection<String> sopInstanceUIDs) {
@@ -104,7 +112,7 @@ public class QidoClient {
     private Availability queryOverWebService(String aeTitle, String url
             , String sopUID, boolean fuzzyMatching, boolean timeZoneAdjustment
             , MediaType type) {
-        HttpURLConnection connection = null;
+        PooledConnection connection = null;
         Availability externalAvaility = Availability.UNAVAILABLE;
         try {
             url+="?SOPInstanceUID=" + sopUID;
@@ -131,7 +139,8 @@ public class QidoClient {
             return Availability.UNAVAILABLE;
         }
         finally {
-            connection.disconnect();
+            if (connection != null)
+                connection.close();
         }
         
         return externalAvaility;
@@ -206,17 +215,11 @@ public class QidoClient {
 
 
 
-    private HttpURLConnection setUpQidoConnection(URL url , MediaType type) 
+    private PooledConnection setUpQidoConnection(URL url , MediaType type) 
             throws IOException{
-            HttpURLConnection connection = (HttpURLConnection) url
-            .openConnection();
-            connection.setDoOutput(true);
-            connection.setDoInput(true);
-            connection.setInstanceFollowRedirects(false);
-            connection.setRequestMethod("GET");
+            PooledConnection connection = httpClientPool.open(url, "GET");
             connection.setRequestProperty("Accept", type.toString());
             connection.setRequestProperty("charset", "utf-8");
-            connection.setUseCaches(false);
             return connection;
     }
 
@@ -40,11 +40,13 @@ package org.dcm4chee.archive.qido.client.impl;
 import java.util.Collection;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
 import org.dcm4chee.archive.qido.client.QidoClient;
 import org.dcm4chee.archive.qido.client.QidoClientService;
 import org.dcm4chee.archive.qido.client.QidoContext;
 import org.dcm4chee.archive.qido.client.QidoResponse;
+import org.dcm4chee.archive.rs.client.HttpClientProvider;
 
 /**
  * @author Hesham Elbadawi <bsdreko@gmail.com>
@@ -53,9 +55,13 @@ import org.dcm4chee.archive.qido.client.QidoResponse;
 @ApplicationScoped
 public class QidoClientServiceImpl implements QidoClientService{
 
+    @Inject
+    private HttpClientProvider httpClientProvider;
+
     @Override
     public QidoClient createQidoClient(QidoContext context) {
-        return new QidoClient(context);
+        return new QidoClient(context,
+                httpClientProvider.getHttpClientPool());
     }
 
     @Override
@@ -55,8 +55,11 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
@@ -85,6 +88,7 @@ import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.QueryService;
 import org.dcm4chee.archive.query.QueryServiceUtils;
+import org.dcm4chee.archive.query.ResourceVersion;
 import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartRelatedOutput;
 import org.slf4j.Logger;
@@ -164,6 +168,9 @@ public class QidoRS {
     @Context
     private HttpHeaders headers;
 
+    @Context
+    private Request jaxrsRequest;
+
     @javax.ws.rs.QueryParam("fuzzymatching")
     private boolean fuzzymatching;
 
@@ -338,6 +345,25 @@ public class QidoRS {
         init(method, qrlevel, relational, studyInstanceUID, seriesInstanceUID,
                 includetags);
 
+        ResourceVersion version = studyInstanceUID != null
+                ? queryService.getResourceVersion(studyInstanceUID,
+                        seriesInstanceUID, null)
+                : null;
+        EntityTag entityTag = null;
+        if (version != null) {
+            // representations differ by the accepted media types
+            String accept = headers.getRequestHeaders()
+                    .getFirst(HttpHeaders.ACCEPT);
+            entityTag = new EntityTag(version.getEntityTag() + '-'
+                    + Integer.toHexString(accept != null ? accept.hashCode() : 0),
+                    true);
+            ResponseBuilder notModified = jaxrsRequest.evaluatePreconditions(
+                    version.getLastModified(), entityTag);
+            if (notModified != null)
+                return notModified.tag(entityTag)
+                        .lastModified(version.getLastModified()).build();
+        }
+
         Query query = QueryServiceUtils.createQuery(queryService, qrlevel, queryContext);
         try {
             query.initQuery();
@@ -368,8 +394,11 @@ public class QidoRS {
             if (!query.hasMoreMatches())
                 return Response.ok().build();
     
-            return Response.status(status).entity(
-                    output.entity(this, query, qrlevel)).build();
+            ResponseBuilder builder = Response.status(status).entity(
+                    output.entity(this, query, qrlevel));
+            if (version != null && status == STATUS_OK)
+                builder.tag(entityTag).lastModified(version.getLastModified());
+            return builder.build();
         } finally {
             query.close();
         }
@@ -442,6 +471,7 @@ public class QidoRS {
                 accessControlIDs());
         queryContext.setQueryParam(queryParam);
         queryContext.setKeys(keys);
+        queryContext.setReturnAllAttributes(includeAll);
         queryService.coerceRequestAttributes(queryContext);
         queryService.initPatientIDs(queryContext);
 
@@ -0,0 +1,181 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query.scp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
+import org.dcm4chee.archive.query.Query;
+import org.dcm4chee.archive.query.QueryService;
+
+/**
+ * Query task fetching and decoding the matches of the query by a separate
+ * thread into a bounded queue, while the association thread adjusts the
+ * matches and sends the pending C-FIND responses, so fetching from the
+ * database overlaps with sending over the network.
+ *
+ * The query is only accessed by the producer thread, until it stopped.
+ * On C-FIND-CANCEL, the producer stops after the current match, so the
+ * database cursor is closed promptly by {@link #close()}.
+ *
+ * @see org.dcm4chee.archive.conf.ArchiveAEExtension#getQueryPipelineQueueSize()
+ */
+class PipelinedQueryTask extends QueryTaskImpl {
+
+    private static final Object END = new Object();
+
+    private static final long OFFER_TIMEOUT = 100;
+
+    private final BlockingQueue<Object> queue;
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile boolean stop;
+
+    private boolean started;
+
+    private Object next;
+
+    public PipelinedQueryTask(Association as, PresentationContext pc,
+            Attributes rq, Attributes keys, QueryRetrieveLevel modelRootLevel,
+            Query query, QueryService queryService, int queueSize)
+            throws Exception {
+        super(as, pc, rq, keys, modelRootLevel, query, queryService);
+        this.queue = new ArrayBlockingQueue<Object>(queueSize);
+    }
+
+    @Override
+    public void onCancelRQ(Association as) {
+        super.onCancelRQ(as);
+        stop = true;
+    }
+
+    @Override
+    protected boolean hasMoreMatches() throws DicomServiceException {
+        if (!started) {
+            started = true;
+            as.getApplicationEntity().getDevice().execute(new Producer());
+        }
+        if (next == null)
+            next = take();
+        if (next instanceof Throwable)
+            throw new DicomServiceException(Status.UnableToProcess,
+                    (Throwable) next);
+        return next != END;
+    }
+
+    @Override
+    protected Attributes nextMatch() throws DicomServiceException {
+        if (!hasMoreMatches())
+            return null;
+
+        Attributes match = (Attributes) next;
+        next = null;
+        return match;
+    }
+
+    private Object take() throws DicomServiceException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DicomServiceException(Status.UnableToProcess, e);
+        }
+    }
+
+    @Override
+    protected void close() {
+        stop = true;
+        if (started) {
+            queue.clear();
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.close();
+    }
+
+    private final class Producer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (!stop && query.hasMoreMatches()) {
+                    // null for a Study or Series without instances
+                    Attributes match = query.nextMatch();
+                    if (match != null)
+                        put(match);
+                }
+                put(END);
+            } catch (Throwable e) {
+                // also errors, e.g. OutOfMemoryError on decoding a blob,
+                // so the association thread does not wait forever
+                put(e);
+            } finally {
+                if (stop) {
+                    // unblock the association thread, if it waits for
+                    // the next match after C-FIND-CANCEL
+                    queue.clear();
+                    queue.offer(END);
+                }
+                stopped.countDown();
+            }
+        }
+
+        private void put(Object o) {
+            try {
+                while (!stop)
+                    if (queue.offer(o, OFFER_TIMEOUT, TimeUnit.MILLISECONDS))
+                        return;
+            } catch (InterruptedException e) {
+                stop = true;
+            }
+        }
+    }
+}
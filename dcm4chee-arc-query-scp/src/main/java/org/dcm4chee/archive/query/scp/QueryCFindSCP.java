@@ -127,7 +127,12 @@ public abstract class QueryCFindSCP extends BasicCFindSCP {
                         new LocalAssociationParticipant(as)));
             }
 
-            return new QueryTaskImpl(as, pc, rq, ctx.getKeysOriginal(), rootLevel, query, queryService);
+            int queueSize = arcAE.getQueryPipelineQueueSize();
+            return queueSize > 0
+                    ? new PipelinedQueryTask(as, pc, rq, ctx.getKeysOriginal(),
+                            rootLevel, query, queryService, queueSize)
+                    : new QueryTaskImpl(as, pc, rq, ctx.getKeysOriginal(),
+                            rootLevel, query, queryService);
         } catch (DicomServiceException e) {
             throw e;
         } catch (Exception e) {
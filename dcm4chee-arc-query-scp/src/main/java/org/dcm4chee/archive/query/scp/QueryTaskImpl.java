@@ -57,7 +57,7 @@ import org.dcm4chee.archive.query.QueryService;
  */
 class QueryTaskImpl extends BasicQueryTask {
 
-    private final Query query;
+    protected final Query query;
     private final QueryRetrieveLevel modelRootLevel;
     private final QueryService queryService;
 
@@ -0,0 +1,157 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query.scp;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
+import org.dcm4chee.archive.query.Query;
+import org.dcm4chee.archive.query.QueryService;
+import org.easymock.EasyMock;
+import org.easymock.EasyMockSupport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PipelinedQueryTaskTest extends EasyMockSupport {
+
+    private ExecutorService executor;
+
+    private Association as;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        Device device = new Device("archive");
+        device.setExecutor(executor);
+        ApplicationEntity ae = new ApplicationEntity("ARCHIVE");
+        device.addApplicationEntity(ae);
+        as = createNiceMock(Association.class);
+        EasyMock.expect(as.getApplicationEntity()).andReturn(ae).anyTimes();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void nextMatch_studyWithoutInstances_isSkipped() throws Exception {
+        Attributes match = new Attributes();
+        match.setString(Tag.StudyInstanceUID, VR.UI, "1.2.4");
+        Query query = createNiceMock(Query.class);
+        QueryService queryService = createNiceMock(QueryService.class);
+        EasyMock.expect(query.hasMoreMatches())
+                .andReturn(true).times(2).andReturn(false).anyTimes();
+        // first row is a study without instances
+        EasyMock.expect(query.nextMatch()).andReturn(null).andReturn(match);
+        query.close();
+        EasyMock.expectLastCall();
+        replayAll();
+
+        PipelinedQueryTask task = new PipelinedQueryTask(as, null,
+                new Attributes(), new Attributes(), QueryRetrieveLevel.STUDY,
+                query, queryService, 2);
+        Assert.assertTrue(task.hasMoreMatches());
+        Assert.assertSame(match, task.nextMatch());
+        Assert.assertFalse(task.hasMoreMatches());
+        Assert.assertNull(task.nextMatch());
+        task.close();
+        verifyAll();
+    }
+
+    @Test
+    public void hasMoreMatches_errorOfProducer_isThrown() throws Exception {
+        Query query = createNiceMock(Query.class);
+        QueryService queryService = createNiceMock(QueryService.class);
+        EasyMock.expect(query.hasMoreMatches()).andReturn(true).anyTimes();
+        EasyMock.expect(query.nextMatch())
+                .andThrow(new OutOfMemoryError("decoding blob"));
+        query.close();
+        EasyMock.expectLastCall();
+        replayAll();
+
+        PipelinedQueryTask task = new PipelinedQueryTask(as, null,
+                new Attributes(), new Attributes(), QueryRetrieveLevel.STUDY,
+                query, queryService, 2);
+        try {
+            task.hasMoreMatches();
+            Assert.fail("DicomServiceException expected");
+        } catch (DicomServiceException e) {
+            Assert.assertEquals(Status.UnableToProcess, e.getStatus());
+            Assert.assertTrue(e.getCause() instanceof OutOfMemoryError);
+        }
+        task.close();
+        verifyAll();
+    }
+
+    @Test
+    public void close_afterCancel_closesQuery() throws Exception {
+        Attributes match = new Attributes();
+        match.setString(Tag.StudyInstanceUID, VR.UI, "1.2.4");
+        Query query = createNiceMock(Query.class);
+        QueryService queryService = createNiceMock(QueryService.class);
+        // more matches than fit into the queue
+        EasyMock.expect(query.hasMoreMatches()).andReturn(true).anyTimes();
+        EasyMock.expect(query.nextMatch()).andReturn(match).anyTimes();
+        query.close();
+        EasyMock.expectLastCall();
+        replayAll();
+
+        PipelinedQueryTask task = new PipelinedQueryTask(as, null,
+                new Attributes(), new Attributes(), QueryRetrieveLevel.STUDY,
+                query, queryService, 1);
+        Assert.assertTrue(task.hasMoreMatches());
+        Assert.assertSame(match, task.nextMatch());
+        task.onCancelRQ(as);
+        // returns only after the producer stopped
+        task.close();
+        verifyAll();
+    }
+}
@@ -0,0 +1,234 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
+import org.dcm4chee.archive.entity.QPatient;
+import org.dcm4chee.archive.entity.QSeries;
+import org.dcm4chee.archive.entity.QStudy;
+
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.path.StringPath;
+
+/**
+ * Selects the return keys of a query, which are stored verbatim in columns
+ * of the Patient, Study and Series tables, from these columns. Only the
+ * remaining return keys have to be decoded from the attributes blobs; if
+ * all return keys are covered, the blobs are not selected at all.
+ *
+ * Study and Series dates and times are not covered, because their columns
+ * contain values normalized to the time zone of the archive. Person Names
+ * are only stored in components and Patient IDs are stored with their
+ * issuers in a separate table, so they are not covered either. Modality,
+ * Body Part Examined, Laterality and Patient's Sex are stored in upper
+ * case, so they are not covered either.
+ *
+ * @see #valueOf(Attributes, QueryRetrieveLevel)
+ */
+public class ColumnProjection {
+
+    private static final String NULL_VALUE = "*";
+
+    private final int[] tags;
+    private final StringPath[] columns;
+    private final int[] uncoveredTags;
+
+    private ColumnProjection(int[] tags, StringPath[] columns,
+            int[] uncoveredTags) {
+        this.tags = tags;
+        this.columns = columns;
+        this.uncoveredTags = uncoveredTags;
+    }
+
+    /**
+     * Returns the projection of the attributes in {@code keys} to columns of
+     * the tables of the specified and higher Query/Retrieve levels, or
+     * {@code null} if no attribute, other than the ones set by the query
+     * from the query attributes views, is covered by a column.
+     */
+    public static ColumnProjection valueOf(Attributes keys,
+            QueryRetrieveLevel qrLevel) {
+        int[] keyTags = keys.tags();
+        List<StringPath> columns = new ArrayList<StringPath>(keyTags.length);
+        int[] tags = new int[keyTags.length];
+        int[] uncovered = new int[keyTags.length];
+        int n = 0;
+        int m = 0;
+        for (int tag : keyTags) {
+            if (isDerived(tag))
+                continue;
+
+            StringPath column = columnOf(tag, qrLevel);
+            if (column == null) {
+                uncovered[m++] = tag;
+                continue;
+            }
+
+            columns.add(column);
+            tags[n++] = tag;
+        }
+        if (n == 0)
+            return null;
+
+        return new ColumnProjection(Arrays.copyOf(tags, n),
+                columns.toArray(new StringPath[n]),
+                Arrays.copyOf(uncovered, m));
+    }
+
+    /**
+     * Returns {@code true} if all attributes are covered by columns, so the
+     * attributes blobs need not be decoded.
+     */
+    public boolean isComplete() {
+        return uncoveredTags.length == 0;
+    }
+
+    /**
+     * Returns the sorted tags of the attributes, which are not covered by
+     * columns and have to be decoded from the attributes blobs.
+     */
+    public int[] getUncoveredTags() {
+        return uncoveredTags;
+    }
+
+    /**
+     * Returns the column containing the value of the attribute with the
+     * specified tag verbatim, or {@code null} if there is no such column.
+     */
+    public static StringPath columnOf(int tag, QueryRetrieveLevel qrLevel) {
+        switch (qrLevel) {
+        case SERIES:
+            switch (tag) {
+            case Tag.SeriesInstanceUID:
+                return QSeries.series.seriesInstanceUID;
+            case Tag.SeriesNumber:
+                return QSeries.series.seriesNumber;
+            case Tag.SeriesDescription:
+                return QSeries.series.seriesDescription;
+            case Tag.StationName:
+                return QSeries.series.stationName;
+            case Tag.InstitutionName:
+                return QSeries.series.institutionName;
+            case Tag.InstitutionalDepartmentName:
+                return QSeries.series.institutionalDepartmentName;
+            }
+        case STUDY:
+            switch (tag) {
+            case Tag.StudyInstanceUID:
+                return QStudy.study.studyInstanceUID;
+            case Tag.StudyID:
+                return QStudy.study.studyID;
+            case Tag.StudyDescription:
+                return QStudy.study.studyDescription;
+            case Tag.AccessionNumber:
+                return QStudy.study.accessionNumber;
+            }
+        case PATIENT:
+            switch (tag) {
+            case Tag.PatientBirthDate:
+                return QPatient.patient.patientBirthDate;
+            }
+        default:
+            return null;
+        }
+    }
+
+    private static boolean isDerived(int tag) {
+        switch (tag) {
+        case Tag.SpecificCharacterSet:
+        case Tag.QueryRetrieveLevel:
+        case Tag.RetrieveAETitle:
+        case Tag.InstanceAvailability:
+        case Tag.ModalitiesInStudy:
+        case Tag.SOPClassesInStudy:
+        case Tag.NumberOfStudyRelatedSeries:
+        case Tag.NumberOfStudyRelatedInstances:
+        case Tag.NumberOfSeriesRelatedInstances:
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code head} followed by the columns of this projection.
+     */
+    public Expression<?>[] select(Expression<?>... head) {
+        Expression<?>[] select = new Expression<?>[head.length + columns.length];
+        System.arraycopy(head, 0, select, 0, head.length);
+        System.arraycopy(columns, 0, select, head.length, columns.length);
+        return select;
+    }
+
+    /**
+     * Returns the attributes with the values of the columns of this
+     * projection, starting at {@code offset} in {@code row}.
+     */
+    public Attributes toAttributes(Object[] row, int offset) {
+        Attributes attrs = new Attributes(tags.length + 1);
+        boolean ascii = true;
+        for (int i = 0; i < tags.length; i++) {
+            String value = (String) row[offset + i];
+            if (value == null || value.equals(NULL_VALUE))
+                continue;
+
+            attrs.setString(tags[i], ElementDictionary.vrOf(tags[i], null),
+                    value);
+            ascii = ascii && isASCII(value);
+        }
+        if (!ascii)
+            attrs.setString(Tag.SpecificCharacterSet,
+                    ElementDictionary.vrOf(Tag.SpecificCharacterSet, null),
+                    "ISO_IR 192");
+        return attrs;
+    }
+
+    private static boolean isASCII(String s) {
+        for (int i = 0, n = s.length(); i < n; i++)
+            if (s.charAt(i) > 127)
+                return false;
+        return true;
+    }
+}
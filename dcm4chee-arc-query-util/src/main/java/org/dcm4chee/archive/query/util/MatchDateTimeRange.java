@@ -47,6 +47,7 @@ import org.dcm4che3.util.DateUtils;
 import com.mysema.query.BooleanBuilder;
 import com.mysema.query.types.ExpressionUtils;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.DateTimePath;
 import com.mysema.query.types.path.StringPath;
 
 /**
@@ -112,7 +113,41 @@ class MatchDateTimeRange {
         return predicates;
     }
 
-	private static Predicate matchUnknown(StringPath field, boolean matchUnknown, 
+    /**
+     * Matches date, time and combined date and time ranges as {@link
+     * #rangeMatch(StringPath, StringPath, int, int, long, Attributes,
+     * boolean, boolean)}, but matches date ranges, with or without time, by
+     * a single range predicate on {@code dateTimeField}, which contains the
+     * date and time of the entity, or the start of its date if the time is
+     * unknown, or {@code null} if the date is unknown. Time only ranges are
+     * still matched against {@code timeField}.
+     */
+    static Predicate rangeMatch(DateTimePath<Date> dateTimeField,
+            StringPath dateField, StringPath timeField,
+            int dateTag, int timeTag, long dateAndTimeTag,
+            Attributes keys, boolean combinedDatetimeMatching, boolean matchUnknown) {
+        final boolean containsDateTag = keys.containsValue(dateTag);
+        final boolean containsTimeTag = keys.containsValue(timeTag);
+        if (!containsDateTag)
+            return rangeMatch(dateField, timeField, dateTag, timeTag,
+                    dateAndTimeTag, keys, combinedDatetimeMatching, matchUnknown);
+
+        BooleanBuilder predicates = new BooleanBuilder();
+        if (containsTimeTag && combinedDatetimeMatching) {
+            predicates.and(matchUnknown(dateField, matchUnknown,
+                    combinedRange(dateTimeField, timeField,
+                            keys.getDateRange(dateAndTimeTag, null))));
+        } else {
+            predicates.and(matchUnknown(dateField, matchUnknown,
+                    range(dateTimeField, keys.getDateRange(dateTag, null))));
+            if (containsTimeTag)
+                predicates.and(matchUnknown(timeField, matchUnknown,
+                        range(timeField, keys.getDateRange(timeTag, null), FormatDate.TM)));
+        }
+        return predicates;
+    }
+
+    private static Predicate matchUnknown(StringPath field, boolean matchUnknown, 
             Predicate predicate) {
         return matchUnknown 
             ? ExpressionUtils.or(predicate, field.eq("*"))
@@ -129,6 +164,16 @@ class MatchDateTimeRange {
         return rangeInterval(field, startDate, endDate, dt, range);
     }
 
+    private static Predicate range(DateTimePath<Date> field, DateRange range) {
+        Date startDate = range.getStartDate();
+        Date endDate = range.getEndDate();
+        if (startDate == null)
+            return field.loe(endDate);
+        if (endDate == null)
+            return field.goe(startDate);
+        return field.between(startDate, endDate);
+    }
+
     private static Predicate rangeInterval(StringPath field, Date startDate,
             Date endDate, FormatDate dt, DateRange range) {
         String start = dt.format(startDate);
@@ -159,6 +204,29 @@ class MatchDateTimeRange {
                     dateRange.getStartDate(), dateRange.getEndDate());
     }
 
+    /**
+     * Selects entities by one range on {@code dateTimeField}, starting at
+     * the start of the first day, so entities with unknown time on that day
+     * are included, and excludes entities with known time before the start
+     * of the range on that day by a residual filter.
+     */
+    private static Predicate combinedRange(DateTimePath<Date> dateTimeField,
+            StringPath timeField, DateRange dateRange) {
+        Date start = dateRange.getStartDate();
+        Date end = dateRange.getEndDate();
+        if (start == null)
+            return dateTimeField.loe(end);
+        Date startOfDay = DateUtils.parseDA(null, DateUtils.formatDA(null, start));
+        Predicate startTime = startOfDay.equals(start)
+                ? null
+                : ExpressionUtils.or(dateTimeField.goe(start), timeField.eq("*"));
+        return ExpressionUtils.and(
+                end == null
+                    ? dateTimeField.goe(startOfDay)
+                    : dateTimeField.between(startOfDay, end),
+                startTime);
+    }
+
     private static Predicate combinedRangeInterval(StringPath dateField,
             StringPath timeField, Date startDateRange, Date endDateRange) {
         String startTime = DateUtils.formatTM(null, startDateRange);
@@ -39,12 +39,15 @@
 package org.dcm4chee.archive.query.util;
 
 import java.util.Iterator;
+import java.util.Set;
 
 import org.dcm4che3.data.PersonName;
 import org.dcm4che3.soundex.FuzzyStr;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.PersonNameFragment;
 import org.dcm4chee.archive.entity.QPersonName;
+import org.dcm4chee.archive.entity.QPersonNameFragment;
 import org.dcm4chee.archive.entity.QSoundexCode;
 import org.dcm4chee.archive.entity.SoundexCode;
 
@@ -82,11 +85,13 @@ class MatchPersonName {
          BooleanBuilder builder = new BooleanBuilder();
          if (!pn.contains(PersonName.Group.Ideographic)
                 && !pn.contains(PersonName.Group.Phonetic)) {
-             builder.or(match(
-                     qpn.familyName,
-                     qpn.givenName,
-                     qpn.middleName, 
-                     pn, PersonName.Group.Alphabetic, true));
+             builder.or(ExpressionUtils.and(
+                     fragments(qpn, pn, param),
+                     match(
+                         qpn.familyName,
+                         qpn.givenName,
+                         qpn.middleName,
+                         pn, PersonName.Group.Alphabetic, true)));
              builder.or(match(
                      qpn.ideographicFamilyName,
                      qpn.ideographicGivenName,
@@ -98,6 +103,7 @@ class MatchPersonName {
                      qpn.phoneticMiddleName,
                      pn, PersonName.Group.Alphabetic, false));
         } else {
+            builder.and(fragments(qpn, pn, param));
             builder.and(match(
                     qpn.familyName,
                     qpn.givenName,
@@ -133,6 +139,50 @@ class MatchPersonName {
         return builder;
     }
 
+    /**
+     * Restricts the candidates for alphabetic components with leading
+     * wildcards to Person Names containing all trigrams of the literal
+     * parts of the pattern, selected by the index on
+     * {@link PersonNameFragment}. The wildcard match on the component
+     * itself is still applied, to filter out candidates with the trigrams
+     * in another order. Only applied if enabled by
+     * {@link QueryParam#isPersonNameFragmentMatching()}, because
+     * Person Names without fragments would not match.
+     */
+    private static Predicate fragments(QPersonName qpn, PersonName pn,
+            QueryParam param) {
+        if (!param.isPersonNameFragmentMatching())
+            return null;
+
+        BooleanBuilder builder = new BooleanBuilder();
+        fragments(qpn, pn, PersonName.Component.FamilyName, builder);
+        fragments(qpn, pn, PersonName.Component.GivenName, builder);
+        fragments(qpn, pn, PersonName.Component.MiddleName, builder);
+        return builder.getValue();
+    }
+
+    private static void fragments(QPersonName qpn, PersonName pn,
+            PersonName.Component c, BooleanBuilder builder) {
+        String name = pn.get(PersonName.Group.Alphabetic, c);
+        if (name == null
+                || !(name.startsWith("*") || name.startsWith("?")))
+            return;
+
+        Set<String> values = PersonNameFragment.fragmentsOfPattern(name);
+        if (values.isEmpty())
+            return;
+
+        QPersonNameFragment fragment = QPersonNameFragment.personNameFragment;
+        builder.and(qpn.pk.in(new HibernateSubQuery()
+                .from(fragment)
+                .where(fragment.personNameComponent.eq(c),
+                        fragment.value.in(QueryBuilder.padded(
+                                values.toArray(new String[values.size()]))))
+                .groupBy(fragment.personName.pk)
+                .having(fragment.value.countDistinct().eq((long) values.size()))
+                .list(fragment.personName.pk)));
+    }
+
     private static Predicate fuzzyMatch(QPersonName qpn,
             PersonName pn, QueryParam param) {
         BooleanBuilder builder = new BooleanBuilder();
@@ -38,6 +38,7 @@
 
 package org.dcm4chee.archive.query.util;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.dcm4che3.data.Attributes;
@@ -89,6 +90,8 @@ import com.mysema.query.types.path.StringPath;
  */
 public class QueryBuilder {
 
+    private static final int MAX_PADDED_SIZE = 1000;
+
     public static final QPersonName patientName =
             new QPersonName("patientName");
     public static final QPersonName referringPhysicianName =
@@ -249,7 +252,9 @@ public class QueryBuilder {
                     keys.getStrings(Tag.StudyInstanceUID), false));
             builder.and(wildCard(QStudy.study.studyID,
                     keys.getString(Tag.StudyID, "*"), matchUnknown, false));
-            builder.and(MatchDateTimeRange.rangeMatch(QStudy.study.studyDate,
+            builder.and(MatchDateTimeRange.rangeMatch(
+                    QStudy.study.studyDateTime,
+                    QStudy.study.studyDate,
                     QStudy.study.studyTime, Tag.StudyDate, Tag.StudyTime,
                     Tag.StudyDateAndTime, keys, combinedDatetimeMatching,
                     matchUnknown));
@@ -322,6 +327,7 @@ public class QueryBuilder {
                     keys.getString(Tag.Laterality, "*").toUpperCase(),
                     matchUnknown, false));
             builder.and(MatchDateTimeRange.rangeMatch(
+                    QSeries.series.performedProcedureStepStartDateTime,
                     QSeries.series.performedProcedureStepStartDate,
                     QSeries.series.performedProcedureStepStartTime,
                     Tag.PerformedProcedureStepStartDate,
@@ -612,7 +618,29 @@ public class QueryBuilder {
         if (values == null || values.length == 0 || values[0].equals("*"))
             return null;
 
-        return matchUnknown(path.in(values), path, matchUnknown);
+        return matchUnknown(path.in(padded(values)), path, matchUnknown);
+    }
+
+    /**
+     * Pads {@code values} to the next power of two by repeating the last
+     * value. Hibernate expands list parameters of IN predicates to one
+     * parameter per value, so each list size results in a distinct HQL
+     * statement, which has to be translated again if its plan is not found
+     * in the query plan cache. Padding limits the number of distinct plans
+     * to the logarithm of the maximal list size. Lists are not padded
+     * beyond 1000 values, the maximal number of expressions in an IN list
+     * supported by Oracle.
+     */
+    public static String[] padded(String[] values) {
+        int n = values.length;
+        int size = Integer.highestOneBit(n);
+        if (size == n || n >= MAX_PADDED_SIZE)
+            return values;
+
+        String[] padded = Arrays.copyOf(values,
+                Math.min(size << 1, MAX_PADDED_SIZE));
+        Arrays.fill(padded, n, padded.length, values[n - 1]);
+        return padded;
     }
 
     static Predicate modalitiesInStudy(String modality, boolean matchUnknown) {
@@ -793,7 +821,13 @@ public class QueryBuilder {
 
     public static HibernateQuery applyPatientLevelJoins(HibernateQuery query,
             Attributes keys, QueryParam queryParam) {
-        query = query.join(QPatient.patient.attributesBlob, QueryBuilder.patientAttributesBlob);
+        return applyPatientLevelJoins(query, keys, queryParam, true);
+    }
+
+    public static HibernateQuery applyPatientLevelJoins(HibernateQuery query,
+            Attributes keys, QueryParam queryParam, boolean attributesBlob) {
+        if (attributesBlob)
+            query = query.join(QPatient.patient.attributesBlob, QueryBuilder.patientAttributesBlob);
         return joinIfMatchingKey(query, keys, Tag.PatientName,
                 QPatient.patient.patientName, QueryBuilder.patientName,
                 queryParam.isMatchUnknown());
@@ -801,12 +835,18 @@ public class QueryBuilder {
 
     public static HibernateQuery applyStudyLevelJoins(HibernateQuery query,
             Attributes keys, QueryParam queryParam) {
+        return applyStudyLevelJoins(query, keys, queryParam, true);
+    }
+
+    public static HibernateQuery applyStudyLevelJoins(HibernateQuery query,
+            Attributes keys, QueryParam queryParam, boolean attributesBlob) {
         query = query.innerJoin(QStudy.study.patient, QPatient.patient);
         query = query.leftJoin(QStudy.study.queryAttributes,
                 QStudyQueryAttributes.studyQueryAttributes)
                      .on(QStudyQueryAttributes.studyQueryAttributes.viewID.eq(
                              queryParam.getQueryRetrieveView().getViewID()));
-        query = query.join(QStudy.study.attributesBlob, QueryBuilder.studyAttributesBlob);
+        if (attributesBlob)
+            query = query.join(QStudy.study.attributesBlob, QueryBuilder.studyAttributesBlob);
 
         if (!isUniversalMatching(keys, Tag.AccessionNumber)
                 && !isUniversalMatching(keys.getNestedDataset(Tag.IssuerOfAccessionNumberSequence)))
@@ -819,12 +859,18 @@ public class QueryBuilder {
 
     public static HibernateQuery applySeriesLevelJoins(HibernateQuery query,
             Attributes keys, QueryParam queryParam) {
+        return applySeriesLevelJoins(query, keys, queryParam, true);
+    }
+
+    public static HibernateQuery applySeriesLevelJoins(HibernateQuery query,
+            Attributes keys, QueryParam queryParam, boolean attributesBlob) {
         query = query.innerJoin(QSeries.series.study, QStudy.study);
         query = query.leftJoin(QSeries.series.queryAttributes,
                 QSeriesQueryAttributes.seriesQueryAttributes)
                     .on(QSeriesQueryAttributes.seriesQueryAttributes.viewID.eq(
                              queryParam.getQueryRetrieveView().getViewID()));
-        query = query.join(QSeries.series.attributesBlob, QueryBuilder.seriesAttributesBlob);
+        if (attributesBlob)
+            query = query.join(QSeries.series.attributesBlob, QueryBuilder.seriesAttributesBlob);
 
         return joinIfMatchingKey(query, keys, Tag.PerformingPhysicianName,
                 QSeries.series.performingPhysicianName, QueryBuilder.performingPhysicianName,
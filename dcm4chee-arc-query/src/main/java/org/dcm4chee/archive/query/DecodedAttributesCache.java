@@ -0,0 +1,174 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.entity.Instance;
+import org.dcm4chee.archive.entity.Series;
+import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.entity.Utils;
+import org.dcm4chee.archive.store.StoreContext;
+
+/**
+ * LRU cache of decoded patient, study and series attributes blobs, shared
+ * by queries of all levels, so the attributes of a patient or study are not
+ * decoded again for each returned series or instance and for each query.
+ *
+ * Entries are looked up by the primary key of the blob and are only used
+ * if the version of the entity owning the blob and the encoded attributes
+ * did not change. The maximal number of entries is configured by
+ * {@link ArchiveDeviceExtension#getDecodedAttributesCacheSize()}; 0 disables
+ * the cache.
+ *
+ */
+@ApplicationScoped
+public class DecodedAttributesCache {
+
+    private static final class Entry {
+        final long version;
+        final byte[] encoded;
+        final Attributes attrs;
+
+        Entry(long version, byte[] encoded, Attributes attrs) {
+            this.version = version;
+            this.encoded = encoded;
+            this.attrs = attrs;
+        }
+    }
+
+    @Inject
+    private Device device;
+
+    private final LinkedHashMap<Long, Entry> entries =
+            new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+
+    /**
+     * Decodes the attributes blob with the specified primary key into
+     * {@code attrs}, using the decoded attributes of a previous invocation
+     * with the same version and encoded attributes, if still cached.
+     */
+    public void decodeAttributes(Attributes attrs, Long blobPk, long version,
+            byte[] encoded) {
+        decodeAttributes(attrs, blobPk, version, encoded, null);
+    }
+
+    /**
+     * Decodes the attributes blob as {@link #decodeAttributes(Attributes,
+     * Long, long, byte[])}. If the cache is disabled, only the attributes in
+     * the sorted {@code selection} are decoded, if not {@code null}. Cached
+     * entries always contain all attributes, so they can be used by queries
+     * with different return keys.
+     */
+    public void decodeAttributes(Attributes attrs, Long blobPk, long version,
+            byte[] encoded, int[] selection) {
+        int maxSize = maxSize();
+        if (maxSize <= 0 || blobPk == null || encoded == null) {
+            Utils.decodeAttributes(attrs, encoded, selection);
+            return;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(blobPk);
+        }
+        if (entry == null || entry.version != version
+                || !Arrays.equals(entry.encoded, encoded)) {
+            Attributes decoded = new Attributes();
+            Utils.decodeAttributes(decoded, encoded);
+            entry = new Entry(version, encoded, decoded);
+            synchronized (this) {
+                entries.put(blobPk, entry);
+                evict(maxSize);
+            }
+        }
+        attrs.addAll(entry.attrs);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void invalidate(long blobPk) {
+        entries.remove(blobPk);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public void onStore(@Observes StoreContext context) {
+        Instance inst = context.getInstance();
+        if (inst == null || context.isFail())
+            return;
+
+        try {
+            Series series = inst.getSeries();
+            Study study = series.getStudy();
+            invalidate(series.getAttributesBlob().getPk());
+            invalidate(study.getAttributesBlob().getPk());
+            invalidate(study.getPatient().getAttributesBlob().getPk());
+        } catch (RuntimeException e) {
+            clear();
+        }
+    }
+
+    private void evict(int maxSize) {
+        for (Iterator<Long> iter = entries.keySet().iterator();
+                entries.size() > maxSize && iter.hasNext();) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    private int maxSize() {
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        return arcDev != null ? arcDev.getDecodedAttributesCacheSize() : 0;
+    }
+}
@@ -77,6 +77,14 @@ public interface QueryContext {
 
     void setKeys(Attributes keys);
 
+    /**
+     * Returns {@code true} if all attributes of the matches are returned,
+     * and not only the attributes contained in the keys.
+     */
+    boolean isReturnAllAttributes();
+
+    void setReturnAllAttributes(boolean returnAllAttributes);
+
     IDWithIssuer[] getPatientIDs();
 
     void setPatientIDs(IDWithIssuer[] pids);
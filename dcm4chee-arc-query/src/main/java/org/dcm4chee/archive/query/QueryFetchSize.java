@@ -0,0 +1,149 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.dcm4che3.net.service.QueryRetrieveLevel;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the JDBC fetch size of queries per Query/Retrieve level and
+ * collects the number of queries, fetched rows and database round-trips
+ * per level.
+ *
+ * In adaptive mode, the fetch size of a query is increased from the
+ * configured fetch size up to the average number of rows fetched by
+ * previous queries on the same level, limited by
+ * {@link ArchiveAEExtension#getQueryMaxFetchSize()}, so large results are
+ * fetched with fewer round-trips.
+ *
+ * @see ArchiveAEExtension#getQueryFetchSize(QueryRetrieveLevel)
+ * @see ArchiveAEExtension#isQueryFetchSizeAdaptive()
+ */
+@ApplicationScoped
+public class QueryFetchSize {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryFetchSize.class);
+
+    /**
+     * Weight of the number of rows of the last query in the moving average.
+     */
+    private static final double ALPHA = 0.2;
+
+    public static final class Statistics {
+        private final AtomicLong queries = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong roundTrips = new AtomicLong();
+        private volatile double averageRows;
+
+        public long getQueries() {
+            return queries.get();
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public long getRoundTrips() {
+            return roundTrips.get();
+        }
+
+        public double getAverageRows() {
+            return averageRows;
+        }
+
+        public double getAverageRoundTrips() {
+            long n = queries.get();
+            return n > 0 ? (double) roundTrips.get() / n : 0;
+        }
+
+        synchronized void add(long rows, long roundTrips) {
+            this.averageRows = queries.getAndIncrement() == 0
+                    ? rows
+                    : ALPHA * rows + (1 - ALPHA) * averageRows;
+            this.rows.addAndGet(rows);
+            this.roundTrips.addAndGet(roundTrips);
+        }
+    }
+
+    private final EnumMap<QueryRetrieveLevel, Statistics> statistics =
+            new EnumMap<QueryRetrieveLevel, Statistics>(QueryRetrieveLevel.class);
+
+    public QueryFetchSize() {
+        for (QueryRetrieveLevel level : QueryRetrieveLevel.values())
+            statistics.put(level, new Statistics());
+    }
+
+    public Statistics getStatistics(QueryRetrieveLevel level) {
+        return statistics.get(level);
+    }
+
+    /**
+     * Returns the fetch size for a query on the specified level, or 0 for
+     * the fetch size configured by the persistence unit.
+     */
+    public int fetchSizeOf(ArchiveAEExtension arcAE, QueryRetrieveLevel level) {
+        int fetchSize = arcAE.getQueryFetchSize(level);
+        if (fetchSize <= 0 || !arcAE.isQueryFetchSizeAdaptive())
+            return fetchSize;
+
+        int adaptive = (int) Math.min(statistics.get(level).getAverageRows(),
+                arcAE.getQueryMaxFetchSize());
+        return Math.max(fetchSize, adaptive);
+    }
+
+    /**
+     * Records {@code rows} fetched by a query on the specified level with
+     * the specified fetch size.
+     */
+    public void onQueryClosed(QueryRetrieveLevel level, int fetchSize,
+            long rows) {
+        // the last round-trip returns less rows than the fetch size
+        long roundTrips = fetchSize > 0 ? rows / fetchSize + 1 : 0;
+        statistics.get(level).add(rows, roundTrips);
+        LOG.debug("Fetched {} rows of {} query in {} round-trips with fetch size {}",
+                rows, level, roundTrips, fetchSize);
+    }
+}
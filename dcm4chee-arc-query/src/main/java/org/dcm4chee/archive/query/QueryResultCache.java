@@ -0,0 +1,299 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.Utils;
+import org.dcm4chee.archive.store.NewStudyCreated;
+import org.dcm4chee.archive.store.StoreContext;
+
+import com.mysema.query.types.OrderSpecifier;
+
+/**
+ * Cache of the complete results of Study level queries, so identical
+ * queries repeatedly issued by polling worklist clients do not access the
+ * database again within a short time to live.
+ *
+ * Entries are looked up by the normalized query keys, the {@link
+ * QueryParam}, the Query/Retrieve View and the paging of the query, see
+ * {@link #keyOf(QueryContext, Long, Long, List)}. Entries containing the
+ * study of a stored instance, or of a study referenced by a stored Key
+ * Object Selection, as Rejection Notes, are invalidated. All entries are
+ * invalidated if a new study is created, because it may match any query.
+ * QC operations, including deletions and rejections by QC, also clear the
+ * cache, see {@code QCPostProcessor}. Entries are invalidated after the
+ * storage transaction is committed. Results of a query, which started
+ * before an invalidation, are not cached, because they may miss the
+ * stored object, see {@link #getGeneration()}.
+ *
+ * The cache is disabled if
+ * {@link ArchiveDeviceExtension#getQueryResultCacheTTL()} is 0.
+ *
+ */
+@ApplicationScoped
+public class QueryResultCache {
+
+    public static final class Key {
+        private final Object[] values;
+        private final int hash;
+
+        Key(Object... values) {
+            this.values = values;
+            this.hash = Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key
+                    && Arrays.deepEquals(values, ((Key) obj).values);
+        }
+    }
+
+    private static final class Entry {
+        final long expires;
+        final List<Attributes> matches;
+        final Set<String> studyIUIDs;
+
+        Entry(long expires, List<Attributes> matches) {
+            this.expires = expires;
+            this.matches = matches;
+            this.studyIUIDs = new HashSet<String>(matches.size() * 4 / 3 + 1);
+            for (Attributes match : matches)
+                studyIUIDs.add(match.getString(Tag.StudyInstanceUID));
+        }
+    }
+
+    @Inject
+    private Device device;
+
+    private final LinkedHashMap<Key, Entry> entries =
+            new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    private long generation;
+
+    public boolean isEnabled() {
+        ArchiveDeviceExtension arcDev = arcDev();
+        return arcDev != null && arcDev.getQueryResultCacheTTL() > 0
+                && arcDev.getQueryResultCacheSize() > 0;
+    }
+
+    /**
+     * Returns the maximal number of matches of a cached query result.
+     */
+    public int getMaxMatches() {
+        ArchiveDeviceExtension arcDev = arcDev();
+        return arcDev != null ? arcDev.getQueryResultCacheMaxMatches() : 0;
+    }
+
+    /**
+     * Returns the key of a query with the specified context, limit, offset
+     * and order, considering all parameters which affect the matches and
+     * the attributes returned by the query.
+     */
+    public static Key keyOf(QueryContext ctx, Long limit, Long offset,
+            List<OrderSpecifier<?>> orderBy) {
+        QueryParam param = ctx.getQueryParam();
+        return new Key(
+                ctx.getArchiveAEExtension().getApplicationEntity().getAETitle(),
+                ctx.getRemoteAET(),
+                ctx.getServiceSOPClassUID(),
+                Utils.encodeAttributes(ctx.getKeys()),
+                ctx.getPatientIDs(),
+                ctx.isReturnAllAttributes(),
+                ctx.getRequestedTimeZone(),
+                param.isCombinedDatetimeMatching(),
+                param.isFuzzySemanticMatching(),
+                param.isPersonNameComponentOrderInsensitiveMatching(),
+                param.isMatchUnknown(),
+                param.isMatchLinkedPatientIDs(),
+                param.getAccessControlIDs(),
+                param.getDefaultIssuerOfPatientID(),
+                param.getDefaultIssuerOfAccessionNumber(),
+                param.getQueryRetrieveView() != null
+                        ? param.getQueryRetrieveView().getViewID()
+                        : null,
+                limit,
+                offset,
+                orderBy.toArray());
+    }
+
+    /**
+     * Returns the cached matches of the query with the specified key, or
+     * {@code null} if there are none or they are expired. The returned
+     * attributes must not be modified.
+     */
+    public List<Attributes> get(Key key) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null)
+                return null;
+
+            if (entry.expires <= now) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.matches;
+        }
+    }
+
+    /**
+     * Returns the number of invalidations so far. Must be obtained before
+     * the query is executed and passed to
+     * {@link #put(Key, List, long)}.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the matches of the query with the specified key, unless the
+     * cache was invalidated after the query was executed, because the
+     * matches may then miss stored objects.
+     */
+    public void put(Key key, List<Attributes> matches, long generation) {
+        ArchiveDeviceExtension arcDev = arcDev();
+        if (arcDev == null)
+            return;
+
+        int ttl = arcDev.getQueryResultCacheTTL();
+        int maxSize = arcDev.getQueryResultCacheSize();
+        if (ttl <= 0 || maxSize <= 0)
+            return;
+
+        Entry entry = new Entry(System.currentTimeMillis() + ttl * 1000L,
+                matches);
+        synchronized (this) {
+            if (this.generation != generation)
+                return;
+
+            entries.put(key, entry);
+            evict(maxSize);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void invalidate(Collection<String> studyIUIDs) {
+        generation++;
+        for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+            Set<String> cached = iter.next().studyIUIDs;
+            for (String studyIUID : studyIUIDs)
+                if (cached.contains(studyIUID)) {
+                    iter.remove();
+                    break;
+                }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public void onStore(
+            @Observes(during = TransactionPhase.AFTER_SUCCESS)
+            StoreContext context) {
+        if (context.isFail())
+            return;
+
+        synchronized (this) {
+            if (entries.isEmpty()) {
+                // results of running queries may still miss the object
+                generation++;
+                return;
+            }
+        }
+        invalidate(studyIUIDsOf(context.getAttributes()));
+    }
+
+    public void onNewStudy(
+            @Observes(during = TransactionPhase.AFTER_SUCCESS)
+            @NewStudyCreated String studyIUID) {
+        clear();
+    }
+
+    private static Set<String> studyIUIDsOf(Attributes attrs) {
+        Set<String> studyIUIDs = new HashSet<String>();
+        studyIUIDs.add(attrs.getString(Tag.StudyInstanceUID));
+        Sequence evidenceSeq =
+                attrs.getSequence(Tag.CurrentRequestedProcedureEvidenceSequence);
+        if (evidenceSeq != null)
+            for (Attributes refStudy : evidenceSeq)
+                studyIUIDs.add(refStudy.getString(Tag.StudyInstanceUID));
+        return studyIUIDs;
+    }
+
+    private void evict(int maxSize) {
+        for (Iterator<Key> iter = entries.keySet().iterator();
+                entries.size() > maxSize && iter.hasNext();) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+}
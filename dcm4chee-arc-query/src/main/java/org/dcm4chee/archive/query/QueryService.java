@@ -38,7 +38,9 @@
 
 package org.dcm4chee.archive.query;
 
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Map;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.QueryOption;
@@ -87,4 +89,33 @@ public interface QueryService {
 
     SeriesQueryAttributes createSeriesView(Long seriesPk, QueryParam queryParam);
 
+    /**
+     * Calculates and persists the query attributes of several Studies, as
+     * {@link #createStudyView(Long, QueryParam)}, but by one query over the
+     * instances of all specified Studies.
+     *
+     * @return query attributes by primary key of the Study
+     */
+    Map<Long, StudyQueryAttributes> createStudyViews(Collection<Long> studyPks,
+            QueryParam queryParam);
+
+    /**
+     * Calculates and persists the query attributes of several Series, as
+     * {@link #createSeriesView(Long, QueryParam)}, but by one query over the
+     * instances of all specified Series.
+     *
+     * @return query attributes by primary key of the Series
+     */
+    Map<Long, SeriesQueryAttributes> createSeriesViews(Collection<Long> seriesPks,
+            QueryParam queryParam);
+
+    /**
+     * Returns the version of the Study, Series or Instance specified by its
+     * UIDs, or {@code null} if it does not exist. {@code seriesIUID} and
+     * {@code sopIUID} may be {@code null} to specify the whole Study or
+     * Series.
+     */
+    ResourceVersion getResourceVersion(String studyIUID, String seriesIUID,
+            String sopIUID);
+
 }
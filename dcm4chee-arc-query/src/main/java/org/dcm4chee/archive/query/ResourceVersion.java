@@ -0,0 +1,84 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query;
+
+import java.util.Date;
+
+/**
+ * Version of a Study, Series or Instance resource, derived from the number
+ * of its instances and from the update time and version of the patient,
+ * study, series and instance records it consists of. Used to provide
+ * validators for conditional HTTP requests without reading any file or
+ * attributes blob.
+ *
+ */
+public class ResourceVersion {
+
+    private final Date lastModified;
+    private final String entityTag;
+
+    public ResourceVersion(long numberOfInstances, Date lastModified,
+            long versionSum) {
+        // HTTP dates are in seconds precision
+        this.lastModified = new Date(lastModified.getTime() / 1000L * 1000L);
+        this.entityTag = Long.toHexString(numberOfInstances) + '-'
+                + Long.toHexString(lastModified.getTime()) + '-'
+                + Long.toHexString(versionSum);
+    }
+
+    /**
+     * Returns the latest update time of the records of the resource,
+     * truncated to seconds.
+     */
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns an opaque value, which changes on each update of the resource.
+     */
+    public String getEntityTag() {
+        return entityTag;
+    }
+
+    @Override
+    public String toString() {
+        return entityTag;
+    }
+}
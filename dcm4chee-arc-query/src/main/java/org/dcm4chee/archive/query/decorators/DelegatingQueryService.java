@@ -10,10 +10,13 @@ import org.dcm4chee.archive.entity.StudyQueryAttributes;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.QueryService;
+import org.dcm4chee.archive.query.ResourceVersion;
 import org.dcm4chee.conf.decorators.DelegatingService;
 import org.dcm4chee.conf.decorators.DelegatingServiceImpl;
 
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Map;
 
 @DelegatingService
 public class DelegatingQueryService extends DelegatingServiceImpl<QueryService> implements QueryService {
@@ -84,4 +87,23 @@ public class DelegatingQueryService extends DelegatingServiceImpl<QueryService>
 		return getNextDecorator().createSeriesView(seriesPk, queryParam);
 	}
 
+	@Override
+	public Map<Long, StudyQueryAttributes> createStudyViews(
+			Collection<Long> studyPks, QueryParam queryParam) {
+		return getNextDecorator().createStudyViews(studyPks, queryParam);
+	}
+
+	@Override
+	public Map<Long, SeriesQueryAttributes> createSeriesViews(
+			Collection<Long> seriesPks, QueryParam queryParam) {
+		return getNextDecorator().createSeriesViews(seriesPks, queryParam);
+	}
+
+	@Override
+	public ResourceVersion getResourceVersion(String studyIUID,
+			String seriesIUID, String sopIUID) {
+		return getNextDecorator().getResourceVersion(studyIUID, seriesIUID,
+				sopIUID);
+	}
+
 }
@@ -10,12 +10,15 @@ import org.dcm4chee.archive.entity.StudyQueryAttributes;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.QueryService;
+import org.dcm4chee.archive.query.ResourceVersion;
 import org.dcm4chee.conf.decorators.DynamicDecoratorWrapper;
 
 import javax.decorator.Decorator;
 import javax.decorator.Delegate;
 import javax.inject.Inject;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Map;
 
 @Decorator
 public class QueryServiceDynamicDecorator extends DynamicDecoratorWrapper<QueryService> implements QueryService {
@@ -89,4 +92,19 @@ public class QueryServiceDynamicDecorator extends DynamicDecoratorWrapper<QueryS
 	public SeriesQueryAttributes createSeriesView(Long seriesPk, QueryParam queryParam) {
 		return wrapWithDynamicDecorators(delegate).createSeriesView(seriesPk, queryParam);
 	}
+
+	@Override
+	public Map<Long, StudyQueryAttributes> createStudyViews(Collection<Long> studyPks, QueryParam queryParam) {
+		return wrapWithDynamicDecorators(delegate).createStudyViews(studyPks, queryParam);
+	}
+
+	@Override
+	public Map<Long, SeriesQueryAttributes> createSeriesViews(Collection<Long> seriesPks, QueryParam queryParam) {
+		return wrapWithDynamicDecorators(delegate).createSeriesViews(seriesPks, queryParam);
+	}
+
+	@Override
+	public ResourceVersion getResourceVersion(String studyIUID, String seriesIUID, String sopIUID) {
+		return wrapWithDynamicDecorators(delegate).getResourceVersion(studyIUID, seriesIUID, sopIUID);
+	}
 }
@@ -38,14 +38,27 @@
 
 package org.dcm4chee.archive.query.impl;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.QueryFetchSize;
+import org.dcm4chee.archive.query.util.ColumnProjection;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionImplementor;
 
 import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.EntityPath;
@@ -59,6 +72,34 @@ import com.mysema.query.types.Predicate;
  */
 public abstract class AbstractQuery<E> implements Query {
 
+    /**
+     * Number of rows fetched ahead, so derived fields missing for some of
+     * them can be calculated by one query per page.
+     */
+    static final int PAGE_SIZE = 100;
+
+    /**
+     * Attributes decoded from the attributes blobs in addition to the keys,
+     * because they are used to adjust the responses, e.g. by the MIMA and
+     * time zone support.
+     */
+    private static final int[] ADJUST_RESPONSE_TAGS = {
+        Tag.SpecificCharacterSet,
+        Tag.TimezoneOffsetFromUTC,
+        Tag.StudyDate,
+        Tag.ContentDate,
+        Tag.StudyTime,
+        Tag.ContentTime,
+        Tag.AccessionNumber,
+        Tag.IssuerOfAccessionNumberSequence,
+        Tag.PatientName,
+        Tag.PatientID,
+        Tag.IssuerOfPatientID,
+        Tag.IssuerOfPatientIDQualifiersSequence,
+        Tag.OtherPatientIDsSequence,
+        Tag.RequestAttributesSequence
+    };
+
     protected final QueryContext context;
 
     protected final StatelessSession session;
@@ -67,17 +108,36 @@ public abstract class AbstractQuery<E> implements Query {
 
     protected HibernateQuery query;
 
+    /**
+     * Sorted tags of the attributes to decode from the attributes blobs, or
+     * {@code null} to decode all attributes.
+     */
+    protected int[] selection;
+
+    private final ArrayDeque<Object[]> page = new ArrayDeque<Object[]>(PAGE_SIZE);
+
     private boolean hasMoreMatches;
  
     private boolean optionalKeyNotSupported;
 
     private final EntityPath<E> entityPath;
 
+    private final QueryRetrieveLevel qrLevel;
+
+    private final QueryFetchSize fetchSizes;
+
+    private int fetchSize;
+
+    private long rows;
+
     public AbstractQuery(QueryContext context, StatelessSession session,
-            EntityPath<E> entityPath) {
+            EntityPath<E> entityPath, QueryRetrieveLevel qrLevel,
+            QueryFetchSize fetchSizes) {
         this.context = context;
         this.session = session;
         this.entityPath = entityPath;
+        this.qrLevel = qrLevel;
+        this.fetchSizes = fetchSizes;
     }
 
     @Override
@@ -87,6 +147,7 @@ public abstract class AbstractQuery<E> implements Query {
 
     @Override
     public void initQuery() {
+        selection = decodeSelection();
         HibernateQuery q = new HibernateQuery(session).from(entityPath);
         q = applyJoins(q);
         query = q.where(predicate());
@@ -98,12 +159,26 @@ public abstract class AbstractQuery<E> implements Query {
 
     protected abstract Predicate predicate();
 
-    protected abstract Attributes toAttributes(ScrollableResults results, QueryContext context);
+    protected abstract Attributes toAttributes(Object[] row, QueryContext context);
+
+    /**
+     * Called for each page of rows fetched ahead, before they are passed to
+     * {@link #toAttributes(Object[], QueryContext)}.
+     */
+    protected void prepare(List<Object[]> rows) {
+    }
 
     @Override
     public void executeQuery() {
+        fetchSize = fetchSizes.fetchSizeOf(context.getArchiveAEExtension(),
+                qrLevel);
+        if (fetchSize > 0)
+            query.setFetchSize(fetchSize);
+        else
+            fetchSize = defaultFetchSize();
         results = query.scroll(ScrollMode.FORWARD_ONLY, select());
-        hasMoreMatches = results.next();
+        page.clear();
+        fetchPage();
     }
 
     @Override
@@ -144,11 +219,73 @@ public abstract class AbstractQuery<E> implements Query {
     public Attributes nextMatch() {
         if (!hasMoreMatches)
             throw new NoSuchElementException();
-        Attributes attrs = toAttributes(results, context);
-        hasMoreMatches = results.next();
+        Attributes attrs = toAttributes(page.poll(), context);
+        if (page.isEmpty())
+            fetchPage();
         return attrs;
     }
 
+    private void fetchPage() {
+        List<Object[]> rows = new ArrayList<Object[]>(PAGE_SIZE);
+        while (rows.size() < PAGE_SIZE && results.next())
+            rows.add(results.get());
+        this.rows += rows.size();
+        if (!rows.isEmpty())
+            prepare(rows);
+        page.addAll(rows);
+        hasMoreMatches = !page.isEmpty();
+    }
+
+    /**
+     * Returns the projection of the keys of the query to indexed columns, or
+     * {@code null} if the attributes blobs have to be decoded completely,
+     * because no keys are covered by columns, because all attributes are
+     * returned or because attributes of the responses may be coerced.
+     * Restricts the {@link #selection} to the keys not covered by columns.
+     */
+    protected ColumnProjection columnProjection(QueryRetrieveLevel qrLevel) {
+        if (context.isReturnAllAttributes() || isResponseCoercion())
+            return null;
+
+        ColumnProjection projection =
+                ColumnProjection.valueOf(context.getKeys(), qrLevel);
+        if (projection != null && selection != null)
+            selection = decodeSelection(projection.getUncoveredTags());
+        return projection;
+    }
+
+    private int[] decodeSelection() {
+        if (context.isReturnAllAttributes() || isResponseCoercion())
+            return null;
+
+        return decodeSelection(context.getKeys().tags());
+    }
+
+    private static int[] decodeSelection(int[] keyTags) {
+        for (int tag : keyTags)
+            if (TagUtils.isPrivateTag(tag))
+                return null;
+
+        int[] selection = Arrays.copyOf(keyTags,
+                keyTags.length + ADJUST_RESPONSE_TAGS.length);
+        System.arraycopy(ADJUST_RESPONSE_TAGS, 0, selection, keyTags.length,
+                ADJUST_RESPONSE_TAGS.length);
+        Arrays.sort(selection);
+        return selection;
+    }
+
+    private boolean isResponseCoercion() {
+        ArchiveAEExtension arcAE = context.getArchiveAEExtension();
+        return arcAE.getAttributeCoercion(context.getServiceSOPClassUID(),
+                Dimse.C_FIND_RSP, Role.SCP, context.getRemoteAET()) != null;
+    }
+
+    private int defaultFetchSize() {
+        Integer fetchSize = ((SessionImplementor) session).getFactory()
+                .getSettings().getJdbcFetchSize();
+        return fetchSize != null ? fetchSize : 0;
+    }
+
     private void checkQuery() {
         if (query == null)
             throw new IllegalStateException("query not initalized");
@@ -156,6 +293,8 @@ public abstract class AbstractQuery<E> implements Query {
 
     @Override
     public void close() {
+        if (results != null)
+            fetchSizes.onQueryClosed(qrLevel, fetchSize, rows);
         session.close();
     }
 
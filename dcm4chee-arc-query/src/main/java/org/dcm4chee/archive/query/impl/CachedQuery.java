@@ -0,0 +1,173 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4chee.archive.query.Query;
+import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.QueryResultCache;
+
+import com.mysema.query.types.OrderSpecifier;
+
+/**
+ * Returns the matches of a query from the {@link QueryResultCache}, if
+ * available, or collects the matches returned by the query into the cache,
+ * if the query is iterated to its end.
+ *
+ * @see QueryResultCache
+ */
+class CachedQuery implements Query {
+
+    private final Query query;
+
+    private final QueryResultCache cache;
+
+    private Long limit;
+
+    private Long offset;
+
+    private final List<OrderSpecifier<?>> orderBy =
+            new ArrayList<OrderSpecifier<?>>();
+
+    private QueryResultCache.Key key;
+
+    private long generation;
+
+    private Iterator<Attributes> cached;
+
+    private List<Attributes> collected;
+
+    CachedQuery(Query query, QueryResultCache cache) {
+        this.query = query;
+        this.cache = cache;
+    }
+
+    @Override
+    public void initQuery() {
+        query.initQuery();
+    }
+
+    @Override
+    public void executeQuery() {
+        key = QueryResultCache.keyOf(query.getQueryContext(), limit, offset,
+                orderBy);
+        List<Attributes> matches = cache.get(key);
+        if (matches != null) {
+            cached = matches.iterator();
+            return;
+        }
+
+        generation = cache.getGeneration();
+        query.executeQuery();
+        collected = new ArrayList<Attributes>();
+        if (!query.hasMoreMatches())
+            cache.put(key, collected, generation);
+    }
+
+    @Override
+    public long count() {
+        return query.count();
+    }
+
+    @Override
+    public void limit(long limit) {
+        this.limit = limit;
+        query.limit(limit);
+    }
+
+    @Override
+    public void offset(long offset) {
+        this.offset = offset;
+        query.offset(offset);
+    }
+
+    @Override
+    public void orderBy(OrderSpecifier<?>... orderSpecifiers) {
+        orderBy.addAll(Arrays.asList(orderSpecifiers));
+        query.orderBy(orderSpecifiers);
+    }
+
+    @Override
+    public boolean optionalKeysNotSupported() {
+        return query.optionalKeysNotSupported();
+    }
+
+    @Override
+    public boolean hasMoreMatches() {
+        return cached != null ? cached.hasNext() : query.hasMoreMatches();
+    }
+
+    @Override
+    public Attributes nextMatch() {
+        if (cached != null) {
+            if (!cached.hasNext())
+                throw new NoSuchElementException();
+            return new Attributes(cached.next());
+        }
+
+        Attributes match = query.nextMatch();
+        if (collected != null) {
+            if (collected.size() < cache.getMaxMatches()) {
+                collected.add(new Attributes(match));
+                if (!query.hasMoreMatches())
+                    cache.put(key, collected, generation);
+            } else {
+                collected = null;
+            }
+        }
+        return match;
+    }
+
+    @Override
+    public void close() {
+        query.close();
+    }
+
+    @Override
+    public QueryContext getQueryContext() {
+        return query.getQueryContext();
+    }
+
+}
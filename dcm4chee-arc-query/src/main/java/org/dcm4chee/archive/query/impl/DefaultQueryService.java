@@ -38,8 +38,10 @@
 
 package org.dcm4chee.archive.query.impl;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.Map;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -62,9 +64,13 @@ import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.entity.SeriesQueryAttributes;
 import org.dcm4chee.archive.entity.StudyQueryAttributes;
+import org.dcm4chee.archive.query.DecodedAttributesCache;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.QueryFetchSize;
+import org.dcm4chee.archive.query.QueryResultCache;
 import org.dcm4chee.archive.query.QueryService;
+import org.dcm4chee.archive.query.ResourceVersion;
 import org.hibernate.Session;
 import org.hibernate.StatelessSession;
 import org.slf4j.Logger;
@@ -85,6 +91,15 @@ public class DefaultQueryService implements QueryService {
     @Inject
     QueryServiceEJB ejb;
 
+    @Inject
+    DecodedAttributesCache attributesCache;
+
+    @Inject
+    QueryResultCache queryResultCache;
+
+    @Inject
+    QueryFetchSize fetchSizes;
+
     StatelessSession openStatelessSession() {
         return em.unwrap(Session.class).getSessionFactory()
                 .openStatelessSession();
@@ -97,22 +112,27 @@ public class DefaultQueryService implements QueryService {
 
     @Override
     public Query createPatientQuery(QueryContext ctx) {
-        return new PatientQuery(ctx, openStatelessSession());
+        return new PatientQuery(ctx, openStatelessSession(), fetchSizes);
     }
 
     @Override
     public Query createStudyQuery(QueryContext ctx) {
-        return new StudyQuery(ctx, openStatelessSession());
+        Query query = new StudyQuery(ctx, openStatelessSession(), attributesCache,
+                fetchSizes);
+        return queryResultCache.isEnabled()
+                ? new CachedQuery(query, queryResultCache)
+                : query;
     }
 
     @Override
     public Query createSeriesQuery(QueryContext ctx) {
-        return new SeriesQuery(ctx, openStatelessSession());
+        return new SeriesQuery(ctx, openStatelessSession(), attributesCache,
+                fetchSizes);
     }
 
     @Override
     public Query createInstanceQuery(QueryContext ctx) {
-        return new InstanceQuery(ctx, openStatelessSession());
+        return new InstanceQuery(ctx, openStatelessSession(), fetchSizes);
     }
 
     @Override
@@ -228,4 +248,22 @@ public class DefaultQueryService implements QueryService {
         return ejb.calculateSeriesQueryAttributes(seriesPk, queryParam);
     }
 
+    @Override
+    public Map<Long, StudyQueryAttributes> createStudyViews(
+            Collection<Long> studyPks, QueryParam queryParam) {
+        return ejb.calculateStudyQueryAttributes(studyPks, queryParam);
+    }
+
+    @Override
+    public Map<Long, SeriesQueryAttributes> createSeriesViews(
+            Collection<Long> seriesPks, QueryParam queryParam) {
+        return ejb.calculateSeriesQueryAttributes(seriesPks, queryParam);
+    }
+
+    @Override
+    public ResourceVersion getResourceVersion(String studyIUID,
+            String seriesIUID, String sopIUID) {
+        return ejb.getResourceVersion(studyIUID, seriesIUID, sopIUID);
+    }
+
 }
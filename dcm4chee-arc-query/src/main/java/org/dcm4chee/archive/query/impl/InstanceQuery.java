@@ -39,14 +39,15 @@
 package org.dcm4chee.archive.query.impl;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.QInstance;
 import org.dcm4chee.archive.entity.QSeries;
 import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.QueryFetchSize;
 import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.dcm4chee.storage.conf.Availability;
-import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
 
 import com.mysema.query.BooleanBuilder;
@@ -69,8 +70,10 @@ class InstanceQuery extends AbstractQuery<Instance> {
     private Long seriesPk;
     private Attributes seriesAttrs;
 
-    public InstanceQuery(QueryContext context, StatelessSession session) {
-        super(context, session, QInstance.instance);
+    public InstanceQuery(QueryContext context, StatelessSession session,
+            QueryFetchSize fetchSizes) {
+        super(context, session, QInstance.instance, QueryRetrieveLevel.IMAGE,
+                fetchSizes);
     }
 
     @Override
@@ -115,18 +118,18 @@ class InstanceQuery extends AbstractQuery<Instance> {
     }
 
    @Override
-    public Attributes toAttributes(ScrollableResults results, QueryContext context) {
-        Long seriesPk = results.getLong(0);
-        String retrieveAETs = results.getString(1);
-        Availability availability = (Availability) results.get(2);
-        byte[] instByteAttributes = results.getBinary(3);
+    public Attributes toAttributes(Object[] row, QueryContext context) {
+        Long seriesPk = (Long) row[0];
+        String retrieveAETs = (String) row[1];
+        Availability availability = (Availability) row[2];
+        byte[] instByteAttributes = (byte[]) row[3];
         if (!seriesPk.equals(this.seriesPk)) {
             this.seriesAttrs = context.getQueryService()
                     .getSeriesAttributes(seriesPk, context);
             this.seriesPk = seriesPk;
         }
         Attributes instanceAttrs = new Attributes();
-        Utils.decodeAttributes(instanceAttrs, instByteAttributes);
+        Utils.decodeAttributes(instanceAttrs, instByteAttributes, selection);
         Attributes attrs = Utils.mergeAndNormalize(seriesAttrs, instanceAttrs);
         Utils.setRetrieveAET(attrs, retrieveAETs);
         Utils.setAvailability(attrs, availability);
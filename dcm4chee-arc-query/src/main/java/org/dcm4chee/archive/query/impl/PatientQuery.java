@@ -39,12 +39,13 @@
 package org.dcm4chee.archive.query.impl;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
 import org.dcm4chee.archive.entity.Patient;
 import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.QueryFetchSize;
 import org.dcm4chee.archive.query.util.QueryBuilder;
-import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
 
 import com.mysema.query.BooleanBuilder;
@@ -62,8 +63,10 @@ class PatientQuery extends AbstractQuery<Patient> {
         QueryBuilder.patientAttributesBlob.encodedAttributes
     };
 
-    public PatientQuery(QueryContext context, StatelessSession session) {
-        super(context, session, QPatient.patient);
+    public PatientQuery(QueryContext context, StatelessSession session,
+            QueryFetchSize fetchSizes) {
+        super(context, session, QPatient.patient, QueryRetrieveLevel.PATIENT,
+                fetchSizes);
     }
 
     @Override
@@ -89,9 +92,9 @@ class PatientQuery extends AbstractQuery<Patient> {
     }
 
     @Override
-    public Attributes toAttributes(ScrollableResults results, QueryContext context) {
+    public Attributes toAttributes(Object[] row, QueryContext context) {
         Attributes attrs = new Attributes();
-        Utils.decodeAttributes(attrs, results.getBinary(1));
+        Utils.decodeAttributes(attrs, (byte[]) row[1]);
         return attrs;
     }
 
@@ -71,6 +71,8 @@ public class QueryContextImpl implements QueryContext {
     private QueryParam queryParam;
 
     private Attributes keysOriginal;
+
+    private boolean returnAllAttributes;
     
     private TimeZone requestedTimeZone;
     
@@ -128,6 +130,16 @@ public class QueryContextImpl implements QueryContext {
         this.keysOriginal = new Attributes(keys);
     }
 
+    @Override
+    public boolean isReturnAllAttributes() {
+        return returnAllAttributes;
+    }
+
+    @Override
+    public void setReturnAllAttributes(boolean returnAllAttributes) {
+        this.returnAllAttributes = returnAllAttributes;
+    }
+
     @Override
     public Attributes getKeysOriginal() {
         return keysOriginal;
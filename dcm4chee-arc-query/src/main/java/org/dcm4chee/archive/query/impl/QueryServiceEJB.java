@@ -48,8 +48,10 @@ import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.entity.*;
 import org.dcm4chee.archive.query.DerivedSeriesFields;
+import org.dcm4chee.archive.query.DecodedAttributesCache;
 import org.dcm4chee.archive.query.DerivedStudyFields;
 import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.ResourceVersion;
 import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.dcm4chee.mysema.query.jpa.hibernate.DetachedHibernateQueryFactory;
 import org.hibernate.Session;
@@ -58,7 +60,10 @@ import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -80,7 +85,13 @@ public class QueryServiceEJB {
         QStudyQueryAttributes.studyQueryAttributes.lastUpdateTime,
         QueryBuilder.seriesAttributesBlob.encodedAttributes,
         QueryBuilder.studyAttributesBlob.encodedAttributes,
-        QueryBuilder.patientAttributesBlob.encodedAttributes
+        QueryBuilder.patientAttributesBlob.encodedAttributes,
+        QueryBuilder.seriesAttributesBlob.pk,
+        QSeries.series.version,
+        QueryBuilder.studyAttributesBlob.pk,
+        QStudy.study.version,
+        QueryBuilder.patientAttributesBlob.pk,
+        QPatient.patient.version
     };
 
     @PersistenceContext(unitName = "dcm4chee-arc")
@@ -95,6 +106,9 @@ public class QueryServiceEJB {
     @Inject
     DerivedSeriesFields seriesDerivedFields;
 
+    @Inject
+    DecodedAttributesCache attributesCache;
+
     public Attributes getSeriesAttributes(Long seriesPk, QueryContext context) {
         String viewID = context.getQueryParam().getQueryRetrieveView().getViewID();
         Tuple result = queryFactory.query(em.unwrap(Session.class))
@@ -165,9 +179,15 @@ public class QueryServiceEJB {
         Attributes patientAttrs = new Attributes();
         Attributes studyAttrs = new Attributes();
         Attributes seriesAttrs = new Attributes();
-        Utils.decodeAttributes(patientAttrs, patientBytes);
-        Utils.decodeAttributes(studyAttrs, studyBytes);
-        Utils.decodeAttributes(seriesAttrs, seriesBytes);
+        attributesCache.decodeAttributes(patientAttrs,
+                result.get(QueryBuilder.patientAttributesBlob.pk),
+                result.get(QPatient.patient.version), patientBytes);
+        attributesCache.decodeAttributes(studyAttrs,
+                result.get(QueryBuilder.studyAttributesBlob.pk),
+                result.get(QStudy.study.version), studyBytes);
+        attributesCache.decodeAttributes(seriesAttrs,
+                result.get(QueryBuilder.seriesAttributesBlob.pk),
+                result.get(QSeries.series.version), seriesBytes);
         Attributes attrs = Utils.mergeAndNormalize(patientAttrs, studyAttrs, seriesAttrs);
         ArchiveDeviceExtension ade = context.getArchiveAEExtension()
                 .getApplicationEntity().getDevice().getDeviceExtension
@@ -201,7 +221,6 @@ public class QueryServiceEJB {
     public StudyQueryAttributes calculateStudyQueryAttributes(
             Long studyPk, QueryParam queryParam) {
 
-        Study study = em.getReference(Study.class, studyPk);
         try (
             CloseableIterator<Tuple> results = queryFactory.query(
                     em.unwrap(Session.class))
@@ -215,6 +234,62 @@ public class QueryServiceEJB {
                 studyDerivedFields.addInstance(results.next(), queryParam);
             }
         }
+        return persistStudyQueryAttributes(studyPk, queryParam);
+    }
+
+    /**
+     * Calculates the query attributes of all specified Studies by one query
+     * over their instances, sorted by Study. Instances are passed to
+     * {@link DerivedStudyFields} as by
+     * {@link #calculateStudyQueryAttributes(Long, QueryParam)}, so
+     * decorators of the derived fields apply unchanged.
+     */
+    public Map<Long, StudyQueryAttributes> calculateStudyQueryAttributes(
+            Collection<Long> studyPks, QueryParam queryParam) {
+        Map<Long, StudyQueryAttributes> views =
+                new HashMap<Long, StudyQueryAttributes>(studyPks.size() * 2);
+        if (studyPks.isEmpty())
+            return views;
+
+        try (
+            CloseableIterator<Tuple> results = queryFactory.query(
+                    em.unwrap(Session.class))
+                .from(QInstance.instance)
+                .innerJoin(QInstance.instance.series, QSeries.series)
+                .where(createPredicate(
+                        QSeries.series.study.pk.in(studyPks), queryParam))
+                .orderBy(QSeries.series.study.pk.asc())
+                .iterate(withPk(QSeries.series.study.pk,
+                        studyDerivedFields.fields()))) {
+            Long studyPk = null;
+            while (results.hasNext()) {
+                Tuple result = results.next();
+                Long pk = result.get(QSeries.series.study.pk);
+                if (!pk.equals(studyPk)) {
+                    if (studyPk != null)
+                        views.put(studyPk,
+                                persistStudyQueryAttributes(studyPk, queryParam));
+                    studyDerivedFields.reset();
+                    studyPk = pk;
+                }
+                studyDerivedFields.addInstance(result, queryParam);
+            }
+            if (studyPk != null)
+                views.put(studyPk,
+                        persistStudyQueryAttributes(studyPk, queryParam));
+        }
+        for (Long studyPk : studyPks)
+            if (!views.containsKey(studyPk)) {
+                studyDerivedFields.reset();
+                views.put(studyPk,
+                        persistStudyQueryAttributes(studyPk, queryParam));
+            }
+        return views;
+    }
+
+    private StudyQueryAttributes persistStudyQueryAttributes(Long studyPk,
+            QueryParam queryParam) {
+        Study study = em.getReference(Study.class, studyPk);
         StudyQueryAttributes queryAttrs = new StudyQueryAttributes();
         queryAttrs.setViewID(queryParam.getQueryRetrieveView().getViewID());
         queryAttrs.setStudy(study);
@@ -237,7 +312,6 @@ public class QueryServiceEJB {
 
     public SeriesQueryAttributes calculateSeriesQueryAttributes(
             Long seriesPk, QueryParam queryParam) {
-        Series series = em.getReference(Series.class, seriesPk);
         try (
             CloseableIterator<Tuple> results = queryFactory.query(
                     em.unwrap(Session.class))
@@ -251,6 +325,61 @@ public class QueryServiceEJB {
                 seriesDerivedFields.addInstance(results.next(), queryParam);
             }
         }
+        return persistSeriesQueryAttributes(seriesPk, queryParam);
+    }
+
+    /**
+     * Calculates the query attributes of all specified Series by one query
+     * over their instances, sorted by Series. Instances are passed to
+     * {@link DerivedSeriesFields} as by
+     * {@link #calculateSeriesQueryAttributes(Long, QueryParam)}, so
+     * decorators of the derived fields apply unchanged.
+     */
+    public Map<Long, SeriesQueryAttributes> calculateSeriesQueryAttributes(
+            Collection<Long> seriesPks, QueryParam queryParam) {
+        Map<Long, SeriesQueryAttributes> views =
+                new HashMap<Long, SeriesQueryAttributes>(seriesPks.size() * 2);
+        if (seriesPks.isEmpty())
+            return views;
+
+        try (
+            CloseableIterator<Tuple> results = queryFactory.query(
+                    em.unwrap(Session.class))
+                .from(QInstance.instance)
+                .where(createPredicate(
+                        QInstance.instance.series.pk.in(seriesPks), queryParam))
+                .orderBy(QInstance.instance.series.pk.asc())
+                .iterate(withPk(QInstance.instance.series.pk,
+                        seriesDerivedFields.fields()))) {
+            Long seriesPk = null;
+            while (results.hasNext()) {
+                Tuple result = results.next();
+                Long pk = result.get(QInstance.instance.series.pk);
+                if (!pk.equals(seriesPk)) {
+                    if (seriesPk != null)
+                        views.put(seriesPk,
+                                persistSeriesQueryAttributes(seriesPk, queryParam));
+                    seriesDerivedFields.reset();
+                    seriesPk = pk;
+                }
+                seriesDerivedFields.addInstance(result, queryParam);
+            }
+            if (seriesPk != null)
+                views.put(seriesPk,
+                        persistSeriesQueryAttributes(seriesPk, queryParam));
+        }
+        for (Long seriesPk : seriesPks)
+            if (!views.containsKey(seriesPk)) {
+                seriesDerivedFields.reset();
+                views.put(seriesPk,
+                        persistSeriesQueryAttributes(seriesPk, queryParam));
+            }
+        return views;
+    }
+
+    private SeriesQueryAttributes persistSeriesQueryAttributes(Long seriesPk,
+            QueryParam queryParam) {
+        Series series = em.getReference(Series.class, seriesPk);
         SeriesQueryAttributes queryAttrs = new SeriesQueryAttributes();
         queryAttrs.setSeries(series);
         queryAttrs.setViewID(queryParam.getQueryRetrieveView().getViewID());
@@ -265,4 +394,66 @@ public class QueryServiceEJB {
         return queryAttrs;
     }
 
+    public ResourceVersion getResourceVersion(String studyIUID,
+            String seriesIUID, String sopIUID) {
+        BooleanBuilder builder = new BooleanBuilder(
+                QStudy.study.studyInstanceUID.eq(studyIUID));
+        if (seriesIUID != null)
+            builder.and(QSeries.series.seriesInstanceUID.eq(seriesIUID));
+        if (sopIUID != null)
+            builder.and(QInstance.instance.sopInstanceUID.eq(sopIUID));
+
+        Tuple result = queryFactory.query(em.unwrap(Session.class))
+            .from(QInstance.instance)
+            .join(QInstance.instance.series, QSeries.series)
+            .join(QSeries.series.study, QStudy.study)
+            .join(QStudy.study.patient, QPatient.patient)
+            .where(builder)
+            .singleResult(
+                QInstance.instance.count(),
+                QInstance.instance.updatedTime.max(),
+                QSeries.series.updatedTime.max(),
+                QStudy.study.updatedTime.max(),
+                QPatient.patient.updatedTime.max(),
+                QInstance.instance.version.sum(),
+                QSeries.series.version.sum(),
+                QStudy.study.version.max(),
+                QPatient.patient.version.max());
+
+        Long numberOfInstances = result != null
+                ? result.get(QInstance.instance.count()) : null;
+        if (numberOfInstances == null || numberOfInstances == 0)
+            return null;
+
+        Date lastModified = latest(
+                result.get(QInstance.instance.updatedTime.max()),
+                result.get(QSeries.series.updatedTime.max()),
+                result.get(QStudy.study.updatedTime.max()),
+                result.get(QPatient.patient.updatedTime.max()));
+        long versionSum = longValue(result.get(QInstance.instance.version.sum()))
+                + longValue(result.get(QSeries.series.version.sum()))
+                + longValue(result.get(QStudy.study.version.max()))
+                + longValue(result.get(QPatient.patient.version.max()));
+        return new ResourceVersion(numberOfInstances, lastModified, versionSum);
+    }
+
+    private static Expression<?>[] withPk(Expression<?> pk,
+            Expression<?>[] fields) {
+        Expression<?>[] result = new Expression<?>[fields.length + 1];
+        result[0] = pk;
+        System.arraycopy(fields, 0, result, 1, fields.length);
+        return result;
+    }
+
+    private static Date latest(Date... dates) {
+        Date latest = new Date(0L);
+        for (Date date : dates)
+            if (date != null && date.after(latest))
+                latest = date;
+        return latest;
+    }
+
+    private static long longValue(Number value) {
+        return value != null ? value.longValue() : 0L;
+    }
 }
@@ -39,8 +39,10 @@
 package org.dcm4chee.archive.query.impl;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.PrivateTag;
+import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QSeries;
 import org.dcm4chee.archive.entity.QSeriesQueryAttributes;
 import org.dcm4chee.archive.entity.QStudy;
@@ -49,10 +51,12 @@ import org.dcm4chee.archive.entity.Series;
 import org.dcm4chee.archive.entity.SeriesQueryAttributes;
 import org.dcm4chee.archive.entity.StudyQueryAttributes;
 import org.dcm4chee.archive.entity.Utils;
+import org.dcm4chee.archive.query.DecodedAttributesCache;
 import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.QueryFetchSize;
+import org.dcm4chee.archive.query.util.ColumnProjection;
 import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.dcm4chee.storage.conf.Availability;
-import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
 
 import com.mysema.query.BooleanBuilder;
@@ -60,7 +64,13 @@ import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.Predicate;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -83,32 +93,65 @@ class SeriesQuery extends AbstractQuery<Series> {
         QSeriesQueryAttributes.seriesQueryAttributes.lastUpdateTime,     // (12)
         QueryBuilder.seriesAttributesBlob.encodedAttributes,             // (13)
         QueryBuilder.studyAttributesBlob.encodedAttributes,              // (14)
-        QueryBuilder.patientAttributesBlob.encodedAttributes             // (15)
+        QueryBuilder.patientAttributesBlob.encodedAttributes,            // (15)
+        QueryBuilder.studyAttributesBlob.pk,                             // (16)
+        QStudy.study.version,                                            // (17)
+        QueryBuilder.patientAttributesBlob.pk,                           // (18)
+        QPatient.patient.version,                                        // (19)
+        QueryBuilder.seriesAttributesBlob.pk,                            // (20)
+        QSeries.series.version                                           // (21)
     };
 
+    /**
+     * Number of columns selected from the query attributes views, followed
+     * by the columns of the {@link ColumnProjection}, if it is complete.
+     * Otherwise its columns follow all columns of {@link #SELECT}.
+     */
+    private static final int VIEW_COLUMNS = 13;
+
+    private static final Expression<?>[] VIEW_SELECT =
+            Arrays.copyOf(SELECT, VIEW_COLUMNS);
+
+    private final DecodedAttributesCache attributesCache;
     private Long studyPk;
     private Attributes studyAttrs;
+    private Map<Long, SeriesQueryAttributes> seriesViews = Collections.emptyMap();
+    private Map<Long, StudyQueryAttributes> studyViews = Collections.emptyMap();
+    private ColumnProjection projection;
 
-    public SeriesQuery(QueryContext context, StatelessSession session) {
-        super(context, session, QSeries.series);
+    public SeriesQuery(QueryContext context, StatelessSession session,
+            DecodedAttributesCache attributesCache, QueryFetchSize fetchSizes) {
+        super(context, session, QSeries.series, QueryRetrieveLevel.SERIES,
+                fetchSizes);
+        this.attributesCache = attributesCache;
     }
 
     @Override
     protected Expression<?>[] select() {
-        return SELECT;
+        if (projection == null)
+            return SELECT;
+
+        return projection.select(
+                projection.isComplete() ? VIEW_SELECT : SELECT);
     }
 
     @Override
     protected HibernateQuery applyJoins(HibernateQuery query) {
+        projection = columnProjection(QueryRetrieveLevel.SERIES);
+        boolean joinAttributesBlobs = projection == null
+                || !projection.isComplete();
         query = QueryBuilder.applySeriesLevelJoins(query,
                 context.getKeys(),
-                context.getQueryParam());
+                context.getQueryParam(),
+                joinAttributesBlobs);
         query = QueryBuilder.applyStudyLevelJoins(query,
                 context.getKeys(),
-                context.getQueryParam());
+                context.getQueryParam(),
+                joinAttributesBlobs);
         query = QueryBuilder.applyPatientLevelJoins(query,
                 context.getKeys(),
-                context.getQueryParam());
+                context.getQueryParam(),
+                joinAttributesBlobs);
         return query;
     }
 
@@ -129,10 +172,30 @@ class SeriesQuery extends AbstractQuery<Series> {
     }
 
     @Override
-    public Attributes toAttributes(ScrollableResults results, QueryContext context) {
-        Long studyPk = results.getLong(0);
-        Long seriesPk = results.getLong(1);
-        Integer numberOfInstancesI = results.getInteger(2);
+    protected void prepare(List<Object[]> rows) {
+        Set<Long> seriesPks = new LinkedHashSet<Long>();
+        Set<Long> studyPks = new LinkedHashSet<Long>();
+        for (Object[] row : rows) {
+            if (row[2] == null)
+                seriesPks.add((Long) row[1]);
+            if (row[3] == null)
+                studyPks.add((Long) row[0]);
+        }
+        seriesViews = seriesPks.isEmpty()
+                ? Collections.<Long, SeriesQueryAttributes>emptyMap()
+                : context.getQueryService().createSeriesViews(seriesPks,
+                        context.getQueryParam());
+        studyViews = studyPks.isEmpty()
+                ? Collections.<Long, StudyQueryAttributes>emptyMap()
+                : context.getQueryService().createStudyViews(studyPks,
+                        context.getQueryParam());
+    }
+
+    @Override
+    public Attributes toAttributes(Object[] row, QueryContext context) {
+        Long studyPk = (Long) row[0];
+        Long seriesPk = (Long) row[1];
+        Integer numberOfInstancesI = (Integer) row[2];
         int numberOfSeriesRelatedInstances;
         String retrieveAETs;
         Availability availability;
@@ -142,13 +205,15 @@ class SeriesQuery extends AbstractQuery<Series> {
             numberOfSeriesRelatedInstances = numberOfInstancesI;
             if (numberOfSeriesRelatedInstances == 0)
                 return null;
-            retrieveAETs = results.getString(9);
-            availability = (Availability) results.get(10);
-            numberOfSeriesVisibleInstances = results.getInteger(11);
-            seriesLastUpdateTime = results.getDate(12);
+            retrieveAETs = (String) row[9];
+            availability = (Availability) row[10];
+            numberOfSeriesVisibleInstances = (Integer) row[11];
+            seriesLastUpdateTime = (Date) row[12];
         } else {
-            SeriesQueryAttributes seriesView = context.getQueryService()
-                    .createSeriesView(seriesPk,  context.getQueryParam());
+            SeriesQueryAttributes seriesView = seriesViews.get(seriesPk);
+            if (seriesView == null)
+                seriesView = context.getQueryService()
+                        .createSeriesView(seriesPk,  context.getQueryParam());
             numberOfSeriesRelatedInstances = seriesView.getNumberOfInstances();
             if (numberOfSeriesRelatedInstances == 0)
                 return null;
@@ -158,13 +223,21 @@ class SeriesQuery extends AbstractQuery<Series> {
             seriesLastUpdateTime = seriesView.getLastUpdateTime();
         }
 
-        byte[] seriesAttributes = results.getBinary(13);
         if (!studyPk.equals(this.studyPk)) {
-            this.studyAttrs = toStudyAttributes(studyPk, results, context);
+            this.studyAttrs = toStudyAttributes(studyPk, row, context);
             this.studyPk = studyPk;
         }
-        Attributes seriesAttrs = new Attributes();
-        Utils.decodeAttributes(seriesAttrs, seriesAttributes);
+        Attributes seriesAttrs;
+        if (projection != null && projection.isComplete()) {
+            seriesAttrs = projection.toAttributes(row, VIEW_COLUMNS);
+        } else {
+            seriesAttrs = new Attributes();
+            attributesCache.decodeAttributes(seriesAttrs, (Long) row[20],
+                    (Long) row[21], (byte[]) row[13], selection);
+            if (projection != null)
+                seriesAttrs = Utils.mergeAndNormalize(seriesAttrs,
+                        projection.toAttributes(row, SELECT.length));
+        }
         Attributes attrs = Utils.mergeAndNormalize(studyAttrs, seriesAttrs);
         ArchiveDeviceExtension ade = context.getArchiveAEExtension()
                 .getApplicationEntity().getDevice().getDeviceExtension
@@ -180,9 +253,9 @@ class SeriesQuery extends AbstractQuery<Series> {
         return attrs;
     }
 
-    private Attributes toStudyAttributes(Long studyPk, ScrollableResults
-            results, QueryContext context) {
-        Integer numberOfInstancesI = results.getInteger(3);
+    private Attributes toStudyAttributes(Long studyPk, Object[] row,
+            QueryContext context) {
+        Integer numberOfInstancesI = (Integer) row[3];
         int numberOfStudyRelatedInstances;
         int numberOfStudyRelatedSeries;
         String modalitiesInStudy;
@@ -191,14 +264,16 @@ class SeriesQuery extends AbstractQuery<Series> {
         Date studyLastUpdateTime;
         if (numberOfInstancesI != null) {
             numberOfStudyRelatedInstances = numberOfInstancesI;
-            numberOfStudyRelatedSeries = results.getInteger(4);
-            modalitiesInStudy = results.getString(5);
-            sopClassesInStudy = results.getString(6);
-            numberOfStudyVisibleInstances = results.getInteger(7);
-            studyLastUpdateTime = results.getDate(8);
+            numberOfStudyRelatedSeries = (Integer) row[4];
+            modalitiesInStudy = (String) row[5];
+            sopClassesInStudy = (String) row[6];
+            numberOfStudyVisibleInstances = (Integer) row[7];
+            studyLastUpdateTime = (Date) row[8];
         } else {
-            StudyQueryAttributes studyView = context.getQueryService()
-                    .createStudyView(studyPk,  context.getQueryParam());
+            StudyQueryAttributes studyView = studyViews.get(studyPk);
+            if (studyView == null)
+                studyView = context.getQueryService()
+                        .createStudyView(studyPk,  context.getQueryParam());
             numberOfStudyRelatedInstances = studyView.getNumberOfInstances();
             numberOfStudyRelatedSeries = studyView.getNumberOfSeries();
             modalitiesInStudy = studyView.getRawModalitiesInStudy();
@@ -207,13 +282,21 @@ class SeriesQuery extends AbstractQuery<Series> {
             studyLastUpdateTime = studyView.getLastUpdateTime();
         }
 
-        byte[] studyByteAttributes = results.getBinary(14);
-        byte[] patientByteAttributes = results.getBinary(15);
-        Attributes patientAttrs = new Attributes();
-        Attributes studyAttrs = new Attributes();
-        Utils.decodeAttributes(patientAttrs, patientByteAttributes);
-        Utils.decodeAttributes(studyAttrs, studyByteAttributes);
-        Attributes attrs = Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+        Attributes attrs;
+        if (projection != null && projection.isComplete()) {
+            // patient and study columns are selected with the series columns
+            attrs = new Attributes();
+        } else {
+            byte[] studyByteAttributes = (byte[]) row[14];
+            byte[] patientByteAttributes = (byte[]) row[15];
+            Attributes patientAttrs = new Attributes();
+            Attributes studyAttrs = new Attributes();
+            attributesCache.decodeAttributes(patientAttrs, (Long) row[18],
+                    (Long) row[19], patientByteAttributes, selection);
+            attributesCache.decodeAttributes(studyAttrs, (Long) row[16],
+                    (Long) row[17], studyByteAttributes, selection);
+            attrs = Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+        }
         ArchiveDeviceExtension ade = context.getArchiveAEExtension()
                 .getApplicationEntity().getDevice().getDeviceExtension
                         (ArchiveDeviceExtension.class);
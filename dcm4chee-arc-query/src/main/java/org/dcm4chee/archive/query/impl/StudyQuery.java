@@ -39,17 +39,21 @@
 package org.dcm4chee.archive.query.impl;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.service.QueryRetrieveLevel;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.PrivateTag;
+import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.QStudyQueryAttributes;
 import org.dcm4chee.archive.entity.Study;
 import org.dcm4chee.archive.entity.StudyQueryAttributes;
 import org.dcm4chee.archive.entity.Utils;
+import org.dcm4chee.archive.query.DecodedAttributesCache;
 import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.QueryFetchSize;
+import org.dcm4chee.archive.query.util.ColumnProjection;
 import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.dcm4chee.storage.conf.Availability;
-import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
 
 import com.mysema.query.BooleanBuilder;
@@ -57,7 +61,12 @@ import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.Predicate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -75,26 +84,56 @@ class StudyQuery extends AbstractQuery<Study> {
         QStudyQueryAttributes.studyQueryAttributes.numberOfVisibleInstances,// (7)
         QStudyQueryAttributes.studyQueryAttributes.lastUpdateTime,       // (8)
         QueryBuilder.studyAttributesBlob.encodedAttributes,              // (9)
-        QueryBuilder.patientAttributesBlob.encodedAttributes             // (10)
+        QueryBuilder.patientAttributesBlob.encodedAttributes,            // (10)
+        QueryBuilder.studyAttributesBlob.pk,                             // (11)
+        QStudy.study.version,                                            // (12)
+        QueryBuilder.patientAttributesBlob.pk,                           // (13)
+        QPatient.patient.version                                         // (14)
     };
 
-    public StudyQuery(QueryContext context, StatelessSession session) {
-        super(context, session, QStudy.study);
+    /**
+     * Number of columns selected from the query attributes view, followed
+     * by the columns of the {@link ColumnProjection}, if it is complete.
+     * Otherwise its columns follow all columns of {@link #SELECT}.
+     */
+    private static final int VIEW_COLUMNS = 9;
+
+    private static final Expression<?>[] VIEW_SELECT =
+            Arrays.copyOf(SELECT, VIEW_COLUMNS);
+
+    private final DecodedAttributesCache attributesCache;
+    private Map<Long, StudyQueryAttributes> studyViews = Collections.emptyMap();
+    private ColumnProjection projection;
+
+    public StudyQuery(QueryContext context, StatelessSession session,
+            DecodedAttributesCache attributesCache, QueryFetchSize fetchSizes) {
+        super(context, session, QStudy.study, QueryRetrieveLevel.STUDY,
+                fetchSizes);
+        this.attributesCache = attributesCache;
     }
 
     @Override
     protected Expression<?>[] select() {
-        return SELECT;
+        if (projection == null)
+            return SELECT;
+
+        return projection.select(
+                projection.isComplete() ? VIEW_SELECT : SELECT);
     }
 
     @Override
     protected HibernateQuery applyJoins(HibernateQuery query) {
+        projection = columnProjection(QueryRetrieveLevel.STUDY);
+        boolean joinAttributesBlobs = projection == null
+                || !projection.isComplete();
         query = QueryBuilder.applyStudyLevelJoins(query,
                 context.getKeys(),
-                context.getQueryParam());
+                context.getQueryParam(),
+                joinAttributesBlobs);
         query = QueryBuilder.applyPatientLevelJoins(query,
                 context.getKeys(),
-                context.getQueryParam());
+                context.getQueryParam(),
+                joinAttributesBlobs);
         return query;
     }
 
@@ -112,9 +151,21 @@ class StudyQuery extends AbstractQuery<Study> {
     }
 
     @Override
-    public Attributes toAttributes(ScrollableResults results, QueryContext context) {
-        Long studyPk = results.getLong(0);
-        Integer numberOfInstancesI = results.getInteger(1);
+    protected void prepare(List<Object[]> rows) {
+        List<Long> studyPks = new ArrayList<Long>();
+        for (Object[] row : rows)
+            if (row[1] == null)
+                studyPks.add((Long) row[0]);
+        studyViews = studyPks.isEmpty()
+                ? Collections.<Long, StudyQueryAttributes>emptyMap()
+                : context.getQueryService().createStudyViews(studyPks,
+                        context.getQueryParam());
+    }
+
+    @Override
+    public Attributes toAttributes(Object[] row, QueryContext context) {
+        Long studyPk = (Long) row[0];
+        Integer numberOfInstancesI = (Integer) row[1];
         int numberOfStudyRelatedInstances;
         int numberOfStudyRelatedSeries;
         String modalitiesInStudy;
@@ -128,16 +179,18 @@ class StudyQuery extends AbstractQuery<Study> {
             if (numberOfStudyRelatedInstances == 0)
                 return null;
 
-            numberOfStudyRelatedSeries = results.getInteger(2);
-            modalitiesInStudy = results.getString(3);
-            sopClassesInStudy = results.getString(4);
-            retrieveAETs = results.getString(5);
-            availability = (Availability) results.get(6);
-            numberOfStudyVisibleInstances = results.getInteger(7);
-            studyLastUpdateTime = results.getDate(8);
+            numberOfStudyRelatedSeries = (Integer) row[2];
+            modalitiesInStudy = (String) row[3];
+            sopClassesInStudy = (String) row[4];
+            retrieveAETs = (String) row[5];
+            availability = (Availability) row[6];
+            numberOfStudyVisibleInstances = (Integer) row[7];
+            studyLastUpdateTime = (Date) row[8];
         } else {
-            StudyQueryAttributes studyView = context.getQueryService()
-                    .createStudyView(studyPk,  context.getQueryParam());
+            StudyQueryAttributes studyView = studyViews.get(studyPk);
+            if (studyView == null)
+                studyView = context.getQueryService()
+                        .createStudyView(studyPk,  context.getQueryParam());
             numberOfStudyRelatedInstances = studyView.getNumberOfInstances();
             if (numberOfStudyRelatedInstances == 0)
                 return null;
@@ -151,13 +204,23 @@ class StudyQuery extends AbstractQuery<Study> {
             studyLastUpdateTime = studyView.getLastUpdateTime();
         }
 
-        byte[] studyByteAttributes = results.getBinary(9);
-        byte[] patientByteAttributes = results.getBinary(10);
-        Attributes patientAttrs = new Attributes();
-        Attributes studyAttrs = new Attributes();
-        Utils.decodeAttributes(patientAttrs, patientByteAttributes);
-        Utils.decodeAttributes(studyAttrs, studyByteAttributes);
-        Attributes attrs = Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+        Attributes attrs;
+        if (projection != null && projection.isComplete()) {
+            attrs = projection.toAttributes(row, VIEW_COLUMNS);
+        } else {
+            byte[] studyByteAttributes = (byte[]) row[9];
+            byte[] patientByteAttributes = (byte[]) row[10];
+            Attributes patientAttrs = new Attributes();
+            Attributes studyAttrs = new Attributes();
+            attributesCache.decodeAttributes(patientAttrs, (Long) row[13],
+                    (Long) row[14], patientByteAttributes, selection);
+            attributesCache.decodeAttributes(studyAttrs, (Long) row[11],
+                    (Long) row[12], studyByteAttributes, selection);
+            attrs = projection != null
+                    ? Utils.mergeAndNormalize(patientAttrs, studyAttrs,
+                            projection.toAttributes(row, SELECT.length))
+                    : Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+        }
         ArchiveDeviceExtension ade = context.getArchiveAEExtension()
                 .getApplicationEntity().getDevice().getDeviceExtension
                         (ArchiveDeviceExtension.class);
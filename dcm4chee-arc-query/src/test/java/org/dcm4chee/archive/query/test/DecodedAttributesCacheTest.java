@@ -0,0 +1,124 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query.test;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.entity.Utils;
+import org.dcm4chee.archive.query.DecodedAttributesCache;
+import org.easymock.EasyMock;
+import org.easymock.EasyMockRule;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.easymock.MockType;
+import org.easymock.TestSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DecodedAttributesCacheTest extends EasyMockSupport {
+
+    @Rule
+    public EasyMockRule mocks = new EasyMockRule(this);
+
+    @TestSubject
+    private DecodedAttributesCache cache = new DecodedAttributesCache();
+
+    @Mock(type = MockType.NICE)
+    private Device mockDevice;
+
+    private final ArchiveDeviceExtension devExt = new ArchiveDeviceExtension();
+
+    @Before
+    public void setUp() {
+        devExt.setDecodedAttributesCacheSize(2);
+        EasyMock.expect(mockDevice.getDeviceExtension(ArchiveDeviceExtension.class))
+                .andReturn(devExt).anyTimes();
+        replayAll();
+    }
+
+    @Test
+    public void decodeAttributes_sameVersion_returnsCachedCopy() {
+        byte[] encoded = encode("DOE^JOHN");
+        Attributes attrs1 = new Attributes();
+        Attributes attrs2 = new Attributes();
+        cache.decodeAttributes(attrs1, 1L, 0L, encoded);
+        cache.decodeAttributes(attrs2, 1L, 0L, encoded);
+
+        Assert.assertEquals("DOE^JOHN", attrs2.getString(Tag.PatientName));
+        Assert.assertEquals(1, cache.size());
+        attrs1.setString(Tag.PatientName, VR.PN, "CHANGED");
+        Attributes attrs3 = new Attributes();
+        cache.decodeAttributes(attrs3, 1L, 0L, encoded);
+        Assert.assertEquals("DOE^JOHN", attrs3.getString(Tag.PatientName));
+    }
+
+    @Test
+    public void decodeAttributes_changedBlob_decodesAgain() {
+        cache.decodeAttributes(new Attributes(), 1L, 0L, encode("DOE^JOHN"));
+        Attributes attrs = new Attributes();
+        cache.decodeAttributes(attrs, 1L, 1L, encode("DOE^JANE"));
+
+        Assert.assertEquals("DOE^JANE", attrs.getString(Tag.PatientName));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void decodeAttributes_exceedsMaxSize_evictsLeastRecentlyUsed() {
+        cache.decodeAttributes(new Attributes(), 1L, 0L, encode("A"));
+        cache.decodeAttributes(new Attributes(), 2L, 0L, encode("B"));
+        cache.decodeAttributes(new Attributes(), 3L, 0L, encode("C"));
+
+        Assert.assertEquals(2, cache.size());
+        cache.invalidate(2L);
+        Assert.assertEquals(1, cache.size());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private static byte[] encode(String patientName) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.PatientName, VR.PN, patientName);
+        return Utils.encodeAttributes(attrs);
+    }
+}
@@ -0,0 +1,157 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.query.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.QueryResultCache;
+import org.easymock.EasyMock;
+import org.easymock.EasyMockRule;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.easymock.MockType;
+import org.easymock.TestSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.mysema.query.types.OrderSpecifier;
+
+public class QueryResultCacheTest extends EasyMockSupport {
+
+    private static final List<OrderSpecifier<?>> NO_ORDER =
+            Collections.emptyList();
+
+    @Rule
+    public EasyMockRule mocks = new EasyMockRule(this);
+
+    @TestSubject
+    private QueryResultCache cache = new QueryResultCache();
+
+    @Mock(type = MockType.NICE)
+    private Device mockDevice;
+
+    private final ArchiveDeviceExtension devExt = new ArchiveDeviceExtension();
+
+    @Before
+    public void setUp() {
+        devExt.setQueryResultCacheTTL(60);
+        devExt.setQueryResultCacheSize(2);
+        EasyMock.expect(mockDevice.getDeviceExtension(ArchiveDeviceExtension.class))
+                .andReturn(devExt).anyTimes();
+        replayAll();
+    }
+
+    @Test
+    public void get_sameKeys_returnsCachedMatches() {
+        QueryResultCache.Key key = keyOf("CT", null);
+        cache.put(key, matches("1.2.3"), cache.getGeneration());
+
+        Assert.assertTrue(cache.isEnabled());
+        Assert.assertEquals(key, keyOf("CT", null));
+        Assert.assertEquals(1, cache.get(keyOf("CT", null)).size());
+        Assert.assertNull(cache.get(keyOf("MR", null)));
+        Assert.assertNull(cache.get(keyOf("CT", 10L)));
+    }
+
+    @Test
+    public void invalidate_containedStudy_removesEntry() {
+        cache.put(keyOf("CT", null), matches("1.2.3"), cache.getGeneration());
+        cache.put(keyOf("MR", null), matches("1.2.4"), cache.getGeneration());
+
+        cache.invalidate(Arrays.asList("1.2.3"));
+        Assert.assertNull(cache.get(keyOf("CT", null)));
+        Assert.assertNotNull(cache.get(keyOf("MR", null)));
+        cache.onNewStudy("1.2.5");
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_invalidatedAfterExecute_isNotCached() {
+        long generation = cache.getGeneration();
+        // store of study 1.2.3 committed while the query is running
+        cache.invalidate(Arrays.asList("1.2.3"));
+        cache.put(keyOf("CT", null), matches("1.2.4"), generation);
+
+        Assert.assertNull(cache.get(keyOf("CT", null)));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_exceedsMaxSize_evictsLeastRecentlyUsed() {
+        cache.put(keyOf("CT", null), matches("1.2.3"), cache.getGeneration());
+        cache.put(keyOf("MR", null), matches("1.2.4"), cache.getGeneration());
+        cache.put(keyOf("US", null), matches("1.2.5"), cache.getGeneration());
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get(keyOf("CT", null)));
+    }
+
+    private QueryResultCache.Key keyOf(String modality, Long limit) {
+        ApplicationEntity ae = new ApplicationEntity("ARCHIVE");
+        ArchiveAEExtension arcAE = new ArchiveAEExtension();
+        ae.addAEExtension(arcAE);
+        Attributes keys = new Attributes();
+        keys.setString(Tag.ModalitiesInStudy, VR.CS, modality);
+        QueryContext ctx = EasyMock.createNiceMock(QueryContext.class);
+        EasyMock.expect(ctx.getArchiveAEExtension()).andReturn(arcAE).anyTimes();
+        EasyMock.expect(ctx.getKeys()).andReturn(keys).anyTimes();
+        EasyMock.expect(ctx.getQueryParam()).andReturn(new QueryParam()).anyTimes();
+        EasyMock.replay(ctx);
+        return QueryResultCache.keyOf(ctx, limit, null, NO_ORDER);
+    }
+
+    private static List<Attributes> matches(String studyIUID) {
+        Attributes match = new Attributes();
+        match.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        return Collections.singletonList(match);
+    }
+}
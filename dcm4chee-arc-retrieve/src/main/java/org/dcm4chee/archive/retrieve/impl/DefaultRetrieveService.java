@@ -89,6 +89,7 @@ public class DefaultRetrieveService implements RetrieveService {
         QLocation.location.storageSystemGroupID,
         QLocation.location.storageSystemID,
         QLocation.location.withoutBulkData,
+        QLocation.location.frameIndex,
         QSeries.series.pk,
         QInstance.instance.pk,
         QInstance.instance.sopClassUID,
@@ -252,6 +253,7 @@ public class DefaultRetrieveService implements RetrieveService {
                 .withoutBulkdata(withoutBulkData)
                 .seriesInstanceUID(seriesInstanceUID)
                 .studyInstanceUID(studyInstanceUID)
+                .frameIndex(tuple.get(QLocation.location.frameIndex))
                 .externalLocators(new ArrayList<ExternalLocationTuple>())
                 .build();
         if (locator == null) {
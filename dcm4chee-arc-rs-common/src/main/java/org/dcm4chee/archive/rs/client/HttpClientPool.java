@@ -0,0 +1,185 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.rs.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Shared HTTP client used by the WADO-RS, QIDO-RS and STOW-RS clients.
+ *
+ * Connections are kept alive by the JDK keep-alive cache as long as the
+ * response body is fully consumed and the connection is not disconnected,
+ * which {@link PooledConnection#close()} takes care of. The number of
+ * concurrently open connections is limited per host (and port).
+ *
+ */
+public class HttpClientPool {
+
+    public static final int DEF_MAX_CONNECTIONS_PER_HOST = 5;
+
+    public static final int DEF_CHUNK_LENGTH = 8192;
+
+    private static final HttpClientPool DEFAULT = new HttpClientPool(
+            DEF_MAX_CONNECTIONS_PER_HOST, 0, 0);
+
+    private final int maxConnectionsPerHost;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final ConcurrentMap<String, Semaphore> permits =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * @param maxConnectionsPerHost
+     *            maximal number of concurrently open connections to one
+     *            host, 0 for unlimited
+     * @param connectTimeout
+     *            connect timeout in ms, 0 for infinite
+     * @param readTimeout
+     *            read timeout in ms, 0 for infinite
+     */
+    public HttpClientPool(int maxConnectionsPerHost, int connectTimeout,
+            int readTimeout) {
+        if (maxConnectionsPerHost < 0)
+            throw new IllegalArgumentException("maxConnectionsPerHost: "
+                    + maxConnectionsPerHost);
+        if (connectTimeout < 0)
+            throw new IllegalArgumentException("connectTimeout: "
+                    + connectTimeout);
+        if (readTimeout < 0)
+            throw new IllegalArgumentException("readTimeout: " + readTimeout);
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public static HttpClientPool getDefault() {
+        return DEFAULT;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public boolean matches(int maxConnectionsPerHost, int connectTimeout,
+            int readTimeout) {
+        return this.maxConnectionsPerHost == maxConnectionsPerHost
+                && this.connectTimeout == connectTimeout
+                && this.readTimeout == readTimeout;
+    }
+
+    /**
+     * Returns the number of connections which may still be opened to the host
+     * of the given URL without blocking.
+     */
+    public int availableConnections(URL url) {
+        return maxConnectionsPerHost == 0 ? Integer.MAX_VALUE
+                : permitsFor(url).availablePermits();
+    }
+
+    /**
+     * Opens a connection to the given URL, blocking until a connection to the
+     * host becomes available. The returned connection must be closed by the
+     * caller to release it to the pool.
+     */
+    public PooledConnection open(URL url, String method) throws IOException {
+        Semaphore semaphore = maxConnectionsPerHost > 0
+                ? permitsFor(url) : null;
+        if (semaphore != null) {
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for connection to "
+                        + url.getHost());
+            }
+        }
+        try {
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setInstanceFollowRedirects(false);
+            conn.setUseCaches(false);
+            conn.setDoInput(true);
+            conn.setRequestMethod(method);
+            return new PooledConnection(conn, semaphore);
+        } catch (IOException e) {
+            if (semaphore != null)
+                semaphore.release();
+            throw e;
+        } catch (RuntimeException e) {
+            if (semaphore != null)
+                semaphore.release();
+            throw e;
+        }
+    }
+
+    private Semaphore permitsFor(URL url) {
+        String key = hostKey(url);
+        Semaphore semaphore = permits.get(key);
+        if (semaphore == null) {
+            Semaphore newSemaphore = new Semaphore(maxConnectionsPerHost, true);
+            semaphore = permits.putIfAbsent(key, newSemaphore);
+            if (semaphore == null)
+                semaphore = newSemaphore;
+        }
+        return semaphore;
+    }
+
+    private static String hostKey(URL url) {
+        int port = url.getPort();
+        return url.getProtocol() + "://" + url.getHost().toLowerCase() + ':'
+                + (port != -1 ? port : url.getDefaultPort());
+    }
+
+}
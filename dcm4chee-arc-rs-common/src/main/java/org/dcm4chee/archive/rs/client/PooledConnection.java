@@ -0,0 +1,214 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.rs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection obtained from a {@link HttpClientPool}.
+ *
+ * Request bodies are streamed in chunks instead of being buffered in memory,
+ * response bodies are streamed to the caller. On {@link #close()} unread
+ * response data up to {@link #MAX_DRAIN_LENGTH} bytes is consumed, so the
+ * underlying socket can be reused for the next request to the same host.
+ *
+ */
+public class PooledConnection implements Closeable {
+
+    public static final int MAX_DRAIN_LENGTH = 64 * 1024;
+
+    private final HttpURLConnection conn;
+    private final Semaphore semaphore;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private InputStream in;
+    private boolean connected;
+
+    PooledConnection(HttpURLConnection conn, Semaphore semaphore) {
+        this.conn = conn;
+        this.semaphore = semaphore;
+    }
+
+    public HttpURLConnection getConnection() {
+        return conn;
+    }
+
+    public void setRequestProperty(String key, String value) {
+        conn.setRequestProperty(key, value);
+    }
+
+    /**
+     * Returns the stream for writing a request body of unknown length, sent
+     * with chunked transfer encoding.
+     */
+    public OutputStream getOutputStream() throws IOException {
+        conn.setDoOutput(true);
+        conn.setChunkedStreamingMode(HttpClientPool.DEF_CHUNK_LENGTH);
+        connected = true;
+        return conn.getOutputStream();
+    }
+
+    /**
+     * Returns the stream for writing a request body of known length.
+     */
+    public OutputStream getOutputStream(long contentLength)
+            throws IOException {
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(contentLength);
+        connected = true;
+        return conn.getOutputStream();
+    }
+
+    public int getResponseCode() throws IOException {
+        connected = true;
+        return conn.getResponseCode();
+    }
+
+    public String getResponseMessage() throws IOException {
+        connected = true;
+        return conn.getResponseMessage();
+    }
+
+    public String getHeaderField(String name) {
+        connected = true;
+        return conn.getHeaderField(name);
+    }
+
+    public InputStream getInputStream() throws IOException {
+        if (in == null) {
+            connected = true;
+            in = conn.getInputStream();
+        }
+        return in;
+    }
+
+    /**
+     * Releases the connection to the pool. The socket is kept alive if the
+     * remaining response body could be drained, otherwise it is closed.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        if (!connected) {
+            release();
+            return;
+        }
+
+        try {
+            InputStream is = in;
+            if (is != null) {
+                // the caller may already have closed the stream, in which
+                // case the JDK has returned the socket to its keep-alive cache
+                if (!drainQuietly(is))
+                    conn.disconnect();
+                closeQuietly(is);
+            } else if ((is = responseStream()) != null) {
+                try {
+                    if (!drain(is))
+                        conn.disconnect();
+                } finally {
+                    is.close();
+                }
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Closes the underlying socket and releases the connection to the pool.
+     */
+    public void abort() {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        try {
+            conn.disconnect();
+        } finally {
+            release();
+        }
+    }
+
+    private InputStream responseStream() throws IOException {
+        if (conn.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST)
+            return conn.getInputStream();
+        return conn.getErrorStream();
+    }
+
+    private static void closeQuietly(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static boolean drainQuietly(InputStream is) {
+        try {
+            return drain(is);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static boolean drain(InputStream is) throws IOException {
+        byte[] buf = new byte[4096];
+        int remaining = MAX_DRAIN_LENGTH;
+        int read;
+        while ((read = is.read(buf)) != -1) {
+            remaining -= read;
+            if (remaining < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void release() {
+        if (semaphore != null)
+            semaphore.release();
+    }
+}
@@ -0,0 +1,263 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.rs.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests {@link HttpClientPool} against an embedded HTTP server.
+ *
+ */
+public class HttpClientPoolTest {
+
+    private static final int BODY_LENGTH = 256 * 1024;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final Set<Integer> clientPorts =
+            Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/small", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "OK".getBytes("US-ASCII");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.createContext("/large", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, BODY_LENGTH);
+                OutputStream out = exchange.getResponseBody();
+                byte[] buf = new byte[8192];
+                for (int i = 0; i < BODY_LENGTH; i += buf.length)
+                    out.write(buf);
+                exchange.close();
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int n = active.incrementAndGet();
+                int max;
+                while ((max = maxActive.get()) < n
+                        && !maxActive.compareAndSet(max, n))
+                    ;
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/echo", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                InputStream in = exchange.getRequestBody();
+                byte[] buf = new byte[8192];
+                int read;
+                while ((read = in.read(buf)) != -1)
+                    bout.write(buf, 0, read);
+                byte[] body = bout.toByteArray();
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort()
+                + path);
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        HttpClientPool pool = new HttpClientPool(1, 5000, 5000);
+        for (int i = 0; i < 5; i++) {
+            PooledConnection conn = pool.open(url("/small"), "GET");
+            try {
+                assertEquals(200, conn.getResponseCode());
+            } finally {
+                conn.close();
+            }
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testMaxConnectionsPerHost() throws Exception {
+        final HttpClientPool pool = new HttpClientPool(2, 5000, 5000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        PooledConnection conn = pool.open(url("/slow"), "GET");
+                        try {
+                            return conn.getResponseCode();
+                        } finally {
+                            conn.close();
+                        }
+                    }
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures)
+                assertEquals(200, future.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue("max active: " + maxActive.get(), maxActive.get() <= 2);
+        assertEquals(2, pool.availableConnections(url("/slow")));
+    }
+
+    @Test
+    public void testStreamResponseBody() throws Exception {
+        HttpClientPool pool = new HttpClientPool(1, 5000, 5000);
+        PooledConnection conn = pool.open(url("/large"), "GET");
+        long total = 0;
+        try {
+            InputStream in = conn.getInputStream();
+            byte[] buf = new byte[1000];
+            int read;
+            while ((read = in.read(buf)) != -1)
+                total += read;
+        } finally {
+            conn.close();
+        }
+        assertEquals(BODY_LENGTH, total);
+        assertEquals(1, pool.availableConnections(url("/large")));
+    }
+
+    @Test
+    public void testCloseWithoutReadingReleasesConnection() throws Exception {
+        HttpClientPool pool = new HttpClientPool(1, 5000, 5000);
+        PooledConnection conn = pool.open(url("/large"), "GET");
+        assertEquals(200, conn.getResponseCode());
+        conn.close();
+        conn = pool.open(url("/small"), "GET");
+        try {
+            assertEquals(200, conn.getResponseCode());
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testChunkedRequestBody() throws Exception {
+        HttpClientPool pool = new HttpClientPool(1, 5000, 5000);
+        PooledConnection conn = pool.open(url("/echo"), "POST");
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        try {
+            OutputStream out = conn.getOutputStream();
+            out.write(data);
+            out.close();
+            assertEquals(200, conn.getResponseCode());
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            InputStream in = conn.getInputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1)
+                bout.write(buf, 0, read);
+            assertTrue(Arrays.equals(data, bout.toByteArray()));
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -43,6 +43,7 @@ import java.util.TimeZone;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4chee.archive.conf.StoreAction;
+import org.dcm4chee.archive.dto.FrameIndex;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.storage.StorageContext;
@@ -105,6 +106,10 @@ public interface StoreContext {
 
     void setFinalFileSize(long size);
 
+    FrameIndex getFrameIndex();
+
+    void setFrameIndex(FrameIndex frameIndex);
+
     Instance getInstance();
 
     void setInstance(Instance instance);
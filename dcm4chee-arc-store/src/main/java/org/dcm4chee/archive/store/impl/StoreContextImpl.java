@@ -45,6 +45,7 @@ import java.util.TimeZone;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.util.AttributesFormat;
 import org.dcm4chee.archive.conf.StoreAction;
+import org.dcm4chee.archive.dto.FrameIndex;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.store.StoreContext;
@@ -64,6 +65,7 @@ public class StoreContextImpl implements StoreContext {
     private String finalFileDigest;
     private String noDBAttsDigest;    
     private long finalFileSize;
+    private FrameIndex frameIndex;
     private String storagePath;
     private String metaDataStoragePath;
     private String transferSyntax;
@@ -117,6 +119,16 @@ public class StoreContextImpl implements StoreContext {
         this.finalFileSize = finalFileSize;
     }
 
+    @Override
+    public FrameIndex getFrameIndex() {
+        return frameIndex;
+    }
+
+    @Override
+    public void setFrameIndex(FrameIndex frameIndex) {
+        this.frameIndex = frameIndex;
+    }
+
     @Override
     public String getTransferSyntax() {
         return transferSyntax;
@@ -39,6 +39,7 @@
 package org.dcm4chee.archive.store.impl;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -48,6 +49,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -64,6 +66,8 @@ import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
 import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -92,6 +96,7 @@ import org.dcm4chee.archive.conf.AttributeFilter;
 import org.dcm4chee.archive.conf.Entity;
 import org.dcm4chee.archive.conf.StoreAction;
 import org.dcm4chee.archive.conf.StoreParam;
+import org.dcm4chee.archive.dto.FrameIndex;
 import org.dcm4chee.archive.entity.Code;
 import org.dcm4chee.archive.entity.ContentItem;
 import org.dcm4chee.archive.entity.Location;
@@ -464,6 +469,7 @@ public class StoreServiceImpl implements StoreService {
             context.setStorageContext(storageContext);
             context.setFinalFileDigest(context.getSpoolFileDigest());
             context.setFinalFileSize(Files.size(source));
+            context.setFrameIndex(calcFrameIndex(context, source));
 
             String origStoragePath = context.calcStoragePath();
             String storagePath = origStoragePath;
@@ -483,6 +489,49 @@ public class StoreServiceImpl implements StoreService {
         }
     }
 
+    private FrameIndex calcFrameIndex(StoreContext context, Path source) {
+        Attributes attrs = context.getAttributes();
+        String tsuid = context.getTransferSyntax();
+        if (attrs == null || !attrs.contains(Tag.PixelData)
+                || UID.DeflatedExplicitVRLittleEndian.equals(tsuid)
+                || UID.JPIPReferencedDeflate.equals(tsuid))
+            return null;
+
+        try {
+            File file = source.toFile();
+            if (!refersTo(attrs.getValue(Tag.PixelData), file))
+                attrs = parsePixelDataAttributes(file);
+            return FrameIndex.valueOf(attrs, file);
+        } catch (IOException e) {
+            LOG.info("{}: Failed to calculate frame index of {} - {}",
+                    context.getStoreSession(), source, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the Pixel Data was parsed from the specified
+     * file. Pixel Data of objects received as metadata and bulk data
+     * (STOW-RS) refers to the bulk data parts instead.
+     */
+    private static boolean refersTo(Object pixelData, File file) {
+        if (pixelData instanceof Fragments) {
+            Fragments frags = (Fragments) pixelData;
+            pixelData = frags.size() > 1 ? frags.get(1) : null;
+        }
+        return pixelData instanceof BulkData
+                && ((BulkData) pixelData).getURI().startsWith(
+                        file.toURI().toString() + '?');
+    }
+
+    private static Attributes parsePixelDataAttributes(File file)
+            throws IOException {
+        try (DicomInputStream in = new DicomInputStream(file)) {
+            in.setIncludeBulkData(IncludeBulkData.URI);
+            return in.readDataset(-1, Tag.PixelData + 1);
+        }
+    }
+
     @Override
     public void updateDB(StoreContext context) throws DicomServiceException {
 
@@ -866,6 +915,8 @@ public class StoreServiceImpl implements StoreService {
                 .otherAttsDigest(context.getNoDBAttsDigest())
                 .size(context.getFinalFileSize())
                 .transferSyntaxUID(context.getTransferSyntax())
+                .frameIndex(context.getFrameIndex() != null
+                        ? context.getFrameIndex().toByteArray() : null)
                 .timeZone(context.getSourceTimeZoneID()).build();
         em.persist(fileRef);
         LOG.info("{}: Create {}", session, fileRef);
@@ -1239,9 +1290,22 @@ public class StoreServiceImpl implements StoreService {
             Attributes noDBAtts = new Attributes();
             noDBAtts.addNotSelected(attrs, getStoreFilters(attrs));
 
-            return Utils.digestAttributes(noDBAtts, session.getMessageDigest());
+            // the session digest may be in use for spooling further objects
+            // received by the same session concurrently
+            return Utils.digestAttributes(noDBAtts,
+                    newMessageDigest(session.getMessageDigest()));
         } else
             return null;
     }
 
+    private static MessageDigest newMessageDigest(MessageDigest digest) {
+        if (digest == null)
+            return null;
+        try {
+            return MessageDigest.getInstance(digest.getAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
 }
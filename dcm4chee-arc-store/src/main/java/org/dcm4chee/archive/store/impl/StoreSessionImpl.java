@@ -187,17 +187,17 @@ public class StoreSessionImpl implements StoreSession {
     }
 
     @Override
-    public Object getProperty(String key) {
+    public synchronized Object getProperty(String key) {
         return properties.get(key);
     }
 
     @Override
-    public Object removeProperty(String key) {
+    public synchronized Object removeProperty(String key) {
         return properties .remove(key);
     }
 
     @Override
-    public void setProperty(String key, Object value) {
+    public synchronized void setProperty(String key, Object value) {
         properties.put(key, value);
     }
 
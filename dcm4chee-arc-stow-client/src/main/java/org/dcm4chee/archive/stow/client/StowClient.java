@@ -44,17 +44,29 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.io.SAXReader;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.util.SafeClose;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.rs.client.HttpClientPool;
+import org.dcm4chee.archive.rs.client.PooledConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,81 +78,244 @@ public class StowClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(
             StowClient.class);
-    
+
     private StowClientService service;
     private StowContext context;
-    
+    private HttpClientPool httpClientPool;
+    private Executor executor;
+
     public StowClient(StowClientService service
             , StowContext context) {
+        this(service, context, HttpClientPool.getDefault(), null);
+    }
+
+    public StowClient(StowClientService service
+            , StowContext context, HttpClientPool httpClientPool) {
+        this(service, context, httpClientPool, null);
+    }
+
+    public StowClient(StowClientService service
+            , StowContext context, HttpClientPool httpClientPool
+            , Executor executor) {
         this.service = service;
-        this.context = context; 
+        this.context = context;
+        this.httpClientPool = httpClientPool;
+        this.executor = executor;
     }
 
+    /**
+     * Sends the instances to the remote STOW-RS service. Depending on the
+     * configuration of the local AE, the instances are partitioned into
+     * several multipart requests bounded by size, which are sent concurrently
+     * over separate connections and retried individually on failure.
+     */
     public StowResponse storeOverWebService( String transactionID
             , Collection<ArchiveInstanceLocator> instances) {
 
-        ArrayList<String> failedInstances = new ArrayList<String>();
-        ArrayList<String> successfulInstances = new ArrayList<String>();
         String aeTitle = context.getRemoteAE().getAETitle();
         String url = adjustToStowURL(aeTitle, context.getStowRemoteBaseURL());
-        for(ArchiveInstanceLocator inst : instances) {
-            
-            try{
-            storeOverWebService(aeTitle, url, inst);
-            successfulInstances.add(inst.iuid);
-            }
-            catch(IOException e) {
-                failedInstances.add(inst.iuid);
+        ArchiveAEExtension aeExt = context.getArchiveAEExtension();
+        long maxRequestSize = aeExt != null
+                ? aeExt.getStowClientMaxRequestSize() : 0L;
+        int maxParallelRequests = aeExt != null
+                ? aeExt.getStowClientMaxParallelRequests() : 1;
+        int retries = aeExt != null
+                ? aeExt.getStowClientRequestRetries() : 0;
+
+        Queue<List<ArchiveInstanceLocator>> parts =
+                new ConcurrentLinkedQueue<List<ArchiveInstanceLocator>>(
+                        partition(instances, maxRequestSize));
+        List<String> failedInstances =
+                Collections.synchronizedList(new ArrayList<String>());
+        List<String> successfulInstances =
+                Collections.synchronizedList(new ArrayList<String>());
+
+        int numWorkers = executor != null
+                ? Math.min(maxParallelRequests, parts.size()) : 1;
+        List<FutureTask<Void>> workers = new ArrayList<FutureTask<Void>>();
+        for (int i = 1; i < numWorkers; i++) {
+            FutureTask<Void> worker = new FutureTask<Void>(
+                    new PartSender(aeTitle, url, parts, retries,
+                            successfulInstances, failedInstances), null);
+            executor.execute(worker);
+            workers.add(worker);
+        }
+        new PartSender(aeTitle, url, parts, retries,
+                successfulInstances, failedInstances).run();
+        for (FutureTask<Void> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while waiting for STOW-RS requests to {}",
+                        aeTitle);
+            } catch (ExecutionException e) {
+                LOG.error("Unexpected error performing STOW-RS to {}",
+                        aeTitle, e.getCause());
             }
         }
+
+        // instances of parts never sent, e.g. on interrupt
+        for (List<ArchiveInstanceLocator> part : parts)
+            for (ArchiveInstanceLocator inst : part)
+                failedInstances.add(inst.iuid);
+
         StowResponse response = new StowResponse(transactionID
-                ,failedInstances, successfulInstances);
+                ,new ArrayList<String>(failedInstances)
+                , new ArrayList<String>(successfulInstances));
         return response;
 
     }
 
-    private boolean storeOverWebService(String aeTitle, String url
-            , ArchiveInstanceLocator inst)
+    /**
+     * Partitions the instances into lists whose accumulated file size does not
+     * exceed {@code maxRequestSize}. Each instance exceeding the limit by
+     * itself is placed in its own list. If {@code maxRequestSize} is 0, each
+     * instance is placed in its own list.
+     */
+    static List<List<ArchiveInstanceLocator>> partition(
+            Collection<ArchiveInstanceLocator> instances, long maxRequestSize) {
+        List<List<ArchiveInstanceLocator>> parts =
+                new ArrayList<List<ArchiveInstanceLocator>>();
+        List<ArchiveInstanceLocator> part = null;
+        long partSize = 0L;
+        for (ArchiveInstanceLocator inst : instances) {
+            long size = maxRequestSize > 0 ? inst.getFile().length() : 0L;
+            if (part == null || maxRequestSize <= 0
+                    || partSize + size > maxRequestSize) {
+                part = new ArrayList<ArchiveInstanceLocator>();
+                parts.add(part);
+                partSize = 0L;
+            }
+            part.add(inst);
+            partSize += size;
+        }
+        return parts;
+    }
+
+    private final class PartSender implements Runnable {
+
+        private final String aeTitle;
+        private final String url;
+        private final Queue<List<ArchiveInstanceLocator>> parts;
+        private final int retries;
+        private final List<String> successful;
+        private final List<String> failed;
+
+        PartSender(String aeTitle, String url,
+                Queue<List<ArchiveInstanceLocator>> parts, int retries,
+                List<String> successful, List<String> failed) {
+            this.aeTitle = aeTitle;
+            this.url = url;
+            this.parts = parts;
+            this.retries = retries;
+            this.successful = successful;
+            this.failed = failed;
+        }
+
+        @Override
+        public void run() {
+            List<ArchiveInstanceLocator> part;
+            while (!Thread.currentThread().isInterrupted()
+                    && (part = parts.poll()) != null) {
+                sendPart(part);
+            }
+        }
+
+        private void sendPart(List<ArchiveInstanceLocator> part) {
+            for (int attempt = 0;; attempt++) {
+                try {
+                    storeOverWebService(aeTitle, url, part, successful, failed);
+                    return;
+                } catch (IOException e) {
+                    if (attempt >= retries) {
+                        LOG.warn("Failed to send {} instances to {}",
+                                part.size(), aeTitle, e);
+                        for (ArchiveInstanceLocator inst : part)
+                            failed.add(inst.iuid);
+                        return;
+                    }
+                    LOG.info("Failed to send {} instances to {} - retry",
+                            part.size(), aeTitle, e);
+                }
+            }
+        }
+    }
+
+    private void storeOverWebService(String aeTitle, String url
+            , List<ArchiveInstanceLocator> insts
+            , List<String> successful, List<String> failed)
             throws IOException {
 
-        HttpURLConnection connection = null;;
+        PooledConnection connection = null;
         int rspCode = 0;
-        
+
         try {
             URL stowURL = new URL(url);
-            
+
             String boundary = generateBoundary();
-            
+
             connection = setupStowConnection(boundary, stowURL);
-            
-            writeRequest(inst, boundary, getConnectionOutputStream(boundary
-                    , connection));
-            
+
+            DataOutputStream wr = new DataOutputStream(
+                    connection.getOutputStream());
+            for (ArchiveInstanceLocator inst : insts)
+                writeRequest(inst, boundary, wr);
+            wr.writeBytes("\r\n--" + boundary + "--\r\n");
+            wr.flush();
+            wr.close();
+
             rspCode = connection.getResponseCode();
-            
-            logResponse(aeTitle, connection);
+            if (rspCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+                throw new IOException("HTTP " + rspCode + " "
+                        + connection.getResponseMessage());
         } catch (IOException e) {
-            LOG.error("error writing to http data output stream"
-                    + e.getStackTrace().toString());
+            if (connection != null)
+                connection.abort();
+            LOG.debug("error writing to http data output stream", e);
             throw new IOException("Error while performing stow to " + aeTitle + e);
         }
-        finally {
-            connection.disconnect();
+        try {
+            readResponse(aeTitle, connection, rspCode, insts,
+                    successful, failed);
+        } finally {
+            connection.close();
         }
-
-        return rspCode == 200 ? true : false;
     }
 
-
-    private void logResponse(String aeTitle, HttpURLConnection connection) {
+    private void readResponse(String aeTitle, PooledConnection connection,
+            int rspCode, List<ArchiveInstanceLocator> insts,
+            List<String> successful, List<String> failed) {
+        Attributes rsp = null;
         try {
-            if(LOG.isDebugEnabled())
+            rsp = SAXReader.parse(rspCode < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getInputStream()
+                    : connection.getConnection().getErrorStream());
+            if (LOG.isDebugEnabled())
                 LOG.debug("Stowrs response received from {} : \n {}"
-                        ,aeTitle, SAXReader.parse(
-                                connection.getInputStream()).toString());
+                        ,aeTitle, rsp);
         } catch (Exception e) {
-            LOG.error("Error creating response attributes, {}",e);
+            LOG.debug("Error creating response attributes, {}",e);
+        }
+        if (rsp == null) {
+            boolean success = rspCode == HttpURLConnection.HTTP_OK;
+            for (ArchiveInstanceLocator inst : insts)
+                (success ? successful : failed).add(inst.iuid);
+            return;
         }
+        ArrayList<String> referenced = referencedSOPInstanceUIDs(
+                rsp.getSequence(Tag.ReferencedSOPSequence));
+        for (ArchiveInstanceLocator inst : insts)
+            (referenced.contains(inst.iuid) ? successful : failed)
+                    .add(inst.iuid);
+    }
+
+    private static ArrayList<String> referencedSOPInstanceUIDs(Sequence seq) {
+        ArrayList<String> iuids = new ArrayList<String>();
+        if (seq != null)
+            for (Attributes item : seq)
+                iuids.add(item.getString(Tag.ReferencedSOPInstanceUID));
+        return iuids;
     }
 
     private void writeRequest(ArchiveInstanceLocator inst
@@ -154,54 +329,39 @@ public class StowClient {
              service.coerceAttributes(dataset, context);
             dataset.addAll((Attributes) inst.getObject());
             Attributes fmi = dataset.createFileMetaInformation(inst.tsuid);
+            wr.writeBytes("\r\n--" + boundary + "\r\n");
+            wr.writeBytes("Content-Type: application/dicom \r\n");
+            wr.writeBytes("\r\n");
             @SuppressWarnings("resource")
             DicomOutputStream dos = new DicomOutputStream(wr,
                     UID.ExplicitVRLittleEndian);
             dos.writeDataset(fmi, dataset);
-            wr.writeBytes("\r\n--" + boundary + "--\r\n");
-            wr.flush();
-            wr.close();
+            dos.flush();
         } finally {
             SafeClose.close(dis);
         }
     }
 
-    private DataOutputStream getConnectionOutputStream(String boundary,
-            HttpURLConnection connection) throws IOException {
-        DataOutputStream wr;
-        wr = new DataOutputStream(connection.getOutputStream());
-        wr.writeBytes("\r\n--" + boundary + "\r\n");
-        wr.writeBytes("Content-Type: application/dicom \r\n");
-        wr.writeBytes("\r\n");
-        return wr;
-    }
-
     private String generateBoundary() {
         return "--------"+UUID.randomUUID().toString()
         .replaceAll("[^\\d.-]", "");
     }
 
-    private HttpURLConnection setupStowConnection(String boundary, URL url)
+    private PooledConnection setupStowConnection(String boundary, URL url)
             throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url
-        .openConnection();
-        connection.setDoOutput(true);
-        connection.setDoInput(true);
-        connection.setInstanceFollowRedirects(false);
-        connection.setRequestMethod("POST");
+        PooledConnection connection = httpClientPool.open(url, "POST");
         connection.setRequestProperty("Content-Type",
                 "multipart/related; type=application/dicom; boundary="
                         + boundary);
         connection.setRequestProperty("Accept", "application/dicom+xml");
         connection.setRequestProperty("charset", "utf-8");
-        connection.setUseCaches(false);
         return connection;
     }
 
     private String adjustToStowURL(String aeTitle, String remoteBaseURL) {
         String stowPath = "stow/"+aeTitle+"/studies";
-        return remoteBaseURL.endsWith("/") 
-                ? remoteBaseURL + stowPath 
+        return remoteBaseURL.endsWith("/")
+                ? remoteBaseURL + stowPath
                         : remoteBaseURL + "/" + stowPath;
     }
 
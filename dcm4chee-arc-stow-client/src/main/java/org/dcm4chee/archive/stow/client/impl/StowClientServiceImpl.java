@@ -59,6 +59,7 @@ import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.io.SAXTransformer;
 import org.dcm4che3.io.SAXTransformer.SetupTransformer;
+import org.dcm4che3.net.Device;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability.Role;
@@ -68,6 +69,7 @@ import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.Service;
 import org.dcm4chee.archive.dto.ServiceQualifier;
 import org.dcm4chee.archive.dto.ServiceType;
+import org.dcm4chee.archive.rs.client.HttpClientProvider;
 import org.dcm4chee.archive.stow.client.StowClient;
 import org.dcm4chee.archive.stow.client.StowClientService;
 import org.dcm4chee.archive.stow.client.StowContext;
@@ -94,6 +96,12 @@ public class StowClientServiceImpl implements StowClientService {
     @Any
     private Event<StowResponse> stowClientEvent;
 
+    @Inject
+    private HttpClientProvider httpClientProvider;
+
+    @Inject
+    private Device device;
+
     @Override 
     public void scheduleStow(String transactionID, StowContext ctx
             ,Collection<ArchiveInstanceLocator> insts, int retries
@@ -164,7 +172,8 @@ public class StowClientServiceImpl implements StowClientService {
     @Override
     public StowClient createStowRSClient(
             StowClientService service, StowContext ctx) {
-        return new StowClient(service, ctx);
+        return new StowClient(service, ctx,
+                httpClientProvider.getHttpClientPool(), device.getExecutor());
     }
 
     @Override
@@ -48,6 +48,12 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -158,6 +164,18 @@ public class StowRS {
 
     private Sequence failedSOPSequence;
 
+    private Semaphore storePermits;
+
+    private final ArrayList<FutureTask<StoreOutcome>> pendingStores =
+            new ArrayList<FutureTask<StoreOutcome>>();
+
+    /**
+     * Latches of the first concurrently stored object of each Study and
+     * Patient of the request, counted down after it is stored.
+     */
+    private final HashMap<String, CountDownLatch> creators =
+            new HashMap<String, CountDownLatch>();
+
     private void init() {
         this.ae = device.getApplicationEntity(aeTitle);
         if (ae == null || !ae.isInstalled()
@@ -201,6 +219,9 @@ public class StowRS {
         else
             response.setNull(Tag.RetrieveURL, VR.UR);
         sopSequence = response.newSequence(Tag.ReferencedSOPSequence, 10);
+        int maxConcurrentStores = arcAE.getStowMaxConcurrentStores();
+        if (maxConcurrentStores > 1)
+            storePermits = new Semaphore(maxConcurrentStores);
     }
 
     @POST
@@ -274,7 +295,9 @@ public class StowRS {
                 }
             });
             creatorType.storeMetadataAndBulkdata(this, session);
+            completePendingStores();
         } finally {
+            awaitPendingStores();
             storeService.onClose(session);
         }
         return buildResponse();
@@ -376,34 +399,174 @@ public class StowRS {
 
     private void storeDicomObject(StoreSession session, InputStream in)
             throws DicomServiceException {
-        StoreContext context;
+        StoreContext context = storeService.createStoreContext(session);
+        storeService.writeSpoolFile(context, null, in);
+        store(context, true);
+    }
+
+    /**
+     * Stores the spooled object. If concurrent storage is configured, the
+     * object is handed over to the device executor, blocking if the number
+     * of pending objects of this request reaches the configured limit.
+     */
+    private void store(final StoreContext context, final boolean parse)
+            throws DicomServiceException {
+        if (storePermits == null) {
+            addOutcome(parseAndStore(context, parse));
+            return;
+        }
+
         try {
-            context = storeService.createStoreContext(session);
-            storeService.writeSpoolFile(context, null, in);
-            storeService.parseSpoolFile(context);
-        } catch (DicomServiceException e) {
-            if (e.getStatus() == StoreService.DATA_SET_NOT_PARSEABLE) {
-                storageFailed(NOT_PARSEABLE_IUID, NOT_PARSEABLE_CUID,
-                        METADATA_NOT_PARSEABLE);
-                return;
+            storePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DicomServiceException(
+                    org.dcm4che3.net.Status.ProcessingFailure, e);
+        }
+        FutureTask<StoreOutcome> task = new FutureTask<StoreOutcome>(
+                new Callable<StoreOutcome>() {
+
+                    @Override
+                    public StoreOutcome call() throws Exception {
+                        try {
+                            return parseAndStore(context, parse);
+                        } finally {
+                            storePermits.release();
+                        }
+                    }
+                });
+        pendingStores.add(task);
+        try {
+            device.getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private StoreOutcome parseAndStore(StoreContext context, boolean parse)
+            throws DicomServiceException {
+        if (parse) {
+            try {
+                storeService.parseSpoolFile(context);
+            } catch (DicomServiceException e) {
+                if (e.getStatus() == StoreService.DATA_SET_NOT_PARSEABLE) {
+                    return StoreOutcome.failed(NOT_PARSEABLE_IUID,
+                            NOT_PARSEABLE_CUID, METADATA_NOT_PARSEABLE);
+                }
+                throw e;
             }
-            throw e;
         }
         Attributes attrs = context.getAttributes();
+        CountDownLatch created = new CountDownLatch(1);
         try {
+            if (storePermits != null)
+                awaitCreators(attrs, created);
             checkStudyInstanceUID(attrs.getString(Tag.StudyInstanceUID));
             checkTransferCapability(attrs.getString(Tag.SOPClassUID),
                     context.getTransferSyntax());
             storeService.store(context);
-            sopSequence.add(sopRef(context));
+            return StoreOutcome.stored(sopRef(context));
         } catch (DicomServiceException e) {
-            storageFailed(
+            return StoreOutcome.failed(
                     attrs.getString(Tag.SOPInstanceUID),
                     attrs.getString(Tag.SOPClassUID),
                     e.getStatus());
+        } finally {
+            created.countDown();
+        }
+    }
+
+    /**
+     * Waits until the objects of the same Study or Patient, which were
+     * processed first, are stored, so concurrently stored objects of a new
+     * Study or Patient do not create duplicate Patient or Study records.
+     * The first object of a Study or Patient registers the specified latch.
+     */
+    private void awaitCreators(Attributes attrs, CountDownLatch created)
+            throws DicomServiceException {
+        ArrayList<CountDownLatch> predecessors = new ArrayList<CountDownLatch>(2);
+        synchronized (creators) {
+            claimOrAwait("study:" + attrs.getString(Tag.StudyInstanceUID),
+                    created, predecessors);
+            String pid = attrs.getString(Tag.PatientID);
+            if (pid != null)
+                claimOrAwait("patient:" + pid + '^'
+                        + attrs.getString(Tag.IssuerOfPatientID, ""),
+                        created, predecessors);
+        }
+        try {
+            for (CountDownLatch predecessor : predecessors)
+                predecessor.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DicomServiceException(
+                    org.dcm4che3.net.Status.ProcessingFailure, e);
+        }
+    }
+
+    private void claimOrAwait(String key, CountDownLatch created,
+            List<CountDownLatch> predecessors) {
+        CountDownLatch predecessor = creators.get(key);
+        if (predecessor == null)
+            creators.put(key, created);
+        else
+            predecessors.add(predecessor);
+    }
+
+    private void addOutcome(StoreOutcome outcome) {
+        if (outcome.sopRef != null)
+            sopSequence.add(outcome.sopRef);
+        else
+            storageFailed(outcome.iuid, outcome.cuid, outcome.failureReason);
+    }
+
+    /**
+     * Adds the outcomes of concurrently stored objects to the response in the
+     * order the objects were received.
+     */
+    private void completePendingStores() throws DicomServiceException {
+        try {
+            for (FutureTask<StoreOutcome> task : pendingStores)
+                addOutcome(task.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DicomServiceException(
+                    org.dcm4che3.net.Status.ProcessingFailure, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DicomServiceException)
+                throw (DicomServiceException) cause;
+            throw new DicomServiceException(
+                    org.dcm4che3.net.Status.ProcessingFailure, cause);
+        } finally {
+            awaitPendingStores();
         }
     }
 
+    /**
+     * Waits until all objects handed over to the executor are processed, so
+     * the spool directory of the session can be deleted.
+     */
+    private void awaitPendingStores() {
+        boolean interrupted = false;
+        for (FutureTask<StoreOutcome> task : pendingStores) {
+            while (!task.isDone()) {
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                }
+            }
+        }
+        pendingStores.clear();
+        synchronized (creators) {
+            creators.clear();
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
     private void checkStudyInstanceUID(String siuid) throws DicomServiceException {
         if (studyInstanceUID != null
                 && !studyInstanceUID.equals(siuid))
@@ -491,12 +654,9 @@ public class StowRS {
             return;
         }
         try {
-            checkStudyInstanceUID(ds.getString(Tag.StudyInstanceUID));
-            checkTransferCapability(cuid, fmi.getString(Tag.TransferSyntaxUID));
             StoreContext context = storeService.createStoreContext(session);
             storeService.writeSpoolFile(context, fmi, ds);
-            storeService.store(context);
-            sopSequence.add(sopRef(context));
+            store(context, false);
         } catch (DicomServiceException e) {
             storageFailed(iuid, cuid, e.getStatus());
         }
@@ -605,6 +765,30 @@ public class StowRS {
         }
     }
 
+    private static final class StoreOutcome {
+        final Attributes sopRef;
+        final String iuid;
+        final String cuid;
+        final int failureReason;
+
+        private StoreOutcome(Attributes sopRef, String iuid, String cuid,
+                int failureReason) {
+            this.sopRef = sopRef;
+            this.iuid = iuid;
+            this.cuid = cuid;
+            this.failureReason = failureReason;
+        }
+
+        static StoreOutcome stored(Attributes sopRef) {
+            return new StoreOutcome(sopRef, null, null, 0);
+        }
+
+        static StoreOutcome failed(String iuid, String cuid,
+                int failureReason) {
+            return new StoreOutcome(null, iuid, cuid, failureReason);
+        }
+    }
+
     private static final class BulkdataPath {
         final java.nio.file.Path path;
         final MediaType mediaType;
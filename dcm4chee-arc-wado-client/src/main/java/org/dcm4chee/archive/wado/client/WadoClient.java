@@ -43,13 +43,13 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import org.dcm4che3.mime.MultipartInputStream;
 import org.dcm4che3.mime.MultipartParser;
+import org.dcm4chee.archive.rs.client.HttpClientPool;
+import org.dcm4chee.archive.rs.client.PooledConnection;
 import org.dcm4chee.archive.store.StoreContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,8 +64,16 @@ public class WadoClient {
 
     private WadoClientService service;
 
+    private HttpClientPool httpClientPool;
+
     public WadoClient(WadoClientService service) {
+        this(service, HttpClientPool.getDefault());
+    }
+
+    public WadoClient(WadoClientService service,
+            HttpClientPool httpClientPool) {
         this.service = service;
+        this.httpClientPool = httpClientPool;
     }
 
     public WadoClientResponse fetch(final String localAET,
@@ -73,70 +81,67 @@ public class WadoClient {
             final String iuid, String baseURL) throws IOException {
         URL newUrl = new URL(toWadoRSURL(baseURL, studyUID, seriesUID, iuid));
 
-        HttpURLConnection connection = (HttpURLConnection) newUrl
-                .openConnection();
-
-        connection.setDoOutput(true);
-
-        connection.setDoInput(true);
-
-        connection.setInstanceFollowRedirects(false);
-
-        connection.setRequestMethod("GET");
-
-        connection.setRequestProperty("charset", "utf-8");
-
-        connection.addRequestProperty("Accept", "multipart/related; type=application/dicom;");
-
-        // connection.setConnectTimeout();
-        connection.setUseCaches(false);
-
-        int responseCode = connection.getResponseCode();
-        String reponseMessage = connection.getResponseMessage();
-        String boundary = getBoundaryFromContentType(connection
-                .getHeaderField("Content-Type"));
-        InputStream in = null;
-        in = connection.getInputStream();
-        if (in == null)
-            return new WadoClientResponse(new ArrayList<String>(),
-                    new ArrayList<String>(), new ArrayList<String>());
-        ArrayList<String> requested = new ArrayList<String>();
-        final ArrayList<String> failed = new ArrayList<String>();
-        final ArrayList<String> completed = new ArrayList<String>();
+        PooledConnection connection = httpClientPool.open(newUrl, "GET");
         try {
-            new MultipartParser(boundary).parse(in,
-                    new MultipartParser.Handler() {
-
-                        @Override
-                        public void bodyPart(int partNumber,
-                                MultipartInputStream min) throws IOException {
-                            StoreContext ctx = null;
-                            String receivedIUID = iuid;
-                            if (min.isZIP()) {
-                                ZipInputStream zip = new ZipInputStream(min);
-                                ZipEntry zipEntry;
-                                while ((zipEntry = zip.getNextEntry()) != null) {
-                                    if (!zipEntry.isDirectory())
-                                        storeDicom(localAET, remoteAET, zip,
-                                                ctx, receivedIUID, completed,
-                                                failed);
+            connection.setRequestProperty("charset", "utf-8");
+            connection.setRequestProperty("Accept",
+                    "multipart/related; type=application/dicom;");
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK
+                    && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                LOG.info("WADO-RS request {} to {} failed: {} {}", newUrl,
+                        remoteAET, responseCode,
+                        connection.getResponseMessage());
+                return new WadoClientResponse(new ArrayList<String>(),
+                        new ArrayList<String>(), new ArrayList<String>());
+            }
+            String boundary = getBoundaryFromContentType(connection
+                    .getHeaderField("Content-Type"));
+            // parts are spooled straight from the connection stream
+            InputStream in = connection.getInputStream();
+            if (in == null)
+                return new WadoClientResponse(new ArrayList<String>(),
+                        new ArrayList<String>(), new ArrayList<String>());
+            ArrayList<String> requested = new ArrayList<String>();
+            final ArrayList<String> failed = new ArrayList<String>();
+            final ArrayList<String> completed = new ArrayList<String>();
+            try {
+                new MultipartParser(boundary).parse(in,
+                        new MultipartParser.Handler() {
+
+                            @Override
+                            public void bodyPart(int partNumber,
+                                    MultipartInputStream min) throws IOException {
+                                StoreContext ctx = null;
+                                String receivedIUID = iuid;
+                                if (min.isZIP()) {
+                                    ZipInputStream zip = new ZipInputStream(min);
+                                    ZipEntry zipEntry;
+                                    while ((zipEntry = zip.getNextEntry()) != null) {
+                                        if (!zipEntry.isDirectory())
+                                            storeDicom(localAET, remoteAET, zip,
+                                                    ctx, receivedIUID, completed,
+                                                    failed);
+                                    }
+                                } else {
+                                    min.readHeaderParams();
+                                    storeDicom(localAET, remoteAET, min, ctx,
+                                            receivedIUID, completed, failed);
                                 }
-                            } else {
-                                Map<String, List<String>> headerParams = min
-                                        .readHeaderParams();
-                                storeDicom(localAET, remoteAET, min, ctx,
-                                        receivedIUID, completed, failed);
-                            }
 
-                        }
-                    });
-            connection.disconnect();
-            requested.addAll(failed);
-            requested.addAll(completed);
-        } catch (Exception e) {
-            System.out.println("Error parsing Server response - " + e);
+                            }
+                        });
+                requested.addAll(failed);
+                requested.addAll(completed);
+            } catch (Exception e) {
+                LOG.warn("Error parsing WADO-RS response from {}", remoteAET, e);
+                connection.abort();
+            }
+            return new WadoClientResponse(completed, requested, failed);
+        } finally {
+            connection.close();
         }
-        return new WadoClientResponse(completed, requested, failed);
     }
 
     private String getBoundaryFromContentType(String headerField) {
@@ -55,6 +55,7 @@ import org.dcm4chee.archive.conf.StoreAction;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.GenericParticipant;
 import org.dcm4chee.archive.entity.Utils;
+import org.dcm4chee.archive.rs.client.HttpClientProvider;
 import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreService;
 import org.dcm4chee.archive.store.StoreSession;
@@ -82,6 +83,9 @@ public class WadoClientServiceImpl implements WadoClientService {
     @Inject
     private IApplicationEntityCache aeCache;
 
+    @Inject
+    private HttpClientProvider httpClientProvider;
+
     @Override
     public WadoClientResponse fetchStudy(ApplicationEntity localAE,
             ApplicationEntity remoteAE, String studyInstanceUID,
@@ -170,7 +174,7 @@ public class WadoClientServiceImpl implements WadoClientService {
     }
 
     private WadoClient createClient() {
-        return new WadoClient(this);
+        return new WadoClient(this, httpClientProvider.getHttpClientPool());
     }
 
 
@@ -37,9 +37,14 @@
  * ***** END LICENSE BLOCK ***** */
 package org.dcm4chee.archive.wado;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
@@ -49,26 +54,109 @@ import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.StreamUtils;
 
 /**
+ * Writes the value - or a byte range of the value - of a bulk data
+ * element. Values in local files are transferred from their known offset
+ * in the file by {@link FileChannel#transferTo}, without parsing the file.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
 public class BulkDataOutput implements StreamingOutput {
 
     private final BulkData bulkData;
+    private final long from;
+    private final long length;
 
     public BulkDataOutput(BulkData bulkData) {
+        this(bulkData, 0L, bulkData.length());
+    }
+
+    /**
+     * @param bulkData  bulk data element
+     * @param from      offset of the first byte to write within the value
+     * @param length    number of bytes to write
+     */
+    public BulkDataOutput(BulkData bulkData, long from, long length) {
         this.bulkData = bulkData;
+        this.from = from;
+        this.length = length;
     }
 
     @Override
     public void write(OutputStream out) throws IOException,
             WebApplicationException {
+        File file = toFile(bulkData);
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ)) {
+                FrameOutput.transferFully(channel, bulkData.offset() + from,
+                        length, Channels.newChannel(out));
+            }
+            return;
+        }
         InputStream in = bulkData.openStream();
         try {
-            StreamUtils.copy(in, out, bulkData.length());
+            StreamUtils.skipFully(in, from);
+            StreamUtils.copy(in, out, (int) length);
         } finally {
             SafeClose.close(in);
         }
     }
 
+    private static File toFile(BulkData bulkData) {
+        try {
+            URI uri = new URI(bulkData.uriWithoutQuery());
+            return "file".equalsIgnoreCase(uri.getScheme())
+                    ? new File(uri) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the value of a HTTP Range header specifying one byte range of
+     * a value with the specified length. Returns the offset of the first
+     * and of the last byte of the range, or {@code null} if the header is
+     * absent or not a single byte range, so the whole value shall be
+     * returned.
+     *
+     * @throws IllegalArgumentException if the range cannot be satisfied
+     */
+    static long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=")
+                || range.indexOf(',') >= 0)
+            return null;
+
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+
+        long first, last;
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1).trim());
+                if (suffix <= 0)
+                    throw new IllegalArgumentException(range);
+                first = Math.max(0L, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash).trim());
+                String lastSpec = spec.substring(dash + 1).trim();
+                if (lastSpec.isEmpty()) {
+                    last = length - 1;
+                } else {
+                    last = Long.parseLong(lastSpec);
+                    if (last < first)
+                        return null;
+                    last = Math.min(last, length - 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (first >= length)
+            throw new IllegalArgumentException(range);
+        return new long[] { first, last };
+    }
 }
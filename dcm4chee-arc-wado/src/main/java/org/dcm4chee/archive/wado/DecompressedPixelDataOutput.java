@@ -54,17 +54,35 @@ import org.dcm4che3.util.SafeClose;
 public class DecompressedPixelDataOutput implements StreamingOutput {
 
     private final Decompressor decompressor;
+    private final ParallelDecompressor parallelDecompressor;
     private final int frameIndex;
 
     public DecompressedPixelDataOutput(Decompressor decompressor, int frameIndex) {
         this.decompressor = decompressor;
+        this.parallelDecompressor = null;
         this.frameIndex = frameIndex;
     }
 
+    /**
+     * Writes the frame at the given position of the frame list of the
+     * {@link ParallelDecompressor}, or all frames if {@code pos} is -1.
+     */
+    public DecompressedPixelDataOutput(ParallelDecompressor decompressor,
+            int pos) {
+        this.decompressor = null;
+        this.parallelDecompressor = decompressor;
+        this.frameIndex = pos;
+    }
+
     @Override
     public void write(OutputStream output) throws IOException,
             WebApplicationException {
-        if (frameIndex == -1)
+        if (parallelDecompressor != null) {
+            if (frameIndex == -1)
+                parallelDecompressor.writeTo(output);
+            else
+                parallelDecompressor.writeFrameTo(frameIndex, output);
+        } else if (frameIndex == -1)
             decompressor.writeTo(output);
         else {
             ImageInputStream iis = decompressor.createImageInputStream();
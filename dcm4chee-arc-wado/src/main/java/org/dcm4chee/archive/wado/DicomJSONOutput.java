@@ -77,11 +77,19 @@ public class DicomJSONOutput implements StreamingOutput {
     private CStoreSCUService service;
     private UriInfo uriInfo;
     private String aeTitle;
+    private SeriesMetadataReader metadataReader;
 
     public DicomJSONOutput(String aeTitle, UriInfo uriInfo,
             List<ArchiveInstanceLocator> refs, CStoreSCUContext ctx,
             CStoreSCUService srv) {
+        this(aeTitle, uriInfo, refs, ctx, srv, null);
+    }
+
+    public DicomJSONOutput(String aeTitle, UriInfo uriInfo,
+            List<ArchiveInstanceLocator> refs, CStoreSCUContext ctx,
+            CStoreSCUService srv, SeriesMetadataReader metadataReader) {
         this.refs = refs;
+        this.metadataReader = metadataReader;
         this.context = ctx;
         this.service = srv;
         this.aeTitle = aeTitle;
@@ -140,6 +148,9 @@ public class DicomJSONOutput implements StreamingOutput {
     }
 
     private Attributes readFrom(ArchiveInstanceLocator inst) throws IOException {
+        if (metadataReader != null)
+            return metadataReader.read(inst);
+
         try (DicomInputStream din = new DicomInputStream(service.getFile(inst)
                 .toFile())) {
             bulkDataURI = toBulkDataURI(inst.uri);
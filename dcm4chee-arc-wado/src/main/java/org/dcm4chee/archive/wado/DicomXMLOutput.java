@@ -74,11 +74,19 @@ public class DicomXMLOutput implements StreamingOutput {
     private final String bulkDataURI;
     private CStoreSCUContext context;
     private CStoreSCUService service;
+    private SeriesMetadataReader metadataReader;
     
     public DicomXMLOutput(ArchiveInstanceLocator fileRef, String bulkDataURI,
             Attributes attrs, CStoreSCUContext ctx,
             CStoreSCUService srv) {
+        this(fileRef, bulkDataURI, attrs, ctx, srv, null);
+    }
+
+    public DicomXMLOutput(ArchiveInstanceLocator fileRef, String bulkDataURI,
+            Attributes attrs, CStoreSCUContext ctx,
+            CStoreSCUService srv, SeriesMetadataReader metadataReader) {
         this.fileRef = fileRef;
+        this.metadataReader = metadataReader;
         this.bulkDataURI = bulkDataURI;
         this.attrs = attrs;
         this.context = ctx;
@@ -129,6 +137,9 @@ public class DicomXMLOutput implements StreamingOutput {
     }
 
     private Attributes readFrom(ArchiveInstanceLocator inst) throws IOException {
+        if (metadataReader != null)
+            return metadataReader.read(inst);
+
         try (DicomInputStream din = new DicomInputStream(service.getFile(inst)
                 .toFile())) {
             din.setURI(bulkDataURI);
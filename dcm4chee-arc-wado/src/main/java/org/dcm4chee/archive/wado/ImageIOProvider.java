@@ -0,0 +1,248 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides image readers and writers by format name for rendering images.
+ * The service provider of each format is looked up in the {@link ImageIO}
+ * registry only once, and released readers and writers are reset and kept
+ * for reuse, up to the pool size configured for their format by
+ * {@link ArchiveDeviceExtension#getImageIOPoolSize(String)}.
+ *
+ */
+@ApplicationScoped
+public class ImageIOProvider {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ImageIOProvider.class);
+
+    @Inject
+    private Device device;
+
+    private final ConcurrentMap<String, ImageReaderSpi> readerSpis =
+            new ConcurrentHashMap<String, ImageReaderSpi>();
+
+    private final ConcurrentMap<String, ImageWriterSpi> writerSpis =
+            new ConcurrentHashMap<String, ImageWriterSpi>();
+
+    private final ConcurrentMap<Object, Pool<ImageReader>> readerPools =
+            new ConcurrentHashMap<Object, Pool<ImageReader>>();
+
+    private final ConcurrentMap<Object, Pool<ImageWriter>> writerPools =
+            new ConcurrentHashMap<Object, Pool<ImageWriter>>();
+
+    /**
+     * Returns an image reader for the specified format, which shall be
+     * passed to {@link #releaseImageReader(ImageReader)} after use.
+     *
+     * @throws IllegalArgumentException if no reader for the format is
+     *         registered
+     */
+    public ImageReader getImageReader(String formatName) throws IOException {
+        ImageReaderSpi spi = readerSpiFor(formatName);
+        if (spi == null)
+            return lookupImageReader(formatName);
+        ImageReader reader = poolFor(readerPools, spi, formatName).poll();
+        return reader != null ? reader : spi.createReaderInstance();
+    }
+
+    /**
+     * Resets the reader and keeps it for reuse, or disposes it if the pool
+     * of its format is full.
+     */
+    public void releaseImageReader(ImageReader reader) {
+        Pool<ImageReader> pool = reader.getOriginatingProvider() != null
+                ? readerPools.get(reader.getOriginatingProvider()) : null;
+        try {
+            reader.reset();
+            if (pool != null && pool.offer(reader, maxIdle(pool.formatName)))
+                return;
+        } catch (RuntimeException e) {
+            LOG.info("Failed to reset {}", reader, e);
+        }
+        reader.dispose();
+    }
+
+    /**
+     * Returns an image writer for the specified format, which shall be
+     * passed to {@link #releaseImageWriter(ImageWriter)} after use.
+     *
+     * @throws IllegalArgumentException if no writer for the format is
+     *         registered
+     */
+    public ImageWriter getImageWriter(String formatName) throws IOException {
+        ImageWriterSpi spi = writerSpiFor(formatName);
+        if (spi == null)
+            return lookupImageWriter(formatName);
+        ImageWriter writer = poolFor(writerPools, spi, formatName).poll();
+        return writer != null ? writer : spi.createWriterInstance();
+    }
+
+    /**
+     * Resets the writer and keeps it for reuse, or disposes it if the pool
+     * of its format is full.
+     */
+    public void releaseImageWriter(ImageWriter writer) {
+        Pool<ImageWriter> pool = writer.getOriginatingProvider() != null
+                ? writerPools.get(writer.getOriginatingProvider()) : null;
+        try {
+            writer.reset();
+            if (pool != null && pool.offer(writer, maxIdle(pool.formatName)))
+                return;
+        } catch (RuntimeException e) {
+            LOG.info("Failed to reset {}", writer, e);
+        }
+        writer.dispose();
+    }
+
+    /**
+     * Returns the service provider of the first reader registered for the
+     * format, or {@code null} if that reader has no service provider, so it
+     * cannot be pooled.
+     */
+    private ImageReaderSpi readerSpiFor(String formatName) {
+        String key = formatName.toUpperCase();
+        ImageReaderSpi spi = readerSpis.get(key);
+        if (spi == null) {
+            ImageReader reader = lookupImageReader(formatName);
+            spi = reader.getOriginatingProvider();
+            reader.dispose();
+            if (spi != null)
+                readerSpis.putIfAbsent(key, spi);
+        }
+        return spi;
+    }
+
+    /**
+     * Returns the service provider of the first writer registered for the
+     * format, or {@code null} if that writer has no service provider, so it
+     * cannot be pooled.
+     */
+    private ImageWriterSpi writerSpiFor(String formatName) {
+        String key = formatName.toUpperCase();
+        ImageWriterSpi spi = writerSpis.get(key);
+        if (spi == null) {
+            ImageWriter writer = lookupImageWriter(formatName);
+            spi = writer.getOriginatingProvider();
+            writer.dispose();
+            if (spi != null)
+                writerSpis.putIfAbsent(key, spi);
+        }
+        return spi;
+    }
+
+    private static ImageReader lookupImageReader(String formatName) {
+        Iterator<ImageReader> readers =
+                ImageIO.getImageReadersByFormatName(formatName);
+        if (!readers.hasNext()) {
+            ImageIO.scanForPlugins();
+            readers = ImageIO.getImageReadersByFormatName(formatName);
+        }
+        if (!readers.hasNext())
+            throw new IllegalArgumentException(
+                    "No Image Reader for format: " + formatName);
+        return readers.next();
+    }
+
+    private static ImageWriter lookupImageWriter(String formatName) {
+        Iterator<ImageWriter> writers =
+                ImageIO.getImageWritersByFormatName(formatName);
+        if (!writers.hasNext())
+            throw new IllegalArgumentException(
+                    "No Image Writer for format: " + formatName);
+        return writers.next();
+    }
+
+    private int maxIdle(String formatName) {
+        ArchiveDeviceExtension arcDev =
+                device.getDeviceExtension(ArchiveDeviceExtension.class);
+        return arcDev != null ? arcDev.getImageIOPoolSize(formatName) : 0;
+    }
+
+    private static <T> Pool<T> poolFor(ConcurrentMap<Object, Pool<T>> pools,
+            Object spi, String formatName) {
+        Pool<T> pool = pools.get(spi);
+        if (pool == null) {
+            Pool<T> newPool = new Pool<T>(formatName);
+            pool = pools.putIfAbsent(spi, newPool);
+            if (pool == null)
+                pool = newPool;
+        }
+        return pool;
+    }
+
+    private static final class Pool<T> {
+
+        final String formatName;
+        private final BlockingDeque<T> idle = new LinkedBlockingDeque<T>();
+
+        Pool(String formatName) {
+            this.formatName = formatName;
+        }
+
+        T poll() {
+            return idle.pollFirst();
+        }
+
+        boolean offer(T t, int maxIdle) {
+            // not strictly bounded under concurrent release, which is fine
+            return idle.size() < maxIdle && idle.offerFirst(t);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.imageio.stream.ImageInputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.imageio.codec.Decompressor;
+import org.dcm4che3.util.SafeClose;
+
+/**
+ * Decompresses frames of one object concurrently by up to the configured
+ * number of threads, each using its own {@link Decompressor}. Frames are
+ * decompressed ahead in the order they are requested, so at most one
+ * decompressed frame per thread is held in memory while waiting to be
+ * written.
+ *
+ */
+public class ParallelDecompressor {
+
+    private final Attributes dataset;
+    private final String tsuid;
+    private final int[] frameIndexes;
+    private final Executor executor;
+    private final int maxThreads;
+    private final BlockingQueue<Decompressor> decompressors;
+    private final FutureTask<ByteArrayOutputStream>[] frames;
+    private int submitted;
+    private boolean disposed;
+
+    /**
+     * @param dataset       Data Set with encapsulated Pixel Data, which
+     *                      must not be passed to another
+     *                      {@link Decompressor}
+     * @param tsuid         Transfer Syntax UID of the Pixel Data
+     * @param frameIndexes  indexes of the frames, starting with 0, in the
+     *                      order they will be written
+     * @param executor      executor running the decompression
+     * @param maxThreads    maximal number of frames decompressed
+     *                      concurrently
+     */
+    @SuppressWarnings("unchecked")
+    public ParallelDecompressor(Attributes dataset, String tsuid,
+            int[] frameIndexes, Executor executor, int maxThreads) {
+        this.dataset = dataset;
+        this.tsuid = tsuid;
+        this.frameIndexes = frameIndexes;
+        this.executor = executor;
+        this.maxThreads = Math.max(1, Math.min(maxThreads, frameIndexes.length));
+        this.decompressors = new ArrayBlockingQueue<Decompressor>(this.maxThreads);
+        this.frames = new FutureTask[frameIndexes.length];
+    }
+
+    public int getNumberOfFrames() {
+        return frameIndexes.length;
+    }
+
+    /**
+     * Writes the decompressed frame at the given position of the frame
+     * index list passed on construction.
+     */
+    public void writeFrameTo(int pos, OutputStream out) throws IOException {
+        FutureTask<ByteArrayOutputStream> frame;
+        synchronized (this) {
+            if (disposed)
+                throw new IOException("Decompression aborted");
+            submitUpTo(Math.min(frameIndexes.length, pos + maxThreads));
+            frame = frames[pos];
+            frames[pos] = null;
+        }
+        if (frame == null)
+            throw new IllegalStateException("Frame #" + pos + " already written");
+
+        try {
+            frame.get().writeTo(out);
+        } catch (InterruptedException e) {
+            dispose();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            dispose();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        } catch (IOException e) {
+            dispose();
+            throw e;
+        }
+        if (pos == frameIndexes.length - 1)
+            dispose();
+    }
+
+    /**
+     * Writes all frames, as by {@link Decompressor#writeTo(OutputStream)}.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        long length = 0L;
+        for (int pos = 0; pos < frameIndexes.length; pos++) {
+            CountingOutputStream cout = new CountingOutputStream(out);
+            writeFrameTo(pos, cout);
+            length += cout.count;
+        }
+        if ((length & 1) != 0)
+            out.write(0);
+    }
+
+    /**
+     * Cancels the decompression of frames not yet written.
+     */
+    public void dispose() {
+        synchronized (this) {
+            if (disposed)
+                return;
+
+            disposed = true;
+            for (int i = 0; i < frames.length; i++) {
+                if (frames[i] != null) {
+                    frames[i].cancel(false);
+                    frames[i] = null;
+                }
+            }
+        }
+        Decompressor decompressor;
+        while ((decompressor = decompressors.poll()) != null)
+            decompressor.dispose();
+    }
+
+    private void submitUpTo(int end) {
+        while (submitted < end) {
+            final int frameIndex = frameIndexes[submitted];
+            FutureTask<ByteArrayOutputStream> task =
+                    new FutureTask<ByteArrayOutputStream>(
+                            new Callable<ByteArrayOutputStream>() {
+
+                @Override
+                public ByteArrayOutputStream call() throws Exception {
+                    return decompress(frameIndex);
+                }
+            });
+            frames[submitted++] = task;
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+    }
+
+    private ByteArrayOutputStream decompress(int frameIndex)
+            throws IOException {
+        Decompressor decompressor = acquireDecompressor();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageInputStream iis = decompressor.createImageInputStream();
+            try {
+                decompressor.writeFrameTo(iis, frameIndex, out);
+            } finally {
+                SafeClose.close(iis);
+            }
+            return out;
+        } finally {
+            releaseDecompressor(decompressor);
+        }
+    }
+
+    private Decompressor acquireDecompressor() {
+        Decompressor decompressor = decompressors.poll();
+        return decompressor != null
+                ? decompressor
+                : new Decompressor(new Attributes(dataset), tsuid);
+    }
+
+    private void releaseDecompressor(Decompressor decompressor) {
+        boolean disposeNow;
+        synchronized (this) {
+            disposeNow = disposed || !decompressors.offer(decompressor);
+        }
+        if (disposeNow)
+            decompressor.dispose();
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk backed LRU cache of rendered images, e.g. JPEG, PNG or GIF images
+ * returned by WADO-URI.
+ *
+ * Entries are stored in one sub-directory per SOP Instance UID, so all
+ * rendered images of an instance can be removed at once on invalidation.
+ * The key of an entry identifies the rendering parameters within the
+ * instance. If the accumulated size of all entries exceeds the configured
+ * maximal size, least recently used entries are deleted.
+ *
+ */
+public class RenderedImageCache {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(RenderedImageCache.class);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxSize;
+    private final LinkedHashMap<Path, Long> entries =
+            new LinkedHashMap<Path, Long>(16, 0.75f, true);
+    private long size;
+
+    public RenderedImageCache(Path directory, long maxSize) throws IOException {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize: " + maxSize);
+        this.directory = directory;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+        scan();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getNumberOfEntries() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the path of the cached image with the given key, or
+     * {@code null} if there is no such image cached.
+     */
+    public Path get(String iuid, String key) {
+        Path path = toPath(iuid, key);
+        synchronized (this) {
+            if (entries.get(path) == null)
+                return null;
+        }
+        if (Files.exists(path))
+            return path;
+
+        remove(path);
+        return null;
+    }
+
+    /**
+     * Creates a temporary file in the cache directory, into which the caller
+     * shall write the rendered image before passing it to
+     * {@link #put(String, String, Path)}.
+     */
+    public Path createTempFile() throws IOException {
+        return Files.createTempFile(directory, null, TMP_SUFFIX);
+    }
+
+    /**
+     * Moves the temporary file into the cache and deletes least recently
+     * used entries, if the maximal size of the cache is exceeded.
+     *
+     * @return the path of the cached image
+     */
+    public Path put(String iuid, String key, Path tmp) throws IOException {
+        Path path = toPath(iuid, key);
+        long length = Files.size(tmp);
+        Files.createDirectories(path.getParent());
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        List<Path> evicted;
+        synchronized (this) {
+            Long prev = entries.put(path, length);
+            if (prev != null)
+                size -= prev;
+            size += length;
+            evicted = evict(path);
+        }
+        delete(evicted);
+        return path;
+    }
+
+    /**
+     * Removes all cached images of the SOP Instance with the given UID.
+     */
+    public void invalidate(String iuid) {
+        Path dir = directory.resolve(iuid);
+        if (!Files.isDirectory(dir))
+            return;
+
+        List<Path> removed = new ArrayList<Path>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files)
+                removed.add(file);
+        } catch (IOException e) {
+            LOG.warn("Failed to list cached images in {}", dir, e);
+        }
+        synchronized (this) {
+            for (Path path : removed)
+                remove(path);
+        }
+        delete(removed);
+        deleteDirectory(dir);
+    }
+
+    /**
+     * Removes all cached images.
+     */
+    public void clear() {
+        List<Path> removed;
+        synchronized (this) {
+            removed = new ArrayList<Path>(entries.keySet());
+            entries.clear();
+            size = 0L;
+        }
+        delete(removed);
+        for (Path path : removed)
+            deleteDirectory(path.getParent());
+    }
+
+    private Path toPath(String iuid, String key) {
+        return directory.resolve(iuid).resolve(key);
+    }
+
+    private synchronized void remove(Path path) {
+        Long length = entries.remove(path);
+        if (length != null)
+            size -= length;
+    }
+
+    private List<Path> evict(Path retain) {
+        List<Path> evicted = new ArrayList<Path>();
+        for (Iterator<Map.Entry<Path, Long>> iter =
+                entries.entrySet().iterator();
+                size > maxSize && iter.hasNext();) {
+            Map.Entry<Path, Long> entry = iter.next();
+            if (entry.getKey().equals(retain))
+                continue;
+            size -= entry.getValue();
+            evicted.add(entry.getKey());
+            iter.remove();
+        }
+        return evicted;
+    }
+
+    private static void delete(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete cached image {}", path, e);
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path dir) {
+        try {
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            // not empty, if another image was put concurrently
+        }
+    }
+
+    /**
+     * Registers images already in the cache directory, e.g. from before a
+     * restart, in the order of their last modification.
+     */
+    private void scan() throws IOException {
+        final ArrayList<Path> paths = new ArrayList<Path>();
+        final Map<Path, Long> lastModified = new LinkedHashMap<Path, Long>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(directory)) {
+            for (Path dir : dirs) {
+                if (!Files.isDirectory(dir)) {
+                    if (dir.getFileName().toString().endsWith(TMP_SUFFIX))
+                        Files.deleteIfExists(dir);
+                    continue;
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        paths.add(file);
+                        lastModified.put(file,
+                                Files.getLastModifiedTime(file).toMillis());
+                    }
+                }
+            }
+        }
+        Collections.sort(paths, new Comparator<Path>() {
+
+            @Override
+            public int compare(Path o1, Path o2) {
+                return lastModified.get(o1).compareTo(lastModified.get(o2));
+            }
+        });
+        List<Path> evicted;
+        synchronized (this) {
+            for (Path path : paths) {
+                long length = Files.size(path);
+                entries.put(path, length);
+                size += length;
+            }
+            evicted = evict(null);
+        }
+        delete(evicted);
+        LOG.info("Rendered image cache {} contains {} images of {} bytes",
+                directory, entries.size(), size);
+    }
+}
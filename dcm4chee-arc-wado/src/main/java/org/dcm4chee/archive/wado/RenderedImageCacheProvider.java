@@ -0,0 +1,141 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.dto.QCEventInstance;
+import org.dcm4chee.archive.qc.QCEvent;
+import org.dcm4chee.archive.store.StoreContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the {@link RenderedImageCache} configured for the archive device
+ * and removes cached images of instances which are stored again or modified
+ * or deleted by QC operations.
+ *
+ */
+@ApplicationScoped
+public class RenderedImageCacheProvider {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(RenderedImageCacheProvider.class);
+
+    @Inject
+    private Device device;
+
+    private volatile RenderedImageCache cache;
+
+    /**
+     * Returns the rendered image cache, or {@code null} if no cache
+     * directory is configured or the cache directory is not accessible.
+     */
+    public RenderedImageCache getRenderedImageCache() {
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        String dir = arcDev != null
+                ? arcDev.getRenderedImageCacheDirectory() : null;
+        long maxSize = arcDev != null
+                ? arcDev.getRenderedImageCacheMaxSize() : 0L;
+        if (dir == null || maxSize <= 0)
+            return null;
+
+        Path path = Paths.get(StringUtils.replaceSystemProperties(dir));
+        RenderedImageCache tmp = cache;
+        if (tmp == null || !tmp.getDirectory().equals(path)
+                || tmp.getMaxSize() != maxSize)
+            tmp = createCache(path, maxSize);
+        return tmp;
+    }
+
+    private synchronized RenderedImageCache createCache(Path path,
+            long maxSize) {
+        RenderedImageCache tmp = cache;
+        if (tmp != null && tmp.getDirectory().equals(path)
+                && tmp.getMaxSize() == maxSize)
+            return tmp;
+
+        try {
+            cache = tmp = new RenderedImageCache(path, maxSize);
+        } catch (IOException e) {
+            LOG.warn("Failed to initialize rendered image cache {}", path, e);
+            cache = tmp = null;
+        }
+        return tmp;
+    }
+
+    public void onStore(@Observes StoreContext context) {
+        RenderedImageCache tmp = cache;
+        Attributes attrs = context.getAttributes();
+        if (tmp != null && attrs != null) {
+            String iuid = attrs.getString(Tag.SOPInstanceUID);
+            if (iuid != null)
+                tmp.invalidate(iuid);
+        }
+    }
+
+    public void onQC(@Observes QCEvent event) {
+        RenderedImageCache tmp = cache;
+        if (tmp != null) {
+            invalidate(tmp, event.getSource());
+            invalidate(tmp, event.getTarget());
+        }
+    }
+
+    private static void invalidate(RenderedImageCache cache,
+            Collection<QCEventInstance> insts) {
+        if (insts != null)
+            for (QCEventInstance inst : insts)
+                if (inst.getSopInstanceUID() != null)
+                    cache.invalidate(inst.getSopInstanceUID());
+    }
+}
@@ -0,0 +1,190 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.store.scu.CStoreSCUService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the Data Sets of instances returned by one WADO-RS metadata
+ * request from the metadata documents of their series, loading each document
+ * only once per request. Instances missing in the document of their series
+ * are read from their file and appended to the document.
+ *
+ */
+public class SeriesMetadataReader {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SeriesMetadataReader.class);
+
+    private final SeriesMetadataStore store;
+    private final CStoreSCUService service;
+    private final String bulkDataURIPrefix;
+    private final Map<String, Map<String, Attributes>> documents =
+            new HashMap<String, Map<String, Attributes>>();
+
+    public SeriesMetadataReader(SeriesMetadataStore store,
+            CStoreSCUService service, String bulkDataURIPrefix) {
+        this.store = store;
+        this.service = service;
+        this.bulkDataURIPrefix = bulkDataURIPrefix;
+    }
+
+    /**
+     * Returns the Data Set of the instance, with bulk data URIs relative to
+     * the bulk data URI prefix passed on construction.
+     */
+    public synchronized Attributes read(ArchiveInstanceLocator ref)
+            throws IOException {
+        String studyIUID = ref.getStudyInstanceUID();
+        String seriesIUID = ref.getSeriesInstanceUID();
+        if (ref.uri == null || ref.isWithoutBulkdata()
+                || studyIUID == null || seriesIUID == null)
+            return readFrom(ref, bulkDataURIPrefix + toBulkDataPath(ref.uri));
+
+        Map<String, Attributes> document = documents.get(seriesIUID);
+        if (document == null) {
+            document = readDocument(studyIUID, seriesIUID);
+            documents.put(seriesIUID, document);
+        }
+        Attributes dataset = document.remove(ref.iuid);
+        if (dataset == null) {
+            dataset = readFrom(ref, toBulkDataPath(ref.uri));
+            try {
+                store.append(studyIUID, seriesIUID,
+                        Collections.singleton(dataset));
+            } catch (IOException e) {
+                LOG.warn("Failed to add instance {} to metadata document of "
+                        + "series {}", ref.iuid, seriesIUID, e);
+            }
+        }
+        return resolveBulkDataURIs(dataset, bulkDataURIPrefix);
+    }
+
+    private Map<String, Attributes> readDocument(String studyIUID,
+            String seriesIUID) {
+        try {
+            return store.read(studyIUID, seriesIUID);
+        } catch (IOException e) {
+            LOG.warn("Failed to read metadata document of series {}",
+                    seriesIUID, e);
+            return new HashMap<String, Attributes>();
+        }
+    }
+
+    private Attributes readFrom(ArchiveInstanceLocator ref, String bulkDataURI)
+            throws IOException {
+        try (DicomInputStream din = new DicomInputStream(service.getFile(ref)
+                .toFile())) {
+            din.setURI(bulkDataURI);
+            din.setIncludeBulkData(IncludeBulkData.URI);
+            return toMetadata(din.readDataset(-1, -1));
+        }
+    }
+
+    /**
+     * Returns the path of the bulk data URIs of the file with the specified
+     * URI, as referenced by metadata documents.
+     */
+    static String toBulkDataPath(String uri) {
+        return URI.create(uri).getPath();
+    }
+
+    /**
+     * Replaces encapsulated Pixel Data by one bulk data reference to the
+     * whole Pixel Data of the file.
+     */
+    static Attributes toMetadata(Attributes dataset) {
+        Object pixelData = dataset.getValue(Tag.PixelData);
+        if (pixelData instanceof Fragments) {
+            Fragments frags = (Fragments) pixelData;
+            dataset.setValue(Tag.PixelData, VR.OB,
+                    new BulkData(((BulkData) frags.get(1)).uriWithoutQuery(),
+                            0, -1, dataset.bigEndian()));
+        }
+        return dataset;
+    }
+
+    /**
+     * Prepends the prefix to all bulk data URIs of the Data Set.
+     */
+    static Attributes resolveBulkDataURIs(Attributes dataset,
+            final String prefix) {
+        final List<Object[]> bulkData = new ArrayList<Object[]>();
+        try {
+            dataset.accept(new Attributes.Visitor() {
+
+                @Override
+                public boolean visit(Attributes attrs, int tag, VR vr,
+                        Object value) {
+                    if (value instanceof BulkData)
+                        bulkData.add(new Object[] { attrs, tag, vr, value });
+                    return true;
+                }
+            }, true);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        for (Object[] entry : bulkData) {
+            Attributes attrs = (Attributes) entry[0];
+            BulkData bd = (BulkData) entry[3];
+            attrs.setValue((Integer) entry[1], (VR) entry[2],
+                    new BulkData(prefix + bd.uriWithoutQuery(), bd.offset(),
+                            bd.length(), attrs.bigEndian()));
+        }
+        return dataset;
+    }
+}
@@ -0,0 +1,278 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.QueryOption;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.dto.QCEventInstance;
+import org.dcm4chee.archive.qc.QCEvent;
+import org.dcm4chee.archive.retrieve.RetrieveService;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.scu.CStoreSCUService;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains the metadata documents of series served by WADO-RS metadata
+ * requests. Received instances are appended to the document of their series
+ * asynchronously after storage. Documents of series affected by QC
+ * operations are deleted and rebuilt asynchronously after the QC
+ * transaction completed.
+ *
+ */
+@ApplicationScoped
+public class SeriesMetadataService {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SeriesMetadataService.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private RetrieveService retrieveService;
+
+    @Inject
+    private CStoreSCUService storescuService;
+
+    private volatile SeriesMetadataStore store;
+
+    /**
+     * Returns the store of metadata documents, or {@code null} if no
+     * directory for metadata documents is configured.
+     */
+    public SeriesMetadataStore getSeriesMetadataStore() {
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        String dir = arcDev != null
+                ? arcDev.getSeriesMetadataDirectory() : null;
+        if (dir == null)
+            return null;
+
+        Path path = Paths.get(StringUtils.replaceSystemProperties(dir));
+        SeriesMetadataStore tmp = store;
+        if (tmp == null || !tmp.getDirectory().equals(path))
+            store = tmp = new SeriesMetadataStore(path);
+        return tmp;
+    }
+
+    /**
+     * Returns a reader of metadata documents for one WADO-RS request, or
+     * {@code null} if no directory for metadata documents is configured.
+     */
+    public SeriesMetadataReader createReader(String bulkDataURIPrefix) {
+        SeriesMetadataStore tmp = getSeriesMetadataStore();
+        return tmp != null
+                ? new SeriesMetadataReader(tmp, storescuService,
+                        bulkDataURIPrefix)
+                : null;
+    }
+
+    public void onStore(@Observes StoreContext context) {
+        if (context.isFail() || context.getFileRef() == null
+                || context.getStoragePath() == null)
+            return;
+
+        final SeriesMetadataStore tmp = getSeriesMetadataStore();
+        Attributes attrs = context.getAttributes();
+        StorageSystem storageSystem =
+                context.getStoreSession().getStorageSystem();
+        if (tmp == null || attrs == null || storageSystem == null)
+            return;
+
+        final String studyIUID = attrs.getString(Tag.StudyInstanceUID);
+        final String seriesIUID = attrs.getString(Tag.SeriesInstanceUID);
+        final Path file = Paths.get(storageSystem.getStorageSystemPath())
+                .resolve(context.getStoragePath());
+        if (studyIUID == null || seriesIUID == null)
+            return;
+
+        device.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (!Files.isRegularFile(file))
+                    return;
+                try {
+                    tmp.append(studyIUID, seriesIUID, Collections.singleton(
+                            readFrom(file.toFile(),
+                                    SeriesMetadataReader.toBulkDataPath(
+                                            file.toUri().toString()))));
+                } catch (IOException e) {
+                    LOG.warn("Failed to add {} to metadata document of "
+                            + "series {}", file, seriesIUID, e);
+                }
+            }
+        });
+    }
+
+    public void onQC(@Observes QCEvent event) {
+        SeriesMetadataStore tmp = store;
+        if (tmp != null)
+            for (String[] series : affectedSeries(event))
+                tmp.delete(series[0], series[1]);
+    }
+
+    public void onQCCompleted(
+            @Observes(during = TransactionPhase.AFTER_SUCCESS) QCEvent event) {
+        final SeriesMetadataStore tmp = store;
+        if (tmp == null)
+            return;
+
+        final Collection<String[]> affectedSeries = affectedSeries(event);
+        if (affectedSeries.isEmpty())
+            return;
+
+        device.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                for (String[] series : affectedSeries)
+                    rebuild(tmp, series[0], series[1]);
+            }
+        });
+    }
+
+    private void rebuild(SeriesMetadataStore tmp, String studyIUID,
+            String seriesIUID) {
+        QueryParam queryParam = defaultQueryParam();
+        if (queryParam == null)
+            return;
+
+        try {
+            List<ArchiveInstanceLocator> refs = retrieveService
+                    .calculateMatches(studyIUID, seriesIUID, null, queryParam,
+                            false);
+            if (refs.isEmpty())
+                return;
+
+            List<Attributes> datasets = new ArrayList<Attributes>(refs.size());
+            for (ArchiveInstanceLocator ref : refs) {
+                if (ref.uri == null)
+                    continue;
+                datasets.add(readFrom(storescuService.getFile(ref).toFile(),
+                        SeriesMetadataReader.toBulkDataPath(ref.uri)));
+            }
+            tmp.write(studyIUID, seriesIUID, datasets);
+            LOG.info("Rebuilt metadata document of series {} with {} instances",
+                    seriesIUID, datasets.size());
+        } catch (Exception e) {
+            tmp.delete(studyIUID, seriesIUID);
+            LOG.warn("Failed to rebuild metadata document of series {}",
+                    seriesIUID, e);
+        }
+    }
+
+    private QueryParam defaultQueryParam() {
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        ApplicationEntity ae = arcDev != null
+                ? device.getApplicationEntity(arcDev.getDefaultAETitle())
+                : null;
+        ArchiveAEExtension arcAE = ae != null
+                ? ae.getAEExtension(ArchiveAEExtension.class) : null;
+        if (arcAE == null) {
+            LOG.info("No default AE configured - metadata documents will be "
+                    + "rebuilt on next retrieve");
+            return null;
+        }
+        return arcAE.getQueryParam(EnumSet.noneOf(QueryOption.class),
+                new String[0]);
+    }
+
+    private static Attributes readFrom(File file, String bulkDataURI)
+            throws IOException {
+        try (DicomInputStream din = new DicomInputStream(file)) {
+            din.setURI(bulkDataURI);
+            din.setIncludeBulkData(IncludeBulkData.URI);
+            return SeriesMetadataReader.toMetadata(din.readDataset(-1, -1));
+        }
+    }
+
+    private static Collection<String[]> affectedSeries(QCEvent event) {
+        Set<List<String>> uids = new LinkedHashSet<List<String>>();
+        addSeries(uids, event.getSource());
+        addSeries(uids, event.getTarget());
+        List<String[]> series = new ArrayList<String[]>(uids.size());
+        for (List<String> entry : uids)
+            series.add(entry.toArray(new String[2]));
+        return series;
+    }
+
+    private static void addSeries(Set<List<String>> uids,
+            Collection<QCEventInstance> insts) {
+        if (insts != null)
+            for (QCEventInstance inst : insts)
+                if (inst.getStudyInstanceUID() != null
+                        && inst.getSeriesInstanceUID() != null)
+                    uids.add(Arrays.asList(
+                            inst.getStudyInstanceUID(),
+                            inst.getSeriesInstanceUID()));
+    }
+}
@@ -0,0 +1,216 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonGenerator;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.json.JSONReader;
+import org.dcm4che3.json.JSONWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores one metadata document per series, containing the Data Sets of all
+ * instances of the series without bulk data, which is referenced by bulk
+ * data URIs relative to the bulk data resource of the WADO-RS service.
+ *
+ * A document consists of one line per instance with its Data Set in DICOM
+ * JSON, so instances can be appended cheaply. If an instance occurs several
+ * times, the last occurrence supersedes the previous ones.
+ *
+ */
+public class SeriesMetadataStore {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SeriesMetadataStore.class);
+
+    private static final String SUFFIX = ".json";
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path directory;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public SeriesMetadataStore(Path directory) {
+        this.directory = directory;
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the Data Sets of the metadata document of the series by SOP
+     * Instance UID, or an empty map if there is no document for the series.
+     */
+    public Map<String, Attributes> read(String studyIUID, String seriesIUID)
+            throws IOException {
+        Map<String, Attributes> datasets = new LinkedHashMap<String, Attributes>();
+        Path path = toPath(studyIUID, seriesIUID);
+        try (BufferedReader reader = Files.newBufferedReader(path,
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Attributes dataset = parse(line);
+                String iuid = dataset != null
+                        ? dataset.getString(Tag.SOPInstanceUID) : null;
+                if (iuid != null)
+                    datasets.put(iuid, dataset);
+                else
+                    LOG.info("Ignore invalid entry in {}", path);
+            }
+        } catch (NoSuchFileException e) {
+            // no document for this series
+        }
+        return datasets;
+    }
+
+    /**
+     * Appends the Data Sets to the metadata document of the series.
+     */
+    public void append(String studyIUID, String seriesIUID,
+            Collection<Attributes> datasets) throws IOException {
+        Path path = toPath(studyIUID, seriesIUID);
+        synchronized (lockFor(path)) {
+            Files.createDirectories(path.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(path,
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND)) {
+                write(writer, datasets);
+            }
+        }
+    }
+
+    /**
+     * Replaces the metadata document of the series.
+     */
+    public void write(String studyIUID, String seriesIUID,
+            Collection<Attributes> datasets) throws IOException {
+        Path path = toPath(studyIUID, seriesIUID);
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), null, ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp,
+                    StandardCharsets.UTF_8)) {
+                write(writer, datasets);
+            }
+            synchronized (lockFor(path)) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Deletes the metadata document of the series.
+     */
+    public void delete(String studyIUID, String seriesIUID) {
+        Path path = toPath(studyIUID, seriesIUID);
+        try {
+            synchronized (lockFor(path)) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to delete metadata document {}", path, e);
+        }
+    }
+
+    private Path toPath(String studyIUID, String seriesIUID) {
+        return directory.resolve(studyIUID).resolve(seriesIUID + SUFFIX);
+    }
+
+    private Object lockFor(Path path) {
+        return locks[(path.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    private static void write(BufferedWriter writer,
+            Collection<Attributes> datasets) throws IOException {
+        for (Attributes dataset : datasets) {
+            writer.write(format(dataset));
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Formats the Data Set as DICOM JSON in one line.
+     */
+    static String format(Attributes dataset) {
+        StringWriter sw = new StringWriter();
+        JsonGenerator gen = Json.createGenerator(sw);
+        new JSONWriter(gen).write(dataset);
+        gen.flush();
+        return sw.toString();
+    }
+
+    private static Attributes parse(String line) {
+        try {
+            Attributes dataset = new Attributes();
+            new JSONReader(Json.createParser(new StringReader(line)))
+                    .readDataset(dataset);
+            return dataset;
+        } catch (JsonException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.dcm4chee.archive.conf.Entity;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.store.scu.CStoreSCUContext;
+import org.dcm4chee.archive.store.scu.CStoreSCUService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates the retrieve suppression criteria of one WADO-RS request.
+ *
+ * If all attributes referenced by the criteria template are stored in the
+ * database according to the configured attribute filters, the criteria are
+ * applied on the attributes already decoded into the
+ * {@link ArchiveInstanceLocator}, and - if none of them is an instance level
+ * attribute - only once per series. Otherwise the attributes are read from
+ * the file of each instance.
+ *
+ */
+class SuppressionCriteriaEvaluator {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SuppressionCriteriaEvaluator.class);
+
+    private static final Pattern TAG = Pattern.compile(
+            "tag\\s*=\\s*[\"']([0-9A-Fa-f]{8})[\"']");
+
+    private static final Pattern KEYWORD = Pattern.compile(
+            "keyword\\s*=\\s*[\"']([A-Za-z0-9]+)[\"']");
+
+    private enum Source { FILE, INSTANCE, SERIES }
+
+    private final CStoreSCUService service;
+    private final String templateURI;
+    private final CStoreSCUContext context;
+    private final Source source;
+    private final Map<String, Boolean> seriesDecisions =
+            new HashMap<String, Boolean>();
+
+    SuppressionCriteriaEvaluator(CStoreSCUService service,
+            ArchiveDeviceExtension arcDev, String templateURI,
+            CStoreSCUContext context) {
+        this.service = service;
+        this.templateURI = templateURI;
+        this.context = context;
+        this.source = selectSource(arcDev,
+                referencedTags(StringUtils.replaceSystemProperties(templateURI)));
+        LOG.debug("Evaluate suppression criteria {} on {} attributes",
+                templateURI, source);
+    }
+
+    /**
+     * Returns {@code true} if the instance shall be suppressed.
+     */
+    boolean isSuppressed(ArchiveInstanceLocator ref) {
+        switch (source) {
+        case SERIES:
+            String seriesIUID = ref.getSeriesInstanceUID();
+            Boolean suppressed = seriesDecisions.get(seriesIUID);
+            if (suppressed == null) {
+                suppressed = apply(ref, (Attributes) ref.getObject());
+                if (seriesIUID != null)
+                    seriesDecisions.put(seriesIUID, suppressed);
+            }
+            return suppressed;
+        case INSTANCE:
+            return apply(ref, (Attributes) ref.getObject());
+        default:
+            return apply(ref, readFileAttributes(ref));
+        }
+    }
+
+    private boolean apply(ArchiveInstanceLocator ref, Attributes attrs) {
+        return service.applySuppressionCriteria(ref, attrs, templateURI,
+                context) == null;
+    }
+
+    private Attributes readFileAttributes(ArchiveInstanceLocator ref) {
+        DicomInputStream dis = null;
+        try {
+            dis = new DicomInputStream(service.getFile(ref).toFile());
+            dis.setIncludeBulkData(IncludeBulkData.URI);
+            Attributes dataset = dis.readDataset(-1, -1);
+            return dataset;
+        } catch (IOException e) {
+            LOG.error(
+                    "Unable to read file, Exception {}, using the blob for coercion - (Incomplete Coercion)",
+                    e);
+            return (Attributes) ref.getObject();
+        } finally {
+            SafeClose.close(dis);
+        }
+    }
+
+    private static Source selectSource(ArchiveDeviceExtension arcDev,
+            int[] tags) {
+        if (arcDev == null || tags == null)
+            return Source.FILE;
+
+        Source source = Source.SERIES;
+        for (int tag : tags) {
+            if (contains(arcDev, Entity.Instance, tag))
+                source = Source.INSTANCE;
+            else if (!contains(arcDev, Entity.Series, tag)
+                    && !contains(arcDev, Entity.Study, tag)
+                    && !contains(arcDev, Entity.Patient, tag))
+                return Source.FILE;
+        }
+        return source;
+    }
+
+    private static boolean contains(ArchiveDeviceExtension arcDev,
+            Entity entity, int tag) {
+        AttributeFilter filter = arcDev.getAttributeFilter(entity);
+        return filter != null && filter.getSelection() != null
+                && Arrays.binarySearch(filter.getSelection(), tag) >= 0;
+    }
+
+    /**
+     * Returns the tags of all attributes referenced by the template, or
+     * {@code null} if they cannot be determined, because the template
+     * cannot be read, includes other templates or does not reference any
+     * attribute by tag or keyword.
+     */
+    static int[] referencedTags(String uri) {
+        String template;
+        try {
+            InputStream in = new URL(uri).openStream();
+            try {
+                Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+                template = scanner.hasNext() ? scanner.next() : "";
+            } finally {
+                SafeClose.close(in);
+            }
+        } catch (IOException e) {
+            LOG.info("Failed to read suppression criteria template {}", uri, e);
+            return null;
+        }
+        return referencedTagsOf(template);
+    }
+
+    static int[] referencedTagsOf(String template) {
+        if (template.contains("xsl:import") || template.contains("xsl:include"))
+            return null;
+
+        int[] tags = new int[8];
+        int n = 0;
+        Matcher m = TAG.matcher(template);
+        while (m.find()) {
+            if (n == tags.length)
+                tags = Arrays.copyOf(tags, n << 1);
+            tags[n++] = (int) Long.parseLong(m.group(1), 16);
+        }
+        m = KEYWORD.matcher(template);
+        while (m.find()) {
+            int tag = ElementDictionary.tagForKeyword(m.group(1), null);
+            if (tag == -1)
+                return null;
+            if (n == tags.length)
+                tags = Arrays.copyOf(tags, n << 1);
+            tags[n++] = tag;
+        }
+        return n > 0 ? Arrays.copyOf(tags, n) : null;
+    }
+}
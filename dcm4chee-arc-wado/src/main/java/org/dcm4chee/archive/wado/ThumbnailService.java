@@ -0,0 +1,373 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.image.PaletteColorModel;
+import org.dcm4che3.imageio.plugins.dcm.DicomImageReadParam;
+import org.dcm4che3.imageio.plugins.dcm.DicomMetaData;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.QueryOption;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.retrieve.RetrieveService;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.scu.CStoreSCUService;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders JPEG thumbnails of received images into the
+ * {@link RenderedImageCache} in the background, so they are already cached
+ * when requested by WADO-URI with the same rows and columns and without
+ * other rendering parameters.
+ *
+ * Thumbnails are rendered for each received instance, if configured, and
+ * for the middle instance - by Instance Number - of each series, after the
+ * configured delay following the reception of an instance of the series.
+ * Pending thumbnails are rendered one by one by a single thread. If the
+ * number of pending thumbnails exceeds the configured queue size, further
+ * thumbnails are not rendered in advance, so rendering never competes with
+ * storage of instances.
+ *
+ */
+@ApplicationScoped
+public class ThumbnailService {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ThumbnailService.class);
+
+    private static final String SUFFIX = "jpg";
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private RenderedImageCacheProvider renderedImageCacheProvider;
+
+    @Inject
+    private ImageIOProvider imageIOProvider;
+
+    @Inject
+    private RetrieveService retrieveService;
+
+    @Inject
+    private CStoreSCUService storescuService;
+
+    private final LinkedBlockingQueue<Runnable> queue =
+            new LinkedBlockingQueue<Runnable>();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final Set<String> scheduledSeries = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public void onStore(@Observes StoreContext context) {
+        if (context.isFail() || context.getFileRef() == null
+                || context.getStoragePath() == null)
+            return;
+
+        final ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        Attributes attrs = context.getAttributes();
+        StorageSystem storageSystem =
+                context.getStoreSession().getStorageSystem();
+        if (arcDev == null || arcDev.getThumbnailSizes().length == 0
+                || attrs == null || !attrs.containsValue(Tag.Rows)
+                || storageSystem == null)
+            return;
+
+        final String studyIUID = attrs.getString(Tag.StudyInstanceUID);
+        final String seriesIUID = attrs.getString(Tag.SeriesInstanceUID);
+        final String iuid = attrs.getString(Tag.SOPInstanceUID);
+        if (studyIUID == null || seriesIUID == null || iuid == null)
+            return;
+
+        if (arcDev.isThumbnailPerInstance()) {
+            final File file = Paths.get(storageSystem.getStorageSystemPath())
+                    .resolve(context.getStoragePath()).toFile();
+            enqueue(new Runnable() {
+
+                @Override
+                public void run() {
+                    render(iuid, file);
+                }
+            });
+        }
+
+        if (scheduledSeries.add(seriesIUID))
+            device.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    scheduledSeries.remove(seriesIUID);
+                    enqueue(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            renderMiddleInstance(studyIUID, seriesIUID);
+                        }
+                    });
+                }
+            }, arcDev.getThumbnailSeriesDelay(), TimeUnit.SECONDS);
+    }
+
+    private void enqueue(Runnable task) {
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        if (queue.size() >= arcDev.getThumbnailQueueSize()) {
+            LOG.debug("Thumbnail queue full - skip rendering of thumbnail");
+            return;
+        }
+        queue.offer(task);
+        if (draining.compareAndSet(false, true))
+            try {
+                device.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                queue.clear();
+            }
+    }
+
+    private void drain() {
+        do {
+            Runnable task;
+            while ((task = queue.poll()) != null)
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    LOG.warn("Failed to render thumbnail", e);
+                }
+            draining.set(false);
+        } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void renderMiddleInstance(String studyIUID, String seriesIUID) {
+        ArchiveAEExtension arcAE = defaultArchiveAEExtension();
+        if (arcAE == null)
+            return;
+
+        try {
+            List<ArchiveInstanceLocator> refs = retrieveService
+                    .calculateMatches(studyIUID, seriesIUID, null,
+                            arcAE.getQueryParam(
+                                    EnumSet.noneOf(QueryOption.class),
+                                    new String[0]), false);
+            List<ArchiveInstanceLocator> images =
+                    new ArrayList<ArchiveInstanceLocator>(refs.size());
+            for (ArchiveInstanceLocator ref : refs)
+                if (ref.getStorageSystem() != null
+                        && ((Attributes) ref.getObject())
+                                .containsValue(Tag.Rows))
+                    images.add(ref);
+            if (images.isEmpty())
+                return;
+
+            Collections.sort(images, new Comparator<ArchiveInstanceLocator>() {
+
+                @Override
+                public int compare(ArchiveInstanceLocator o1,
+                        ArchiveInstanceLocator o2) {
+                    return Integer.compare(instanceNumber(o1),
+                            instanceNumber(o2));
+                }
+            });
+            ArchiveInstanceLocator ref = images.get(images.size() / 2);
+            render(ref.iuid, storescuService.getFile(ref).toFile());
+        } catch (Exception e) {
+            LOG.warn("Failed to render thumbnail of series {}", seriesIUID, e);
+        }
+    }
+
+    private static int instanceNumber(ArchiveInstanceLocator ref) {
+        return ((Attributes) ref.getObject()).getInt(Tag.InstanceNumber, 0);
+    }
+
+    private void render(String iuid, File file) {
+        RenderedImageCache cache =
+                renderedImageCacheProvider.getRenderedImageCache();
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        ArchiveAEExtension arcAE = defaultArchiveAEExtension();
+        if (cache == null || arcAE == null || !file.isFile())
+            return;
+
+        boolean overlays = arcAE.isWadoOverlayRendering();
+        Attributes imgAttrs = new Attributes();
+        BufferedImage bi = null;
+        for (String size : arcDev.getThumbnailSizes()) {
+            int[] rowsColumns = parseSize(size);
+            if (rowsColumns == null) {
+                LOG.info("Ignore invalid thumbnail size {}", size);
+                continue;
+            }
+            String key = WadoURI.renderedImageKey(SUFFIX, 0,
+                    rowsColumns[0], rowsColumns[1], 0f, 0f, 0, overlays,
+                    null, null, null);
+            if (cache.get(iuid, key) != null)
+                continue;
+
+            try {
+                if (bi == null)
+                    bi = readImage(file, overlays, imgAttrs);
+                write(cache, iuid, key, WadoURI.rescale(bi, imgAttrs, null,
+                        rowsColumns[0], rowsColumns[1]));
+            } catch (IOException e) {
+                LOG.info("Failed to render thumbnail of {}", file, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the first frame of the image without rescaling and adds the Data
+     * Set of the image to {@code imgAttrs}.
+     */
+    private BufferedImage readImage(File file, boolean overlays,
+            Attributes imgAttrs) throws IOException {
+        ImageReader reader = imageIOProvider.getImageReader("DICOM");
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            reader.setInput(iis);
+            DicomMetaData metaData = (DicomMetaData) reader.getStreamMetadata();
+            DicomImageReadParam param =
+                    (DicomImageReadParam) reader.getDefaultReadParam();
+            param.setOverlayActivationMask(overlays ? 0xf : 0x0);
+            imgAttrs.addAll(metaData.getAttributes());
+            return reader.read(0, param);
+        } finally {
+            imageIOProvider.releaseImageReader(reader);
+        }
+    }
+
+    private void write(RenderedImageCache cache, String iuid, String key,
+            BufferedImage bi) throws IOException {
+        ColorModel cm = bi.getColorModel();
+        if (cm instanceof PaletteColorModel)
+            bi = ((PaletteColorModel) cm).convertToIntDiscrete(bi.getData());
+
+        Path tmp = cache.createTempFile();
+        try {
+            ImageWriter imageWriter = imageIOProvider.getImageWriter("JPEG");
+            try {
+                ImageOutputStream imageOut = new FileImageOutputStream(
+                        tmp.toFile());
+                try {
+                    imageWriter.setOutput(imageOut);
+                    imageWriter.write(null, new IIOImage(bi, null, null),
+                            imageWriter.getDefaultWriteParam());
+                } finally {
+                    imageOut.close();
+                }
+            } finally {
+                imageIOProvider.releaseImageWriter(imageWriter);
+            }
+            cache.put(iuid, key, tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Parses a thumbnail size configured as {@code <rows>x<columns>}, where
+     * 0 rows or columns preserve the aspect ratio of the image.
+     */
+    static int[] parseSize(String size) {
+        int x = size.indexOf('x');
+        if (x < 0)
+            return null;
+        try {
+            int rows = Integer.parseInt(size.substring(0, x).trim());
+            int columns = Integer.parseInt(size.substring(x + 1).trim());
+            return rows >= 0 && columns >= 0 && (rows | columns) != 0
+                    ? new int[] { rows, columns }
+                    : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private ArchiveAEExtension defaultArchiveAEExtension() {
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        ApplicationEntity ae = arcDev != null
+                ? device.getApplicationEntity(arcDev.getDefaultAETitle())
+                : null;
+        return ae != null ? ae.getAEExtension(ArchiveAEExtension.class) : null;
+    }
+}
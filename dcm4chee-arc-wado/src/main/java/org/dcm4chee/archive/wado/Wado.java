@@ -43,6 +43,10 @@ import java.util.EnumSet;
 import javax.inject.Inject;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
 import org.dcm4che3.net.ApplicationEntity;
@@ -51,6 +55,8 @@ import org.dcm4che3.net.QueryOption;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.query.QueryService;
+import org.dcm4chee.archive.query.ResourceVersion;
 import org.dcm4chee.archive.retrieve.RetrieveService;
 import org.dcm4chee.archive.store.scu.CStoreSCUService;
 
@@ -75,6 +81,19 @@ public class Wado {
     
     @Inject
     protected CStoreSCUService storescuService;
+
+    @Inject
+    protected QueryService queryService;
+
+    @Context
+    private Request conditionalRequest;
+
+    @Context
+    private HttpHeaders conditionalHeaders;
+
+    private ResourceVersion resourceVersion;
+
+    private EntityTag entityTag;
     
     /**
      * Setter for the AETitle property, automatically invoked
@@ -102,4 +121,54 @@ public class Wado {
         //TODO Access Control to be implemented
         return new String[0];
     }
+
+    /**
+     * Evaluates the preconditions of the request against the version of the
+     * requested Study, Series or Instance, obtained from the database
+     * without reading any file. Returns a <i>304 Not Modified</i> response
+     * if the client already holds the current representation, otherwise
+     * {@code null}.
+     */
+    protected Response evaluatePreconditions(String studyIUID,
+            String seriesIUID, String objectIUID) {
+        if (studyIUID == null)
+            return null;
+
+        resourceVersion = queryService.getResourceVersion(studyIUID,
+                "*".equals(seriesIUID) ? null : seriesIUID,
+                "*".equals(objectIUID) ? null : objectIUID);
+        if (resourceVersion == null)
+            return null;
+
+        // representations differ by the accepted media types
+        String accept = conditionalHeaders.getRequestHeaders()
+                .getFirst(HttpHeaders.ACCEPT);
+        entityTag = new EntityTag(resourceVersion.getEntityTag() + '-'
+                + Integer.toHexString(accept != null ? accept.hashCode() : 0),
+                true);
+        Response.ResponseBuilder builder = conditionalRequest
+                .evaluatePreconditions(resourceVersion.getLastModified(),
+                        entityTag);
+        return builder != null
+                ? builder.tag(entityTag)
+                        .lastModified(resourceVersion.getLastModified())
+                        .build()
+                : null;
+    }
+
+    /**
+     * Adds the validators obtained by
+     * {@link #evaluatePreconditions(String, String, String)} to a successful
+     * response.
+     */
+    protected Response withValidators(Response response) {
+        if (resourceVersion == null || response == null
+                || response.getStatus() != Response.Status.OK.getStatusCode())
+            return response;
+
+        return Response.fromResponse(response)
+                .tag(entityTag)
+                .lastModified(resourceVersion.getLastModified())
+                .build();
+    }
 }
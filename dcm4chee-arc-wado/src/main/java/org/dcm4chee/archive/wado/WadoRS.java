@@ -54,6 +54,7 @@ import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -87,7 +88,9 @@ import org.dcm4che3.net.service.InstanceLocator;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.ws.rs.MediaTypes;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.dto.FrameIndex;
 import org.dcm4chee.archive.dto.GenericParticipant;
 import org.dcm4chee.archive.dto.ServiceType;
 import org.dcm4chee.archive.fetch.forward.FetchForwardCallBack;
@@ -122,9 +125,13 @@ public class WadoRS extends Wado {
     @Inject
     private FetchForwardService fetchForwardService;
 
+    @Inject
+    private SeriesMetadataService seriesMetadataService;
+
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
     private static final int STATUS_NOT_ACCEPTABLE = 406;
+    private static final int STATUS_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
     private static final String CONTENT_TYPE = "Content-Type";
     private static final String CONTENT_ID = "Content-ID";
     private static final String CONTENT_LOCATION = "Content-Location";
@@ -172,6 +179,8 @@ public class WadoRS extends Wado {
 
     private boolean acceptOctetStream;
 
+    private boolean acceptSinglePartOctetStream;
+
     private boolean acceptBulkdata;
 
     private List<String> acceptedTransferSyntaxes;
@@ -180,9 +189,14 @@ public class WadoRS extends Wado {
 
     private String method;
 
+    private SeriesMetadataReader metadataReader;
+
     private String toBulkDataURI(String uri) {
-        return uriInfo.getBaseUri() + "wado/" + aetitle + "/bulkdata/"
-                + URI.create(uri).getPath();
+        return bulkDataURIPrefix() + URI.create(uri).getPath();
+    }
+
+    private String bulkDataURIPrefix() {
+        return uriInfo.getBaseUri() + "wado/" + aetitle + "/bulkdata/";
     }
 
     private void init(String method) {
@@ -239,6 +253,9 @@ public class WadoRS extends Wado {
                 } catch (IllegalArgumentException e) {
                     throw new WebApplicationException(Status.BAD_REQUEST);
                 }
+            } else if (mediaType
+                    .isCompatible(MediaType.APPLICATION_OCTET_STREAM_TYPE)) {
+                acceptSinglePartOctetStream = true;
             } else if (headers.getAcceptableMediaTypes().contains(
                     MediaType.APPLICATION_JSON_TYPE)) {
                 acceptDicomJSON = true;
@@ -330,11 +347,15 @@ public class WadoRS extends Wado {
             @PathParam("StudyInstanceUID") String studyInstanceUID)
             throws DicomServiceException  {
         init("retrieveStudy");
+        Response notModified = evaluatePreconditions(studyInstanceUID, null,
+                null);
+        if (notModified != null)
+            return notModified;
 
         List<ArchiveInstanceLocator> instances = retrieveService
                 .calculateMatches(studyInstanceUID, "*", "*", queryParam, false);
 
-        return retrieve(instances);
+        return withValidators(retrieve(instances));
     }
 
     @GET
@@ -344,12 +365,16 @@ public class WadoRS extends Wado {
             @PathParam("SeriesInstanceUID") String seriesInstanceUID)
             throws DicomServiceException {
         init("retrieveSeries");
+        Response notModified = evaluatePreconditions(studyInstanceUID,
+                seriesInstanceUID, null);
+        if (notModified != null)
+            return notModified;
 
         List<ArchiveInstanceLocator> instances = retrieveService
                 .calculateMatches(studyInstanceUID, seriesInstanceUID, "*",
                         queryParam, false);
 
-        return retrieve(instances);
+        return withValidators(retrieve(instances));
     }
 
     @GET
@@ -360,12 +385,16 @@ public class WadoRS extends Wado {
             @PathParam("SOPInstanceUID") String sopInstanceUID)
             throws DicomServiceException {
         init("retrieveInstance");
+        Response notModified = evaluatePreconditions(studyInstanceUID,
+                seriesInstanceUID, sopInstanceUID);
+        if (notModified != null)
+            return notModified;
 
         List<ArchiveInstanceLocator> instances = retrieveService
                 .calculateMatches(studyInstanceUID, seriesInstanceUID,
                         sopInstanceUID, queryParam, false);
 
-        return retrieve(instances);
+        return withValidators(retrieve(instances));
     }
 
     @GET
@@ -377,6 +406,10 @@ public class WadoRS extends Wado {
             @PathParam("SOPInstanceUID") String sopInstanceUID,
             @PathParam("FrameList") FrameList frameList) {
         init("retrieveFrame");
+        Response notModified = evaluatePreconditions(studyInstanceUID,
+                seriesInstanceUID, sopInstanceUID);
+        if (notModified != null)
+            return notModified;
 
         List<ArchiveInstanceLocator> instances = retrieveService
                 .calculateMatches(studyInstanceUID, seriesInstanceUID,
@@ -385,28 +418,37 @@ public class WadoRS extends Wado {
         if (instances == null || instances.size() == 0)
             throw new WebApplicationException(Status.NOT_FOUND);
 
-        return retrievePixelData(instances.get(0), frameList.frames);
+        return withValidators(
+                retrievePixelData(instances.get(0), frameList.frames));
     }
 
     /**
-     * BulkDataURI is expected to be a path to a file.
+     * BulkDataURI is expected to be a path to a file. If offset and length
+     * of the value are specified, the value is transferred from that
+     * position of the file without parsing it. Clients accepting
+     * application/octet-stream - not wrapped in multipart/related - may
+     * request a byte range of the value by a HTTP Range header.
      */
     @GET
     @Path("/bulkdata/{BulkDataPath:.*}")
-    @Produces("multipart/related")
+    @Produces({ "multipart/related", "application/octet-stream" })
     public Response retrieveBulkdata(
             @PathParam("BulkDataPath") String bulkDataPath,
             @QueryParam("offset") @DefaultValue("0") int offset,
-            @QueryParam("length") @DefaultValue("-1") int length) {
+            @QueryParam("length") @DefaultValue("-1") int length,
+            @HeaderParam("Range") String range) {
 
         init("retrieveBulkdata");
 
         String bulkDataURI = "file://" + bulkDataPath;
 
-        return (length <= 0) ? retrievePixelDataFromFile(bulkDataURI)
-                : retrieveBulkData(new BulkData(bulkDataURI, offset, length,
-                        false));
+        if (length <= 0)
+            return retrievePixelDataFromFile(bulkDataURI);
 
+        BulkData bulkData = new BulkData(bulkDataURI, offset, length, false);
+        return acceptSinglePartOctetStream && !acceptOctetStream
+                ? retrieveBulkDataRange(bulkData, range)
+                : retrieveBulkData(bulkData);
     }
 
     @GET
@@ -415,11 +457,15 @@ public class WadoRS extends Wado {
             @PathParam("StudyInstanceUID") String studyInstanceUID)
             throws DicomServiceException {
         init("retrieveMetadata");
+        Response notModified = evaluatePreconditions(studyInstanceUID, null,
+                null);
+        if (notModified != null)
+            return notModified;
 
         List<ArchiveInstanceLocator> instances = retrieveService
                 .calculateMatches(studyInstanceUID, null, null, queryParam, true);
 
-        return retrieveMetadata(instances);
+        return withValidators(retrieveMetadata(instances));
     }
 
     // create metadata retrieval for Series
@@ -430,12 +476,16 @@ public class WadoRS extends Wado {
             @PathParam("SeriesInstanceUID") String seriesInstanceUID)
             throws DicomServiceException {
         init("retrieveMetadata");
+        Response notModified = evaluatePreconditions(studyInstanceUID,
+                seriesInstanceUID, null);
+        if (notModified != null)
+            return notModified;
 
         List<ArchiveInstanceLocator> instances = retrieveService
                 .calculateMatches(studyInstanceUID, seriesInstanceUID, null,
                         queryParam, true);
 
-        return retrieveMetadata(instances);
+        return withValidators(retrieveMetadata(instances));
     }
 
     // create metadata retrieval for Instances
@@ -447,12 +497,16 @@ public class WadoRS extends Wado {
             @PathParam("SOPInstanceUID") String sopInstanceUID)
             throws DicomServiceException {
         init("retrieveMetadata");
+        Response notModified = evaluatePreconditions(studyInstanceUID,
+                seriesInstanceUID, sopInstanceUID);
+        if (notModified != null)
+            return notModified;
 
         List<ArchiveInstanceLocator> instances = retrieveService
                 .calculateMatches(studyInstanceUID, seriesInstanceUID,
                         sopInstanceUID, queryParam, true);
 
-        return retrieveMetadata(instances);
+        return withValidators(retrieveMetadata(instances));
     }
 
     private Response retrieve(List<ArchiveInstanceLocator> refs)
@@ -489,11 +543,14 @@ public class WadoRS extends Wado {
                 String supressionCriteriaTemplateURI = suppressionCriteriaMap
                         .get(context.getRemoteAE().getAETitle());
                 if (supressionCriteriaTemplateURI != null) {
+                    SuppressionCriteriaEvaluator evaluator =
+                            new SuppressionCriteriaEvaluator(storescuService,
+                                    device.getDeviceExtension(
+                                            ArchiveDeviceExtension.class),
+                                    supressionCriteriaTemplateURI, context);
                     List<ArchiveInstanceLocator> adjustedRefs = new ArrayList<ArchiveInstanceLocator>();
                     for(ArchiveInstanceLocator ref: refs){
-                        Attributes attrs = getFileAttributes(ref);
-                    if(storescuService.applySuppressionCriteria(ref, attrs,
-                            supressionCriteriaTemplateURI, context) == null)
+                    if(evaluator.isSuppressed(ref))
                         instsfailed.add(ref);
                     else
                         adjustedRefs.add(ref);
@@ -503,7 +560,9 @@ public class WadoRS extends Wado {
             }
             ArrayList<ArchiveInstanceLocator> external = extractExternalLocators(refs);
             final MultipartRelatedOutput multiPartOutput = new MultipartRelatedOutput();
-            final ZipOutput zipOutput = new ZipOutput();
+            final ZipOutput zipOutput = new ZipOutput(device.getExecutor(),
+                    arcAE.getWadoZipReadAheadEntries(),
+                    arcAE.getWadoZipReadAheadBufferSize());
             if(!refs.isEmpty()) {
             addDicomOrBulkDataOrZip(refs, instscompleted, instsfailed,
                     multiPartOutput, zipOutput);
@@ -585,7 +644,8 @@ public class WadoRS extends Wado {
         for (ArchiveInstanceLocator ref : refs) {
             try{
             output.addEntry(new DicomObjectOutput(ref, (Attributes) ref
-                    .getObject(), ref.tsuid, context, storescuService));
+                    .getObject(), ref.tsuid, context, storescuService),
+                    isCompressed(ref.tsuid));
             instscompleted.add(ref);
             }
             catch(Exception e) {
@@ -597,6 +657,12 @@ public class WadoRS extends Wado {
         }
     }
 
+    private static boolean isCompressed(String tsuid) {
+        return !(UID.ImplicitVRLittleEndian.equals(tsuid)
+                || UID.ExplicitVRLittleEndian.equals(tsuid)
+                || UID.ExplicitVRBigEndianRetired.equals(tsuid));
+    }
+
     private ArrayList<ArchiveInstanceLocator> extractExternalLocators(
             List<ArchiveInstanceLocator> refs) {
         ArrayList<ArchiveInstanceLocator> externalLocators = new ArrayList<ArchiveInstanceLocator>();
@@ -623,7 +689,9 @@ public class WadoRS extends Wado {
 
         ArrayList<ArchiveInstanceLocator> failedToFetchForward = new ArrayList<ArchiveInstanceLocator>();
         if(!locations.isEmpty()) {
-            status.add(addPixelDataTo(fileURI, output, frames));
+            int frameStatus = addFramesTo(inst, output, frames);
+            status.add(frameStatus != 0 ? frameStatus
+                    : addPixelDataTo(fileURI, output, frames));
         }
         if(!external.isEmpty()) {
             FetchForwardCallBack fetchCallBack = new FetchForwardCallBack() {
@@ -667,6 +735,33 @@ public class WadoRS extends Wado {
         return Response.ok(output).build();
     }
 
+    private Response retrieveBulkDataRange(BulkData bulkData, String range) {
+        long length = bulkData.length();
+        long[] bytes;
+        try {
+            bytes = BulkDataOutput.parseRange(range, length);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response
+                    .status(STATUS_REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length)
+                    .build());
+        }
+        if (bytes == null)
+            return Response.ok(new BulkDataOutput(bulkData),
+                    MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                    .header("Accept-Ranges", "bytes")
+                    .build();
+
+        return Response.status(STATUS_PARTIAL_CONTENT)
+                .entity(new BulkDataOutput(bulkData, bytes[0],
+                        bytes[1] - bytes[0] + 1))
+                .type(MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                .header("Accept-Ranges", "bytes")
+                .header("Content-Range", "bytes " + bytes[0] + '-' + bytes[1]
+                        + '/' + length)
+                .build();
+    }
+
     private Response retrieveMetadata(final List<ArchiveInstanceLocator> refs)
             throws DicomServiceException {
         StreamingOutput streamingOutput = null;
@@ -678,6 +773,7 @@ public class WadoRS extends Wado {
         if (!acceptDicomXML && !acceptDicomJSON && !acceptAll)
             throw new WebApplicationException(Status.NOT_ACCEPTABLE);
 
+        metadataReader = seriesMetadataService.createReader(bulkDataURIPrefix());
         if (acceptDicomJSON) {
             ArrayList<ArchiveInstanceLocator> external = extractExternalLocators(refs);
 
@@ -695,7 +791,7 @@ public class WadoRS extends Wado {
                     refs.addAll(external);
             }
                 streamingOutput = new DicomJSONOutput(aetitle, uriInfo, refs,
-                        context, storescuService);
+                        context, storescuService, metadataReader);
         } else {
             ArrayList<ArchiveInstanceLocator> external = extractExternalLocators(refs);
 
@@ -786,9 +882,18 @@ public class WadoRS extends Wado {
             if (pixeldata instanceof Fragments) {
                 Fragments bulkData = (Fragments) pixeldata;
                 if (mediaType == MediaType.APPLICATION_OCTET_STREAM_TYPE) {
-                    addDecompressedPixelDataTo(
-                            new Decompressor(ds, dis.getTransferSyntax()),
-                            adjustedFrameList, output, bulkDataURI, iuid);
+                    int maxThreads = arcAE.getWadoDecompressMaxThreads();
+                    if (maxThreads > 1 && frames > 1)
+                        addDecompressedPixelDataTo(
+                                new ParallelDecompressor(ds,
+                                        dis.getTransferSyntax(),
+                                        toFrameIndexes(adjustedFrameList, frames),
+                                        device.getExecutor(), maxThreads),
+                                adjustedFrameList, output, bulkDataURI, iuid);
+                    else
+                        addDecompressedPixelDataTo(
+                                new Decompressor(ds, dis.getTransferSyntax()),
+                                adjustedFrameList, output, bulkDataURI, iuid);
                 } else {
                     addCompressedPixelDataTo(bulkData, frames,
                             adjustedFrameList, output, mediaType, bulkDataURI,
@@ -812,6 +917,44 @@ public class WadoRS extends Wado {
         }
     }
 
+    /**
+     * Adds the requested frames located by the frame index of the instance
+     * without parsing the file. Returns 0 if there is no frame index or if
+     * the frames cannot be served without decompression.
+     */
+    private int addFramesTo(ArchiveInstanceLocator inst,
+            MultipartRelatedOutput output, int... frameList) {
+        FrameIndex frameIndex = inst.getFrameIndex();
+        if (frameList.length == 0 || frameIndex == null
+                || inst.getEntryName() != null || inst.isWithoutBulkdata())
+            return 0;
+
+        MediaType mediaType = selectBulkdataMediaTypeForTransferSyntax(inst.tsuid);
+        if (mediaType == null || isMultiframeMediaType(mediaType)
+                || frameIndex.isEncapsulated()
+                    && mediaType == MediaType.APPLICATION_OCTET_STREAM_TYPE)
+            return 0;
+
+        File file;
+        try {
+            file = new File(new URI(inst.uri));
+        } catch (URISyntaxException e) {
+            return 0;
+        }
+        if (!file.isFile())
+            return 0;
+
+        int[] adjustedFrameList = adjustFrameList(inst.iuid, frameList,
+                frameIndex.getNumberOfFrames());
+        String bulkDataURI = toBulkDataURI(inst.uri);
+        for (int frame : adjustedFrameList) {
+            addPart(output, new FrameOutput(file, frameIndex, frame - 1),
+                    mediaType, bulkDataURI + "/frames/" + frame, inst.iuid);
+        }
+        return adjustedFrameList.length < frameList.length ? STATUS_PARTIAL_CONTENT
+                : STATUS_OK;
+    }
+
     private int[] adjustFrameList(String iuid, int[] frameList, int frames) {
         int n = 0;
         for (int i = 0; i < frameList.length; i++) {
@@ -854,6 +997,32 @@ public class WadoRS extends Wado {
             }
     }
 
+    private void addDecompressedPixelDataTo(ParallelDecompressor decompressor,
+            int[] frameList, MultipartRelatedOutput output, String bulkDataURI,
+            String iuid) {
+        if (frameList.length == 0) {
+            addPart(output, new DecompressedPixelDataOutput(decompressor, -1),
+                    MediaType.APPLICATION_OCTET_STREAM_TYPE, bulkDataURI, iuid);
+        } else
+            for (int pos = 0; pos < frameList.length; pos++) {
+                addPart(output, new DecompressedPixelDataOutput(decompressor,
+                        pos), MediaType.APPLICATION_OCTET_STREAM_TYPE,
+                        bulkDataURI + "/frames/" + frameList[pos], iuid);
+            }
+    }
+
+    /**
+     * Returns the frame indexes, starting with 0, of the frame numbers in the
+     * frame list, or of all frames if the frame list is empty.
+     */
+    private static int[] toFrameIndexes(int[] frameList, int frames) {
+        int[] frameIndexes = new int[frameList.length > 0 ? frameList.length
+                : frames];
+        for (int i = 0; i < frameIndexes.length; i++)
+            frameIndexes[i] = frameList.length > 0 ? frameList[i] - 1 : i;
+        return frameIndexes;
+    }
+
     private void addPart(MultipartRelatedOutput output, Object entity,
             MediaType mediaType, String contentLocation, String iuid) {
         OutputPart part = output.addPart(entity, mediaType);
@@ -926,28 +1095,11 @@ public class WadoRS extends Wado {
             MultipartRelatedOutput output) {
         Attributes attrs = (Attributes) ref.getObject();
         addPart(output, new DicomXMLOutput(ref, toBulkDataURI(ref.uri), attrs,
-                context, storescuService), MediaTypes.APPLICATION_DICOM_XML_TYPE, null, ref.iuid);
+                context, storescuService, metadataReader), MediaTypes.APPLICATION_DICOM_XML_TYPE, null, ref.iuid);
     }
 
     private boolean isMultiframeMediaType(MediaType mediaType) {
         return mediaType.getType().equalsIgnoreCase("video")
                 || mediaType.getSubtype().equalsIgnoreCase("dicom+jpeg-jpx");
     }
-
-    private Attributes getFileAttributes(ArchiveInstanceLocator ref) {
-        DicomInputStream dis = null;
-        try {
-            dis = new DicomInputStream(storescuService.getFile(ref).toFile());
-            dis.setIncludeBulkData(IncludeBulkData.URI);
-            Attributes dataset = dis.readDataset(-1, -1);
-            return dataset;
-        } catch (IOException e) {
-            LOG.error(
-                    "Unable to read file, Exception {}, using the blob for coercion - (Incomplete Coercion)",
-                    e);
-            return (Attributes) ref.getObject();
-        } finally {
-            SafeClose.close(dis);
-        }
-    }
 }
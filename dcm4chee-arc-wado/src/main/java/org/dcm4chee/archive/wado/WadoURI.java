@@ -43,11 +43,20 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.enterprise.context.RequestScoped;
 import javax.enterprise.event.Event;
@@ -60,6 +69,7 @@ import javax.imageio.ImageWriter;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStream;
 import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.inject.Inject;
@@ -98,7 +108,9 @@ import org.dcm4che3.io.TemplatesCache;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.service.BasicCStoreSCUResp;
 import org.dcm4che3.util.Property;
+import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
 import org.dcm4che3.ws.rs.MediaTypes;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.GenericParticipant;
@@ -134,6 +146,12 @@ public class WadoURI extends Wado {
     @Inject
     private HostAECache aeCache;
 
+    @Inject
+    private RenderedImageCacheProvider renderedImageCacheProvider;
+
+    @Inject
+    private ImageIOProvider imageIOProvider;
+
     private CStoreSCUContext context;
 
     private static final int STATUS_NOT_IMPLEMENTED = 501;
@@ -284,6 +302,11 @@ public class WadoURI extends Wado {
 
             checkRequest();
 
+            Response notModified = evaluatePreconditions(studyUID, seriesUID,
+                    objectUID);
+            if (notModified != null)
+                return notModified;
+
             final List<ArchiveInstanceLocator> ref = retrieveService
                     .calculateMatches(studyUID, seriesUID, objectUID,
                             queryParam, false);
@@ -340,7 +363,7 @@ public class WadoURI extends Wado {
             if(resp == null)
             throw new WebApplicationException(STATUS_NOT_IMPLEMENTED);
             else
-                return resp;
+                return withValidators(resp);
         } finally {
             // audit
             retrieveEvent.fire(new RetrieveAfterSendEvent(
@@ -535,38 +558,138 @@ public class WadoURI extends Wado {
 
     private Response retrieveJPEG(final ArchiveInstanceLocator ref, final Attributes attrs) {
 
-        return Response.ok(new StreamingOutput() {
+        return Response.ok(new RenderedImageOutput(ref, "jpg") {
 
             @Override
-            public void write(OutputStream out) throws IOException,
-                    WebApplicationException {
+            protected void render(ImageOutputStream imageOut)
+                    throws IOException {
                 BufferedImage bi = getBufferedImage(ref, attrs);
-                ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out);
-                try {
-                    writeImage("JPEG", bi, imageOut);
-                } finally {
-                    imageOut.close();
-                }
+                writeImage("JPEG", bi, imageOut);
             }
         }, MediaTypes.IMAGE_JPEG_TYPE).build();
     }
 
     private Response retrievePNG(final ArchiveInstanceLocator ref, final Attributes attrs) {
 
-        return Response.ok(new StreamingOutput() {
+        return Response.ok(new RenderedImageOutput(ref, "png") {
 
             @Override
-            public void write(OutputStream out) throws IOException,
-                    WebApplicationException {
+            protected void render(ImageOutputStream imageOut)
+                    throws IOException {
                 BufferedImage bi = getBufferedImage(ref, attrs);
-                ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out);
+                writeImage("PNG", bi, imageOut);
+            }
+        }, MediaTypes.IMAGE_PNG_TYPE).build();
+    }
+
+    /**
+     * Writes the rendered image from the rendered image cache, if configured.
+     * On a cache miss, the image is rendered into the cache first.
+     */
+    private abstract class RenderedImageOutput implements StreamingOutput {
+
+        private final ArchiveInstanceLocator ref;
+        private final String suffix;
+
+        RenderedImageOutput(ArchiveInstanceLocator ref, String suffix) {
+            this.ref = ref;
+            this.suffix = suffix;
+        }
+
+        protected abstract void render(ImageOutputStream imageOut)
+                throws IOException;
+
+        @Override
+        public void write(OutputStream out) throws IOException,
+                WebApplicationException {
+            RenderedImageCache cache =
+                    renderedImageCacheProvider.getRenderedImageCache();
+            if (cache != null) {
+                String key = renderedImageKey(suffix);
+                java.nio.file.Path path = cache.get(ref.iuid, key);
+                if (path == null)
+                    path = renderToCache(cache, key);
+                try {
+                    Files.copy(path, out);
+                    return;
+                } catch (NoSuchFileException e) {
+                    LOG.debug("Cached image {} evicted concurrently", path);
+                }
+            }
+            ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out);
+            try {
+                render(imageOut);
+            } finally {
+                imageOut.close();
+            }
+        }
+
+        private java.nio.file.Path renderToCache(RenderedImageCache cache,
+                String key) throws IOException {
+            java.nio.file.Path tmp = cache.createTempFile();
+            try {
+                ImageOutputStream imageOut = new FileImageOutputStream(
+                        tmp.toFile());
                 try {
-                    writeImage("PNG", bi, imageOut);
+                    render(imageOut);
                 } finally {
                     imageOut.close();
                 }
+                return cache.put(ref.iuid, key, tmp);
+            } finally {
+                Files.deleteIfExists(tmp);
             }
-        }, MediaTypes.IMAGE_PNG_TYPE).build();
+        }
+    }
+
+    /**
+     * Returns the key of the rendered image within the cached images of the
+     * requested instance, derived from all request parameters affecting the
+     * rendering.
+     */
+    private String renderedImageKey(String suffix) {
+        return renderedImageKey(suffix, frameNumber, rows, columns,
+                windowCenter, windowWidth, imageQuality, isOverlayRendering(),
+                presentationSeriesUID, presentationUID, region);
+    }
+
+    /**
+     * Returns the key of a rendered image within the cached images of an
+     * instance, as used for WADO-URI requests with the specified parameters.
+     */
+    static String renderedImageKey(String suffix, int frameNumber, int rows,
+            int columns, float windowCenter, float windowWidth,
+            int imageQuality, boolean overlays, String presentationSeriesUID,
+            String presentationUID, Region region) {
+        StringBuilder sb = new StringBuilder(suffix)
+            .append('|').append(frameNumber)
+            .append('|').append(rows)
+            .append('|').append(columns)
+            .append('|').append(windowCenter)
+            .append('|').append(windowWidth)
+            .append('|').append(imageQuality)
+            .append('|').append(overlays)
+            .append('|').append(presentationSeriesUID)
+            .append('|').append(presentationUID);
+        if (region != null)
+            sb.append('|').append(region.left)
+                .append(',').append(region.top)
+                .append(',').append(region.right)
+                .append(',').append(region.bottom);
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(
+                    sb.toString().getBytes(StandardCharsets.UTF_8));
+            return TagUtils.toHexString(digest) + '.' + suffix;
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private boolean isOverlayRendering() {
+        return request.getQueryString().contains("overlays")
+                ? overlays
+                : arcAE.isWadoOverlayRendering();
     }
 
     private void writeImage(String format, BufferedImage bi, ImageOutputStream ios)
@@ -574,9 +697,8 @@ public class WadoURI extends Wado {
         ColorModel cm = bi.getColorModel();
         if (cm instanceof PaletteColorModel)
             bi = ((PaletteColorModel) cm).convertToIntDiscrete(bi.getData());
-        ImageWriter imageWriter = (format.equalsIgnoreCase("JPEG")?
-                ImageIO.getImageWritersByFormatName("JPEG").next():
-                ImageIO.getImageWritersByFormatName("PNG").next());
+        ImageWriter imageWriter = imageIOProvider.getImageWriter(
+                format.equalsIgnoreCase("JPEG") ? "JPEG" : "PNG");
 
         try {
             ImageWriteParam imageWriteParam = getImageWriterParam(imageWriter);
@@ -584,7 +706,7 @@ public class WadoURI extends Wado {
             imageWriter.write(null, new IIOImage(bi, null, null),
                     imageWriteParam);
         } finally {
-            imageWriter.dispose();
+            imageIOProvider.releaseImageWriter(imageWriter);
         }
     }
 
@@ -608,76 +730,202 @@ public class WadoURI extends Wado {
             final Attributes attrs) {
 
         final MediaType mediaType = MediaTypes.IMAGE_GIF_TYPE;
-        return Response.ok(new StreamingOutput() {
+        return Response.ok(new RenderedImageOutput(ref, "gif") {
 
             @Override
-            public void write(OutputStream out) throws IOException,
-                    WebApplicationException {
-                ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out);
-                try {
-                    if (attrs.getInt(Tag.NumberOfFrames, 1) == 1)
+            protected void render(ImageOutputStream imageOut)
+                    throws IOException {
+                if (attrs.getInt(Tag.NumberOfFrames, 1) == 1)
+                {
+                    BufferedImage bi = getBufferedImage(ref, attrs);
+                    writeGIF(bi, imageOut);
+                }
+                else
+                {
+                    if (frameNumber != 0)
                     {
                         BufferedImage bi = getBufferedImage(ref, attrs);
                         writeGIF(bi, imageOut);
                     }
                     else
                     {
-                        if (frameNumber != 0)
-                        {
-                            BufferedImage bi = getBufferedImage(ref, attrs);
-                            writeGIF(bi, imageOut);
-                        }
-                        else
-                        {
-                            //return all frames as GIF sequence
-                            List<BufferedImage> bis = getBufferedImages(ref, attrs);
-                            writeGIFs(ref.tsuid, bis, imageOut);
-                        }
+                        //return all frames as GIF sequence
+                        writeGIFs(ref, attrs, imageOut);
                     }
-                } finally {
-                    imageOut.close();
                 }
             }
         }, mediaType).build();
     }
 
-    private List<BufferedImage> getBufferedImages(ArchiveInstanceLocator ref, Attributes attrs) throws IOException {
-        for (;;)
+    /**
+     * Writes all frames as GIF sequence. Frames are read, rendered and
+     * written one at a time, so the heap used does not depend on the number
+     * of frames. If configured, up to {@code dcmWadoGIFRenderAheadFrames}
+     * frames are rendered by another thread while previous frames are
+     * encoded.
+     */
+    private void writeGIFs(ArchiveInstanceLocator ref, Attributes attrs,
+            ImageOutputStream ios) throws IOException {
+        ImageReader reader = imageIOProvider.getImageReader("DICOM");
+        ImageInputStream iis = null;
+        DicomMetaData metaData;
+        try {
+            for (;;)
+                try {
+                    iis = createImageInputStream(ref);
+                    reader.setInput(iis);
+                    metaData = (DicomMetaData) reader.getStreamMetadata();
+                    break;
+                } catch (IOException e) {
+                    LOG.info("Failed to read images with iuid={} from {}@{}",
+                            ref.iuid, ref.getFilePath(), ref.getStorageSystem(), e);
+                    SafeClose.close(iis);
+                    iis = null;
+                    ref = ref.getFallbackLocator();
+                    if (ref == null) {
+                        throw e;
+                    }
+                    LOG.info("Try read from alternative location");
+                }
+            metaData.getAttributes().addAll(attrs);
+            DicomImageReadParam param = (DicomImageReadParam) reader.getDefaultReadParam();
+            init(param);
+            int numOfFrames = attrs.getInt(Tag.NumberOfFrames, 1);
+            int renderAhead = Math.min(arcAE.getWadoGIFRenderAheadFrames(),
+                    numOfFrames);
+            ImageWriter imageWriter = imageIOProvider.getImageWriter("GIF");
             try {
-                return readImages(ref, attrs);
-            } catch (IOException e) {
-                LOG.info("Failed to read images with iuid={} from {}@{}",
-                        ref.iuid, ref.getFilePath(), ref.getStorageSystem(), e);
-                ref = ref.getFallbackLocator();
-                if (ref == null) {
-                    throw e;
+                ImageWriteParam imageWriteParam = getImageWriterParam(imageWriter);
+                imageWriter.setOutput(ios);
+                imageWriter.prepareWriteSequence(null);
+                if (renderAhead > 0) {
+                    FrameRenderer renderer = new FrameRenderer(reader, param,
+                            metaData.getAttributes(), numOfFrames, renderAhead);
+                    device.execute(renderer);
+                    try {
+                        for (int i = 0; i < numOfFrames; i++)
+                            writeGIF(ref.tsuid, renderer.take(), imageWriter,
+                                    imageWriteParam);
+                    } finally {
+                        renderer.cancel();
+                    }
+                } else {
+                    for (int i = 0; i < numOfFrames; i++)
+                        writeGIF(ref.tsuid, rescale(
+                                reader.read(i, param),
+                                metaData.getAttributes(),
+                                param.getPresentationState(), rows, columns),
+                                imageWriter, imageWriteParam);
                 }
-                LOG.info("Try read from alternative location");
+                imageWriter.endWriteSequence();
+            } finally {
+                imageIOProvider.releaseImageWriter(imageWriter);
             }
+        } finally {
+            imageIOProvider.releaseImageReader(reader);
+            SafeClose.close(iis);
+        }
     }
 
-    private void writeGIFs(String tsuid, List<BufferedImage> bis, ImageOutputStream ios) throws IOException {
-        ImageWriter imageWriter = ImageIO.getImageWritersByFormatName("GIF").next();
-        try {
-            ImageWriteParam imageWriteParam = getImageWriterParam(imageWriter);
-            imageWriter.setOutput(ios);
-            imageWriter.prepareWriteSequence(null);
-            for (int i = 0; i < bis.size(); i++) {
+    private void writeGIF(String tsuid, BufferedImage bi,
+            ImageWriter imageWriter, ImageWriteParam imageWriteParam)
+            throws IOException {
+        ColorModel cm = bi.getColorModel();
+        if (cm instanceof PaletteColorModel) {
+            bi = ((PaletteColorModel) cm).convertToIntDiscrete(bi.getData());
+        }
+
+        IIOMetadata metadata = ImageWriterFactory.getImageWriterParam(tsuid) != null
+                ? getIIOMetadata(bi,imageWriter,imageWriteParam,ImageWriterFactory.getImageWriterParam(tsuid))
+                : imageWriter.getDefaultImageMetadata(new ImageTypeSpecifier(bi), imageWriteParam);
+        //setGIFMetadata(metadata);
+        imageWriter.writeToSequence(new IIOImage(bi, null, metadata),imageWriteParam);
+    }
+
+    /**
+     * Reads and renders the frames of a multi-frame image in order, keeping
+     * at most {@code maxRenderAhead} rendered frames which were not yet taken
+     * by the encoding thread.
+     */
+    private final class FrameRenderer implements Runnable {
+
+        private final ImageReader reader;
+        private final DicomImageReadParam param;
+        private final Attributes imgAttrs;
+        private final int numOfFrames;
+        private final BlockingQueue<Object> frames;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean canceled;
+
+        FrameRenderer(ImageReader reader, DicomImageReadParam param,
+                Attributes imgAttrs, int numOfFrames, int maxRenderAhead) {
+            this.reader = reader;
+            this.param = param;
+            this.imgAttrs = imgAttrs;
+            this.numOfFrames = numOfFrames;
+            this.frames = new ArrayBlockingQueue<Object>(maxRenderAhead);
+        }
 
-                BufferedImage bi = bis.get(i);
-                ColorModel cm = bi.getColorModel();
-                if (cm instanceof PaletteColorModel) {
-                    bi = ((PaletteColorModel) cm).convertToIntDiscrete(bi.getData());
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < numOfFrames && !canceled; i++)
+                    frames.put(rescale(reader.read(i, param), imgAttrs,
+                            param.getPresentationState(), rows, columns));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                try {
+                    if (!canceled)
+                        frames.put(e);
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
                 }
+            } finally {
+                done.countDown();
+            }
+        }
 
-                IIOMetadata metadata = ImageWriterFactory.getImageWriterParam(tsuid) != null
-                        ? getIIOMetadata(bi,imageWriter,imageWriteParam,ImageWriterFactory.getImageWriterParam(tsuid))
-                        : imageWriter.getDefaultImageMetadata(new ImageTypeSpecifier(bi), imageWriteParam);
-                //setGIFMetadata(metadata);
-                imageWriter.writeToSequence(new IIOImage(bi, null, metadata),imageWriteParam);
+        BufferedImage take() throws IOException {
+            Object frame;
+            try {
+                for (;;) {
+                    boolean finished = done.getCount() == 0;
+                    if ((frame = frames.poll(100, TimeUnit.MILLISECONDS)) != null)
+                        break;
+                    if (finished)
+                        throw new IOException("Rendering of frames aborted");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
             }
-        } finally {
-            imageWriter.dispose();
+            if (frame instanceof IOException)
+                throw (IOException) frame;
+            if (frame instanceof RuntimeException)
+                throw (RuntimeException) frame;
+            if (frame instanceof Error)
+                throw (Error) frame;
+            return (BufferedImage) frame;
+        }
+
+        /**
+         * Stops rendering further frames and waits until the frame in
+         * progress is rendered, so the reader can be disposed.
+         */
+        void cancel() {
+            canceled = true;
+            boolean interrupted = false;
+            do {
+                frames.clear();
+                try {
+                    done.await(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            } while (done.getCount() > 0);
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
     }
 
@@ -713,36 +961,13 @@ public class WadoURI extends Wado {
           return(node);
         }
 
-    private List<BufferedImage> readImages(
-            ArchiveInstanceLocator ref, Attributes attrs) throws IOException {
-        List<BufferedImage> imageList = new ArrayList<BufferedImage>();
-        ImageReader reader = getDicomImageReader();
-        try ( ImageInputStream iis = createImageInputStream(ref)) {
-            reader.setInput(iis);
-            DicomMetaData metaData = (DicomMetaData) reader.getStreamMetadata();
-            metaData.getAttributes().addAll(attrs);
-            DicomImageReadParam param = (DicomImageReadParam) reader.getDefaultReadParam();
-            init(param);
-            int numOfFrames = attrs.getInt(Tag.NumberOfFrames, 1);
-            for(int i=0;i<numOfFrames;i++) {
-                imageList.add(rescale(
-                        reader.read(i, param),
-                        metaData.getAttributes(),
-                        param.getPresentationState()));
-            }
-        } finally {
-            reader.dispose();
-        }
-        return imageList;
-    }
-
     private ImageInputStream createImageInputStream(ArchiveInstanceLocator ref) throws IOException {
         return ImageIO.createImageInputStream(storescuService.getFile(ref).toFile());
     }
 
     private BufferedImage readImage(ImageInputStream iis, Attributes attrs)
             throws IOException {
-        ImageReader reader = getDicomImageReader();
+        ImageReader reader = imageIOProvider.getImageReader("DICOM");
         try {
             reader.setInput(iis);
             DicomMetaData metaData = (DicomMetaData) reader.getStreamMetadata();
@@ -751,23 +976,15 @@ public class WadoURI extends Wado {
             init(param);
             return rescale(
                     reader.read(frameNumber > 0 ? frameNumber - 1 : 0, param),
-                    metaData.getAttributes(), param.getPresentationState());
+                    metaData.getAttributes(), param.getPresentationState(),
+                    rows, columns);
         } finally {
-            reader.dispose();
-        }
-    }
-
-    private static ImageReader getDicomImageReader() {
-        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("DICOM");
-        if (!readers.hasNext()) {
-            ImageIO.scanForPlugins();
-            readers = ImageIO.getImageReadersByFormatName("DICOM");
+            imageIOProvider.releaseImageReader(reader);
         }
-        return readers.next();
     }
 
-    private BufferedImage rescale(BufferedImage src, Attributes imgAttrs,
-            Attributes psAttrs) {
+    static BufferedImage rescale(BufferedImage src, Attributes imgAttrs,
+            Attributes psAttrs, int rows, int columns) {
         int r = rows;
         int c = columns;
         float sy = psAttrs != null ? PixelAspectRatio
@@ -796,8 +1013,7 @@ public class WadoURI extends Wado {
     private void init(DicomImageReadParam param)
             throws WebApplicationException, IOException {
         
-        if(!request.getQueryString().contains("overlays"))
-        overlays = arcAE.isWadoOverlayRendering();
+        overlays = isOverlayRendering();
         //set overlay activation mask
         param.setOverlayActivationMask(overlays?0xf:0x0);
         param.setWindowCenter(windowCenter);
@@ -821,15 +1037,14 @@ public class WadoURI extends Wado {
         ColorModel cm = bi.getColorModel();
         if (cm instanceof PaletteColorModel)
             bi = ((PaletteColorModel) cm).convertToIntDiscrete(bi.getData());
-        ImageWriter imageWriter = ImageIO.getImageWritersByFormatName("GIF")
-                .next();
+        ImageWriter imageWriter = imageIOProvider.getImageWriter("GIF");
         try {
             ImageWriteParam imageWriteParam = getImageWriterParam(imageWriter);
             imageWriter.setOutput(ios);
             imageWriter.write(null, new IIOImage(bi, null, null),
                     imageWriteParam);
         } finally {
-            imageWriter.dispose();
+            imageIOProvider.releaseImageWriter(imageWriter);
         }
     }
 
@@ -37,38 +37,279 @@
  * ***** END LICENSE BLOCK ***** */
 package org.dcm4chee.archive.wado;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 
+import org.dcm4che3.util.SafeClose;
+
 /**
+ * Writes entries to a ZIP stream in the order they were added. Entries
+ * flagged as already compressed are not deflated again.
+ *
+ * If read-ahead is enabled, the content of the following entries is
+ * produced concurrently into buffers - spooled to temporary files if they
+ * exceed the configured buffer size - while the current entry is written.
+ * Buffered compressed entries are written as STORED entries.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
 public class ZipOutput implements StreamingOutput {
 
-    private final ArrayList<StreamingOutput> entries =
-            new  ArrayList<StreamingOutput>();
+    private final ArrayList<Entry> entries = new  ArrayList<Entry>();
+
+    private final Executor executor;
+    private final int readAhead;
+    private final int bufferSize;
+
+    public ZipOutput() {
+        this(null, 0, 0);
+    }
+
+    /**
+     * @param executor      executor producing the content of entries ahead
+     * @param readAhead     maximal number of entries produced ahead of the
+     *                      entry currently written; 0 disables read-ahead
+     * @param bufferSize    maximal size of an entry buffered in memory;
+     *                      larger entries are spooled to a temporary file
+     */
+    public ZipOutput(Executor executor, int readAhead, int bufferSize) {
+        this.executor = executor;
+        this.readAhead = executor != null ? Math.max(0, readAhead) : 0;
+        this.bufferSize = Math.max(0, bufferSize);
+    }
 
     @Override
     public void write(OutputStream out) throws IOException,
             WebApplicationException {
         ZipOutputStream zout = new ZipOutputStream(out);
-        int count = 0;
-        for (StreamingOutput entry : entries) {
-            zout.putNextEntry(new ZipEntry(++count + ".dcm"));
-            entry.write(zout);
-            zout.closeEntry();
+        ReadAhead prefetched = readAhead > 0 ? new ReadAhead() : null;
+        try {
+            int count = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                ZipEntry zipEntry = new ZipEntry(++count + ".dcm");
+                zout.setLevel(entry.compressed
+                        ? Deflater.NO_COMPRESSION
+                        : Deflater.DEFAULT_COMPRESSION);
+                if (prefetched != null) {
+                    Spool spool = prefetched.take(i);
+                    try {
+                        if (entry.compressed) {
+                            zipEntry.setMethod(ZipEntry.STORED);
+                            zipEntry.setSize(spool.size);
+                            zipEntry.setCompressedSize(spool.size);
+                            zipEntry.setCrc(spool.crc.getValue());
+                        }
+                        zout.putNextEntry(zipEntry);
+                        spool.writeTo(zout);
+                    } finally {
+                        spool.delete();
+                    }
+                } else {
+                    zout.putNextEntry(zipEntry);
+                    entry.output.write(zout);
+                }
+                zout.closeEntry();
+            }
+            zout.finish();
+        } finally {
+            if (prefetched != null)
+                prefetched.cancel();
         }
-        zout.finish();
     }
 
     public void addEntry(StreamingOutput entry) {
-        entries.add(entry);
+        addEntry(entry, false);
+    }
+
+    /**
+     * Adds an entry, which is not deflated if {@code compressed} is
+     * {@code true}.
+     */
+    public void addEntry(StreamingOutput entry, boolean compressed) {
+        entries.add(new Entry(entry, compressed));
+    }
+
+    private static final class Entry {
+        final StreamingOutput output;
+        final boolean compressed;
+
+        Entry(StreamingOutput output, boolean compressed) {
+            this.output = output;
+            this.compressed = compressed;
+        }
+    }
+
+    private final class ReadAhead {
+
+        @SuppressWarnings("unchecked")
+        private final FutureTask<Spool>[] tasks = new FutureTask[entries.size()];
+        private final ArrayList<Spool> spools = new ArrayList<Spool>();
+        private int submitted;
+        private boolean cancelled;
+
+        Spool take(int index) throws IOException {
+            submitUpTo(Math.min(entries.size(), index + 1 + readAhead));
+            FutureTask<Spool> task = tasks[index];
+            tasks[index] = null;
+            try {
+                Spool spool = task.get();
+                release(spool);
+                return spool;
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        void cancel() {
+            for (int i = 0; i < submitted; i++) {
+                if (tasks[i] != null) {
+                    tasks[i].cancel(false);
+                    tasks[i] = null;
+                }
+            }
+            synchronized (this) {
+                cancelled = true;
+                for (Spool spool : spools)
+                    spool.delete();
+                spools.clear();
+            }
+        }
+
+        private synchronized Spool newSpool() throws IOException {
+            if (cancelled)
+                throw new IOException("ZIP output aborted");
+            Spool spool = new Spool(bufferSize);
+            spools.add(spool);
+            return spool;
+        }
+
+        private synchronized void release(Spool spool) {
+            spools.remove(spool);
+        }
+
+        private void submitUpTo(int end) {
+            while (submitted < end) {
+                final StreamingOutput output = entries.get(submitted).output;
+                FutureTask<Spool> task = new FutureTask<Spool>(
+                        new Callable<Spool>() {
+
+                    @Override
+                    public Spool call() throws Exception {
+                        Spool spool = newSpool();
+                        try {
+                            output.write(spool);
+                            spool.close();
+                            return spool;
+                        } catch (Exception e) {
+                            release(spool);
+                            spool.delete();
+                            throw e;
+                        }
+                    }
+                });
+                tasks[submitted++] = task;
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffers the content of one entry in memory up to a threshold, beyond
+     * which the content is written to a temporary file, and calculates its
+     * CRC-32 checksum.
+     */
+    private static final class Spool extends OutputStream {
+
+        private final int threshold;
+        private final CRC32 crc = new CRC32();
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream fout;
+        private long size;
+        private boolean deleted;
+
+        Spool(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len)
+                throws IOException {
+            if (deleted)
+                throw new IOException("ZIP output aborted");
+            if (fout == null && buffer.size() + len > threshold) {
+                file = File.createTempFile("zip", ".dcm");
+                fout = new FileOutputStream(file);
+                buffer.writeTo(fout);
+                buffer = null;
+            }
+            if (fout != null)
+                fout.write(b, off, len);
+            else
+                buffer.write(b, off, len);
+            crc.update(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (fout != null)
+                fout.close();
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            if (file == null) {
+                buffer.writeTo(out);
+                return;
+            }
+            Files.copy(file.toPath(), out);
+        }
+
+        synchronized void delete() {
+            deleted = true;
+            buffer = null;
+            if (file != null) {
+                SafeClose.close(fout);
+                file.delete();
+            }
+        }
     }
 }
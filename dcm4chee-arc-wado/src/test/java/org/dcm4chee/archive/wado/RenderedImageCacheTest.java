@@ -0,0 +1,148 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link RenderedImageCache}.
+ *
+ */
+public class RenderedImageCacheTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("rendered-image-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e)
+                    throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Path put(RenderedImageCache cache, String iuid, String key,
+            int length) throws IOException {
+        Path tmp = cache.createTempFile();
+        Files.write(tmp, new byte[length]);
+        return cache.put(iuid, key, tmp);
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        RenderedImageCache cache = new RenderedImageCache(dir, 1000);
+        assertNull(cache.get("1.2.3", "a.jpg"));
+        Path path = put(cache, "1.2.3", "a.jpg", 100);
+        assertEquals(path, cache.get("1.2.3", "a.jpg"));
+        assertEquals(100, Files.size(path));
+        assertEquals(100, cache.getSize());
+        assertNull(cache.get("1.2.3", "b.jpg"));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        RenderedImageCache cache = new RenderedImageCache(dir, 250);
+        Path a = put(cache, "1.2.3", "a.jpg", 100);
+        put(cache, "1.2.4", "b.jpg", 100);
+        assertNotNull(cache.get("1.2.3", "a.jpg"));
+        put(cache, "1.2.5", "c.jpg", 100);
+        assertEquals(200, cache.getSize());
+        assertNotNull(cache.get("1.2.3", "a.jpg"));
+        assertNull(cache.get("1.2.4", "b.jpg"));
+        assertNotNull(cache.get("1.2.5", "c.jpg"));
+        assertTrue(Files.exists(a));
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        RenderedImageCache cache = new RenderedImageCache(dir, 1000);
+        Path a = put(cache, "1.2.3", "a.jpg", 100);
+        put(cache, "1.2.3", "b.png", 100);
+        put(cache, "1.2.4", "a.jpg", 100);
+        cache.invalidate("1.2.3");
+        assertNull(cache.get("1.2.3", "a.jpg"));
+        assertNull(cache.get("1.2.3", "b.png"));
+        assertNotNull(cache.get("1.2.4", "a.jpg"));
+        assertEquals(100, cache.getSize());
+        assertFalse(Files.exists(a.getParent()));
+    }
+
+    @Test
+    public void testScanExistingEntries() throws IOException {
+        RenderedImageCache cache = new RenderedImageCache(dir, 1000);
+        put(cache, "1.2.3", "a.jpg", 100);
+        put(cache, "1.2.4", "a.jpg", 200);
+        cache.createTempFile();
+        cache = new RenderedImageCache(dir, 1000);
+        assertEquals(2, cache.getNumberOfEntries());
+        assertEquals(300, cache.getSize());
+        assertNotNull(cache.get("1.2.4", "a.jpg"));
+    }
+}
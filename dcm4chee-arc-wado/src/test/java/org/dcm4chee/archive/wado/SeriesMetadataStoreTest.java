@@ -0,0 +1,161 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link SeriesMetadataStore}.
+ *
+ */
+public class SeriesMetadataStoreTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("series-metadata");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e)
+                    throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Attributes dataset(String iuid, String bulkDataURI) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, iuid);
+        attrs.setValue(Tag.PixelData, VR.OW,
+                new BulkData(bulkDataURI, 1234, 512, false));
+        return attrs;
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        SeriesMetadataStore store = new SeriesMetadataStore(dir);
+        assertTrue(store.read("1.2", "1.2.3").isEmpty());
+        store.append("1.2", "1.2.3",
+                Collections.singleton(dataset("1.2.3.1", "/a/1")));
+        store.append("1.2", "1.2.3",
+                Collections.singleton(dataset("1.2.3.2", "/a/2")));
+        Map<String, Attributes> datasets = store.read("1.2", "1.2.3");
+        assertEquals(Arrays.asList("1.2.3.1", "1.2.3.2"),
+                Arrays.asList(datasets.keySet().toArray()));
+        BulkData bulkData = (BulkData)
+                datasets.get("1.2.3.2").getValue(Tag.PixelData);
+        assertEquals("/a/2", bulkData.uriWithoutQuery());
+        assertEquals(1234, bulkData.offset());
+        assertEquals(512, bulkData.length());
+    }
+
+    @Test
+    public void testLastEntrySupersedes() throws IOException {
+        SeriesMetadataStore store = new SeriesMetadataStore(dir);
+        store.append("1.2", "1.2.3",
+                Collections.singleton(dataset("1.2.3.1", "/a/1")));
+        store.append("1.2", "1.2.3",
+                Collections.singleton(dataset("1.2.3.1", "/b/1")));
+        Map<String, Attributes> datasets = store.read("1.2", "1.2.3");
+        assertEquals(1, datasets.size());
+        assertEquals("/b/1", ((BulkData) datasets.get("1.2.3.1")
+                .getValue(Tag.PixelData)).uriWithoutQuery());
+    }
+
+    @Test
+    public void testIgnoreInvalidEntries() throws IOException {
+        SeriesMetadataStore store = new SeriesMetadataStore(dir);
+        store.append("1.2", "1.2.3",
+                Collections.singleton(dataset("1.2.3.1", "/a/1")));
+        Files.write(dir.resolve("1.2").resolve("1.2.3.json"),
+                "{\"00080018\":{\"vr\":\"UI\",\"Val".getBytes(
+                        StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(1, store.read("1.2", "1.2.3").size());
+    }
+
+    @Test
+    public void testWriteAndDelete() throws IOException {
+        SeriesMetadataStore store = new SeriesMetadataStore(dir);
+        store.append("1.2", "1.2.3",
+                Collections.singleton(dataset("1.2.3.1", "/a/1")));
+        store.write("1.2", "1.2.3", Arrays.asList(
+                dataset("1.2.3.2", "/a/2"), dataset("1.2.3.3", "/a/3")));
+        assertEquals(Arrays.asList("1.2.3.2", "1.2.3.3"), Arrays.asList(
+                store.read("1.2", "1.2.3").keySet().toArray()));
+        store.delete("1.2", "1.2.3");
+        assertTrue(store.read("1.2", "1.2.3").isEmpty());
+        assertFalse(Files.exists(dir.resolve("1.2").resolve("1.2.3.json")));
+    }
+}
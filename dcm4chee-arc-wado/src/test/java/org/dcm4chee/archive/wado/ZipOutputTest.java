@@ -0,0 +1,147 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ZipOutput}.
+ *
+ */
+public class ZipOutputTest {
+
+    private static final int ENTRIES = 10;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        assertEntries(new ZipOutput(), ZipEntry.DEFLATED);
+    }
+
+    @Test
+    public void testWriteWithReadAhead() throws IOException {
+        assertEntries(new ZipOutput(executor, 3, 1024 * 1024), ZipEntry.STORED);
+    }
+
+    @Test
+    public void testWriteWithReadAheadSpooled() throws IOException {
+        assertEntries(new ZipOutput(executor, 3, 100), ZipEntry.STORED);
+    }
+
+    private void assertEntries(ZipOutput zipOutput, int compressedMethod)
+            throws IOException {
+        for (int i = 0; i < ENTRIES; i++)
+            zipOutput.addEntry(new ContentOutput(i), (i & 1) != 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zipOutput.write(out);
+
+        ZipInputStream zin = new ZipInputStream(
+                new ByteArrayInputStream(out.toByteArray()));
+        for (int i = 0; i < ENTRIES; i++) {
+            ZipEntry entry = zin.getNextEntry();
+            assertEquals((i + 1) + ".dcm", entry.getName());
+            assertEquals((i & 1) != 0 ? compressedMethod : ZipEntry.DEFLATED,
+                    entry.getMethod());
+            assertArrayEquals(content(i), readEntry(zin));
+        }
+        assertNull(zin.getNextEntry());
+    }
+
+    private static byte[] readEntry(ZipInputStream zin) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[256];
+        int read;
+        while ((read = zin.read(b)) > 0)
+            out.write(b, 0, read);
+        return out.toByteArray();
+    }
+
+    private static byte[] content(int index) {
+        byte[] b = new byte[index * 100];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) (i * index);
+        return b;
+    }
+
+    private static class ContentOutput implements StreamingOutput {
+
+        private final int index;
+
+        ContentOutput(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            byte[] b = content(index);
+            // write in chunks to cross the spool threshold within an entry
+            for (int off = 0; off < b.length; off += 64)
+                out.write(b, off, Math.min(64, b.length - off));
+        }
+    }
+}